@@ -0,0 +1,67 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+class BLinkInternalNode<K> extends BLinkNode<K>
+{
+    final BLinkNode<K>[] children;
+
+    BLinkInternalNode(int degree, int level)
+    {
+        super(degree, level);
+        this.children = newChildren(degree);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> BLinkNode<K>[] newChildren(int length)
+    {
+        return (BLinkNode<K>[]) new BLinkNode<?>[length];
+    }
+
+    int childCount()
+    {
+        return keyCount + 1;
+    }
+
+    void insertEntry(int keyPos, K key, int childPos, BLinkNode<K> child)
+    {
+        System.arraycopy(children, childPos, children, childPos + 1, childCount() - childPos);
+        children[childPos] = child;
+        insertKey(keyPos, key);
+    }
+
+    void removeEntry(int keyPos, int childPos)
+    {
+        System.arraycopy(children, childPos + 1, children, childPos, childCount() - childPos - 1);
+        children[childCount() - 1] = null;
+        removeKey(keyPos);
+    }
+
+    /**
+     * @return the position of the given child, compared by identity, -1 if it is not a child of this node
+     */
+    int positionOf(BLinkNode<K> child)
+    {
+        for (int i = 0; i < childCount(); i ++)
+        {
+            if (children[i] == child)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+class BLinkLeafNode<K, V> extends BLinkNode<K>
+{
+    final V[] values;
+
+    @SuppressWarnings("unchecked")
+    BLinkLeafNode(int degree)
+    {
+        super(degree, 0);
+        this.values = (V[]) new Object[degree - 1];
+    }
+
+    void insertEntry(int pos, K key, V value)
+    {
+        System.arraycopy(values, pos, values, pos + 1, keyCount - pos);
+        values[pos] = value;
+        insertKey(pos, key);
+    }
+
+    void removeEntry(int pos)
+    {
+        System.arraycopy(values, pos + 1, values, pos, keyCount - pos - 1);
+        values[keyCount - 1] = null;
+        removeKey(pos);
+    }
+}
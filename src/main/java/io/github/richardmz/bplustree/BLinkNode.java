@@ -0,0 +1,41 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A node of {@link BLinkTree}. Besides the version latch, it knows the upper bound of the keys it covers and its right
+ * sibling, so that anyone reaching it after it split can still find the moved keys by moving right.
+ */
+abstract class BLinkNode<K> extends ConcurrentNode<K>
+{
+    // 0 for leaves, counting up towards the root
+    final int level;
+
+    // keys from highKey on have moved to the right, null on the rightmost node of a level
+    @Nullable
+    K highKey = null;
+
+    @Nullable
+    BLinkNode<K> right = null;
+
+    BLinkNode(int degree, int level)
+    {
+        super(degree, level == 0);
+        this.level = level;
+    }
+}
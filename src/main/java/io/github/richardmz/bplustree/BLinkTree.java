@@ -0,0 +1,696 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe B+ tree after Lehman and Yao's B-link tree. Every node knows the upper bound of its keys and links to
+ * its right sibling, see {@link BLinkNode}. A split moves the upper half of a node into a new right sibling before the
+ * parent hears about it, and anyone who reaches the node meanwhile and finds the key beyond its high key just moves
+ * right. So readers never restart from the root and never block on a split: they read each node optimistically, and
+ * only read it again if a writer changed it meanwhile.
+ * <p>
+ * Writers latch one node at a time, two while moving right, and insert the separator into the parent only after the
+ * split node is unlocked. Range queries are weakly consistent, each leaf is read atomically.
+ * <p>
+ * Deletion never rebalances, but a leaf left empty is unlinked by the delete that emptied it, handing its keys over to
+ * its right sibling, so that anyone still reaching it moves right as after a split. A last child pulls in its left
+ * sibling instead. The first child has its left sibling under another parent, beyond reach, and internal nodes are
+ * never unlinked. So the empty leaves left are bounded by the first two children of each parent ever created, plus
+ * those whose unlinking gave up on a latched parent or sibling, until a later delete reaches them.
+ */
+public class BLinkTree<K, V>
+{
+    // binary search result for a node read while a writer was changing it
+    private static final int INCONSISTENT = Integer.MIN_VALUE;
+
+    private final int degree;
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    private volatile BLinkNode<K> root;
+
+    private final LongAdder size = new LongAdder();
+
+    private final Logger logger = Logger.getInstance();
+
+    /**
+     * Creates a tree ordered by the natural ordering of its keys, which must implement {@link Comparable}.
+     */
+    public BLinkTree(int degree) throws DegreeTooSmallException
+    {
+        this(degree, null);
+    }
+
+    /**
+     * Creates a tree ordered by the given comparator, or by the natural ordering of its keys if it is null.
+     */
+    public BLinkTree(int degree, @Nullable Comparator<? super K> comparator) throws DegreeTooSmallException
+    {
+        if (degree < 3)
+        {
+            throw new DegreeTooSmallException(degree);
+        }
+        else
+        {
+            this.degree = degree;
+            this.comparator = comparator;
+            this.root = new BLinkLeafNode<K, V>(degree);
+        }
+    }
+
+    /**
+     * @return the number of entries, not an atomic snapshot while writers are running
+     */
+    public int size()
+    {
+        return size.intValue();
+    }
+
+    // Comparison ======================================================================================================
+
+    @SuppressWarnings("unchecked")
+    private int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    /**
+     * Same contract as {@link java.util.Arrays#binarySearch(Object[], Object)}, but safe on a node read while a writer
+     * is changing it.
+     *
+     * @return {@link #INCONSISTENT} if a slot was caught empty, the caller must validate and read again
+     */
+    private int binarySearch(BLinkNode<K> node, K key)
+    {
+        int low = 0;
+        int high = Math.min(node.keyCount, node.keys.length) - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            K midKey = node.keyAt(mid);
+            if (midKey == null)
+            {
+                return INCONSISTENT;
+            }
+            int cmp = compare(midKey, key);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the position of the child covering the key, -1 if the node was caught inconsistent
+     */
+    private int childPosition(BLinkInternalNode<K> node, K key)
+    {
+        int pos = binarySearch(node, key);
+        if (pos == INCONSISTENT)
+        {
+            return -1;
+        }
+        // a key equal to a separator belongs to the right child
+        else if (pos >= 0)
+        {
+            return pos + 1;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+    /**
+     * @return whether the key has moved on to the right of the node
+     */
+    private boolean beyond(@Nullable K highKey, K key)
+    {
+        return highKey != null && compare(key, highKey) >= 0;
+    }
+
+
+    // Descent =========================================================================================================
+
+    /**
+     * Goes down optimistically to the node of the given level covering the key, moving right past any split not yet
+     * known to the parent. A node caught changing is read again, never the whole path.
+     *
+     * @param path if not null, gets the internal nodes gone down from, the lowest on top
+     */
+    private BLinkNode<K> descend(K key, int level, @Nullable Deque<BLinkInternalNode<K>> path)
+    {
+        BLinkNode<K> node = root;
+        while (true)
+        {
+            long version = node.readLock();
+            K highKey = node.highKey;
+            BLinkNode<K> right = node.right;
+            if (beyond(highKey, key))
+            {
+                if (right != null && node.validate(version))
+                {
+                    node = right;
+                }
+                continue;
+            }
+            if (node.level == level)
+            {
+                if (node.validate(version))
+                {
+                    return node;
+                }
+                continue;
+            }
+            BLinkInternalNode<K> internalNode = (BLinkInternalNode<K>) node;
+            int childPos = childPosition(internalNode, key);
+            BLinkNode<K> child = childPos < 0 ? null : internalNode.children[childPos];
+            if (child != null && node.validate(version))
+            {
+                if (path != null)
+                {
+                    path.push(internalNode);
+                }
+                node = child;
+            }
+        }
+    }
+
+    /**
+     * Latches the node, then moves right along its level until reaching the node covering the key, holding at most
+     * two latches at a time.
+     *
+     * @return the latched node covering the key
+     */
+    private BLinkNode<K> lockCovering(BLinkNode<K> node, K key)
+    {
+        node.writeLock();
+        while (beyond(node.highKey, key))
+        {
+            BLinkNode<K> right = node.right;
+            right.writeLock();
+            node.writeUnlock();
+            node = right;
+        }
+        return node;
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException
+    {
+        if (putIfAbsent(key, value) != null)
+        {
+            throw new KeyConflictException(key.toString());
+        }
+    }
+
+    /**
+     * Inserts the key, or replaces its value if already in use.
+     *
+     * @return the previous value of the key, null if there was none
+     */
+    @Nullable
+    public V put(K key, V value)
+    {
+        return put(key, value, true);
+    }
+
+    /**
+     * Inserts the key only if not in use.
+     *
+     * @return the current value of the key if already in use, null if inserted
+     */
+    @Nullable
+    public V putIfAbsent(K key, V value)
+    {
+        return put(key, value, false);
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private V put(K key, V value, boolean replace)
+    {
+        Deque<BLinkInternalNode<K>> path = new ArrayDeque<>();
+        BLinkLeafNode<K, V> leaf = (BLinkLeafNode<K, V>) lockCovering(descend(key, 0, path), key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            V oldValue = leaf.values[pos];
+            if (replace)
+            {
+                leaf.values[pos] = value;
+            }
+            leaf.writeUnlock();
+            return oldValue;
+        }
+        if (!leaf.isFull())
+        {
+            leaf.insertEntry(-(pos + 1), key, value);
+            size.increment();
+            leaf.writeUnlock();
+            return null;
+        }
+        BLinkLeafNode<K, V> newLeaf = split(leaf);
+        K separator = newLeaf.keyAt(0);
+        BLinkLeafNode<K, V> target = compare(key, separator) < 0 ? leaf : newLeaf;
+        target.insertEntry(-(binarySearch(target, key) + 1), key, value);
+        size.increment();
+        insertUpwards(leaf, separator, newLeaf, path);
+        return null;
+    }
+
+    /**
+     * Tells the parent level about the split of the latched node, splitting parents as needed, or grows a new root.
+     * Unlocks the node first, the new node is reachable through its right link meanwhile.
+     */
+    private void insertUpwards(BLinkNode<K> node, K separator, BLinkNode<K> newNode, Deque<BLinkInternalNode<K>> path)
+    {
+        while (true)
+        {
+            // only a writer holding the root can replace it
+            if (node == root)
+            {
+                BLinkInternalNode<K> newRoot = new BLinkInternalNode<>(degree, node.level + 1);
+                newRoot.children[0] = node;
+                newRoot.insertEntry(0, separator, 1, newNode);
+                root = newRoot;
+                node.writeUnlock();
+                return;
+            }
+            int parentLevel = node.level + 1;
+            node.writeUnlock();
+            // the path ends below the parent level if the root was split since the descent
+            BLinkNode<K> start = path.isEmpty() ? descend(separator, parentLevel, null) : path.pop();
+            BLinkInternalNode<K> parent = (BLinkInternalNode<K>) lockCovering(start, separator);
+            if (!parent.isFull())
+            {
+                insertEntry(parent, separator, newNode);
+                parent.writeUnlock();
+                return;
+            }
+            BLinkInternalNode<K> newParent = split(parent);
+            K parentSeparator = parent.highKey;
+            insertEntry(compare(separator, parentSeparator) < 0 ? parent : newParent, separator, newNode);
+            node = parent;
+            separator = parentSeparator;
+            newNode = newParent;
+        }
+    }
+
+    private void insertEntry(BLinkInternalNode<K> node, K separator, BLinkNode<K> newNode)
+    {
+        // the split child still holds the separator's place, the new node goes right after it
+        int childPos = childPosition(node, separator);
+        node.insertEntry(childPos, separator, childPos + 1, newNode);
+    }
+
+    /**
+     * Moves the upper half of the latched leaf into a new right sibling.
+     */
+    private BLinkLeafNode<K, V> split(BLinkLeafNode<K, V> leaf)
+    {
+        BLinkLeafNode<K, V> newLeaf = new BLinkLeafNode<>(degree);
+        int medianPos = leaf.keyCount / 2;
+        for (int i = medianPos; i < leaf.keyCount; i ++)
+        {
+            newLeaf.insertEntry(i - medianPos, leaf.keyAt(i), leaf.values[i]);
+        }
+        while (leaf.keyCount > medianPos)
+        {
+            leaf.removeEntry(leaf.keyCount - 1);
+        }
+        newLeaf.highKey = leaf.highKey;
+        newLeaf.right = leaf.right;
+        leaf.highKey = newLeaf.keyAt(0);
+        leaf.right = newLeaf;
+        return newLeaf;
+    }
+
+    /**
+     * Moves the keys after the median of the latched node, along with their children, into a new right sibling. The
+     * median becomes the high key of the node, and the separator for the new one.
+     */
+    private BLinkInternalNode<K> split(BLinkInternalNode<K> internalNode)
+    {
+        BLinkInternalNode<K> newInternalNode = new BLinkInternalNode<>(degree, internalNode.level);
+        int medianPos = internalNode.keyCount / 2;
+        K separator = internalNode.keyAt(medianPos);
+        newInternalNode.children[0] = internalNode.children[medianPos + 1];
+        for (int i = medianPos + 1; i < internalNode.keyCount; i ++)
+        {
+            newInternalNode.insertEntry(i - medianPos - 1, internalNode.keyAt(i), i - medianPos,
+                                        internalNode.children[i + 1]);
+        }
+        for (int i = medianPos + 1; i <= internalNode.keyCount; i ++)
+        {
+            internalNode.children[i] = null;
+        }
+        while (internalNode.keyCount > medianPos)
+        {
+            internalNode.removeKey(internalNode.keyCount - 1);
+        }
+        newInternalNode.highKey = internalNode.highKey;
+        newInternalNode.right = internalNode.right;
+        internalNode.highKey = separator;
+        internalNode.right = newInternalNode;
+        return newInternalNode;
+    }
+
+
+    // Search Methods ==================================================================================================
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V search(K key)
+    {
+        BLinkLeafNode<K, V> leaf = (BLinkLeafNode<K, V>) descend(key, 0, null);
+        while (true)
+        {
+            long version = leaf.readLock();
+            K highKey = leaf.highKey;
+            BLinkNode<K> right = leaf.right;
+            if (beyond(highKey, key))
+            {
+                if (right != null && leaf.validate(version))
+                {
+                    leaf = (BLinkLeafNode<K, V>) right;
+                }
+                continue;
+            }
+            int pos = binarySearch(leaf, key);
+            V value = pos >= 0 ? leaf.values[pos] : null;
+            if (pos != INCONSISTENT && leaf.validate(version))
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return values of all keys in [lowerKey, upperKey], in key order
+     */
+    public List<V> rangeQuery(K lowerKey, K upperKey)
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * Reads leaf by leaf along the right links, copying each one out before validating it. A leaf caught changing is
+     * copied again, keys it may have lost to a split are found further right anyway.
+     *
+     * @return values of all keys between lowerKey and upperKey, in key order, each bound is included only if asked
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+    {
+        List<V> result = new ArrayList<>();
+        if (compare(lowerKey, upperKey) > 0)
+        {
+            return result;
+        }
+        Object[] keys = new Object[degree - 1];
+        Object[] values = new Object[degree - 1];
+        K fromKey = lowerKey;
+        boolean fromInclusive = lowerInclusive;
+        BLinkLeafNode<K, V> leaf = (BLinkLeafNode<K, V>) descend(lowerKey, 0, null);
+        while (leaf != null)
+        {
+            long version = leaf.readLock();
+            int count = Math.min(leaf.keyCount, keys.length);
+            System.arraycopy(leaf.keys, 0, keys, 0, count);
+            System.arraycopy(leaf.values, 0, values, 0, count);
+            BLinkLeafNode<K, V> right = (BLinkLeafNode<K, V>) leaf.right;
+            if (!leaf.validate(version))
+            {
+                continue;
+            }
+            for (int i = 0; i < count; i ++)
+            {
+                K key = (K) keys[i];
+                int cmp = compare(key, fromKey);
+                if (cmp < 0 || (cmp == 0 && !fromInclusive))
+                {
+                    continue;
+                }
+                cmp = compare(key, upperKey);
+                if (cmp > 0 || (cmp == 0 && !upperInclusive))
+                {
+                    return result;
+                }
+                result.add((V) values[i]);
+                fromKey = key;
+                fromInclusive = false;
+            }
+            leaf = right;
+        }
+        return result;
+    }
+
+
+    // Deletion ========================================================================================================
+
+    /**
+     * Removes the key from its leaf, never rebalancing, and unlinks the leaf if left empty.
+     */
+    public void delete(K key)
+    {
+        Deque<BLinkInternalNode<K>> path = new ArrayDeque<>();
+        @SuppressWarnings("unchecked")
+        BLinkLeafNode<K, V> leaf = (BLinkLeafNode<K, V>) lockCovering(descend(key, 0, path), key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            leaf.removeEntry(pos);
+            size.decrement();
+        }
+        BLinkInternalNode<K> parent = path.peek();
+        if (leaf.keyCount == 0 && parent != null)
+        {
+            unlink(parent, leaf);
+        }
+        leaf.writeUnlock();
+    }
+
+    /**
+     * Takes a leaf out of the parent of the empty leaf latched by the caller: the empty leaf itself, or its left
+     * sibling if it is the last child, as only a leaf with a right sibling under the parent can go. Does nothing if the
+     * parent or another leaf needed is latched, or if the empty leaf is not under the parent gone down from.
+     */
+    private void unlink(BLinkInternalNode<K> parent, BLinkNode<K> leaf)
+    {
+        if (!parent.tryWriteLock())
+        {
+            return;
+        }
+        int childPos = parent.positionOf(leaf);
+        int mergedPos = childPos == parent.keyCount ? childPos - 1 : childPos;
+        // the first child has its left sibling under another parent, beyond reach
+        if (mergedPos > 0)
+        {
+            BLinkNode<K> left = parent.children[mergedPos - 1];
+            BLinkNode<K> merged = parent.children[mergedPos];
+            // the empty leaf is either merged or the one merged into, the other is not latched yet
+            BLinkNode<K> other = merged == leaf ? parent.children[mergedPos + 1] : merged;
+            if (left.tryWriteLock())
+            {
+                if (other.tryWriteLock())
+                {
+                    mergeRight(parent, mergedPos);
+                    other.writeUnlock();
+                }
+                left.writeUnlock();
+            }
+        }
+        parent.writeUnlock();
+    }
+
+    /**
+     * Moves the entries of the leaf at the given position into its right sibling, and takes it out of the latched
+     * parent and out of the chain, linking its left sibling past it. Its high key comes down to its lower bound, so
+     * anyone still reaching it through a stale link moves right onto the sibling now covering its keys, as after a
+     * split. All three leaves are latched, one of the two merged is empty. Does nothing if a split next to the leaf has
+     * not reached the parent yet.
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeRight(BLinkInternalNode<K> parent, int childPos)
+    {
+        BLinkNode<K> left = parent.children[childPos - 1];
+        BLinkLeafNode<K, V> leaf = (BLinkLeafNode<K, V>) parent.children[childPos];
+        BLinkLeafNode<K, V> right = (BLinkLeafNode<K, V>) parent.children[childPos + 1];
+        if (left.right != leaf || leaf.right != right)
+        {
+            return;
+        }
+        // a range query reaching the right sibling through the leaf skips the entries it already took from it
+        for (int i = leaf.keyCount - 1; i >= 0; i --)
+        {
+            right.insertEntry(0, leaf.keyAt(i), leaf.values[i]);
+        }
+        while (leaf.keyCount > 0)
+        {
+            leaf.removeEntry(leaf.keyCount - 1);
+        }
+        leaf.highKey = parent.keyAt(childPos - 1);
+        left.right = right;
+        parent.removeEntry(childPos, childPos);
+    }
+
+
+    // Validation ======================================================================================================
+
+    /**
+     * Checks the structure of the tree. Only meaningful while no writer is running, as only then every split has
+     * reached the parent level.
+     */
+    public boolean validate()
+    {
+        logger.info("Validating ...");
+        BLinkNode<K> root = this.root;
+        List<List<BLinkNode<K>>> levels = new ArrayList<>();
+        for (int level = 0; level <= root.level; level ++)
+        {
+            levels.add(new ArrayList<>());
+        }
+        if (validate(root, null, null, levels) && validateLinks(levels))
+        {
+            logger.info("Validation passed");
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the node and its subtree, every key must be in [lower, upper), a null bound is unbounded, and the high key
+     * must be upper. Collects the nodes of each level in key order.
+     */
+    private boolean validate(BLinkNode<K> node, @Nullable K lower, @Nullable K upper, List<List<BLinkNode<K>>> levels)
+    {
+        K previous = null;
+        for (int i = 0; i < node.keyCount; i ++)
+        {
+            K key = node.keyAt(i);
+            if (previous != null && compare(previous, key) >= 0)
+            {
+                logger.info("Validation failed: keys are not in ascending order");
+                return false;
+            }
+            if ((lower != null && compare(key, lower) < 0) || (upper != null && compare(key, upper) >= 0))
+            {
+                logger.info("Validation failed: key " + key + " is out of the range of its parent");
+                return false;
+            }
+            previous = key;
+        }
+        if (upper == null ? node.highKey != null : node.highKey == null || compare(node.highKey, upper) != 0)
+        {
+            logger.info("Validation failed: high key " + node.highKey + " is not the parent's bound " + upper);
+            return false;
+        }
+        levels.get(node.level).add(node);
+        if (node.isLeaf())
+        {
+            return true;
+        }
+        BLinkInternalNode<K> internalNode = (BLinkInternalNode<K>) node;
+        for (int i = 0; i < internalNode.children.length; i ++)
+        {
+            if ((internalNode.children[i] == null) == (i <= internalNode.keyCount))
+            {
+                logger.info("Validation failed: internal.keyCount + 1 != number of children");
+                return false;
+            }
+        }
+        for (int i = 0; i <= internalNode.keyCount; i ++)
+        {
+            BLinkNode<K> child = internalNode.children[i];
+            if (child.level != node.level - 1)
+            {
+                logger.info("Validation failed: a child of level " + child.level + " under level " + node.level);
+                return false;
+            }
+            K childLower = i == 0 ? lower : internalNode.keyAt(i - 1);
+            K childUpper = i == internalNode.keyCount ? upper : internalNode.keyAt(i);
+            if (!validate(child, childLower, childUpper, levels))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the right links of each level follow the nodes of the tree, and that the leaves hold all entries.
+     */
+    private boolean validateLinks(List<List<BLinkNode<K>>> levels)
+    {
+        for (List<BLinkNode<K>> level : levels)
+        {
+            for (int i = 0; i < level.size(); i ++)
+            {
+                BLinkNode<K> right = i + 1 < level.size() ? level.get(i + 1) : null;
+                if (level.get(i).right != right)
+                {
+                    logger.info("Validation failed: the right links do not follow the tree");
+                    return false;
+                }
+            }
+        }
+        int count = 0;
+        for (BLinkNode<K> leaf : levels.get(0))
+        {
+            count += leaf.keyCount;
+        }
+        if (count != size())
+        {
+            logger.info("Validation failed: " + count + " entries in the leaves, size is " + size());
+            return false;
+        }
+        return true;
+    }
+}
@@ -17,19 +17,64 @@ package io.github.richardmz.bplustree;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class BPlusTree<K extends Comparable<? super K>, V>
+/**
+ * A B+ tree ordered either by the natural ordering of its keys, or by a {@link Comparator} given at construction.
+ * <p>
+ * {@link #snapshot()} freezes the current nodes and hands out a read-only view of them. From then on, a change copies
+ * the nodes on its root-to-leaf path before touching them, and the snapshot keeps sharing everything left untouched.
+ */
+public class BPlusTree<K, V> implements Iterable<Map.Entry<K, V>>
 {
     private final Logger logger = Logger.getInstance();
     private final int degree;
 
     private final int minKeyArraySize;
 
-    private final LeafNode<K, V> firstLeaf;
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    private LeafNode<K, V> firstLeaf;
     private Node<K> root;
 
+    // root-to-leaf path of the last descent, pathNodes[i] is an internal node and pathPositions[i] the child taken,
+    // the child covers keys in [pathLowerKeys[i], pathUpperKeys[i]), where null is unbounded
+    private InternalNode<K>[] pathNodes;
+    private int[] pathPositions;
+    private K[] pathLowerKeys;
+    private K[] pathUpperKeys;
+    private int pathLength = 0;
+
+    private int size = 0;
+
+    // nodes of an older generation are shared with snapshots and must be copied before any change
+    private int generation = 0;
+
+    // a snapshot only reads, and does not trust the leaf chain, which the tree it was taken from keeps relinking
+    private final boolean snapshot;
+
+    // number of structural modifications, so cursors and iterators can fail fast
+    int modCount = 0;
+
+    /**
+     * Creates a tree ordered by the natural ordering of its keys, which must implement {@link Comparable}.
+     */
     public BPlusTree(int degree) throws DegreeTooSmallException
+    {
+        this(degree, null);
+    }
+
+    /**
+     * Creates a tree ordered by the given comparator, or by the natural ordering of its keys if it is null.
+     */
+    public BPlusTree(int degree, @Nullable Comparator<? super K> comparator) throws DegreeTooSmallException
     {
         if (degree < 3)
         {
@@ -39,106 +84,758 @@ public class BPlusTree<K extends Comparable<? super K>, V>
         {
             this.degree = degree;
             this.minKeyArraySize = (degree % 2 == 0) ? (degree / 2 - 1) : ((degree + 1) / 2 - 1);
-            this.root = new LeafNode<>();
+            this.comparator = comparator;
+            this.snapshot = false;
+            this.root = new LeafNode<>(degree);
             this.firstLeaf = (LeafNode<K, V>) root;
+            this.pathNodes = newPathNodes(8);
+            this.pathPositions = new int[8];
+            this.pathLowerKeys = newPathKeys(8);
+            this.pathUpperKeys = newPathKeys(8);
         }
     }
 
+    /**
+     * Creates a read-only view sharing all nodes of the given tree, see {@link #snapshot()}.
+     */
+    private BPlusTree(BPlusTree<K, V> tree)
+    {
+        this.degree = tree.degree;
+        this.minKeyArraySize = tree.minKeyArraySize;
+        this.comparator = tree.comparator;
+        this.snapshot = true;
+        this.root = tree.root;
+        // the leftmost leaf of the snapshot, even after the tree copied it
+        this.firstLeaf = tree.firstLeaf;
+        this.size = tree.size;
+        this.generation = tree.generation;
+        this.pathNodes = newPathNodes(8);
+        this.pathPositions = new int[8];
+        this.pathLowerKeys = newPathKeys(8);
+        this.pathUpperKeys = newPathKeys(8);
+    }
 
-    // Insertion =======================================================================================================
+    @Nullable
+    public Comparator<? super K> comparator()
+    {
+        return comparator;
+    }
 
-    public void insert(K key, V value) throws KeyConflictException
+    /**
+     * @return number of entries in the tree
+     */
+    public int size()
     {
-//        logger.debug("Inserting " + key);
-        Node<K> newChild = insert(root, key, value);
-        if (newChild != null)
+        return size;
+    }
+
+    int degree()
+    {
+        return degree;
+    }
+
+    int minKeyArraySize()
+    {
+        return minKeyArraySize;
+    }
+
+
+    // Bulk Loading ====================================================================================================
+
+    /**
+     * Same as {@link #bulkLoad(int, Comparator, Iterator, double)}, ordered by the natural ordering of the keys.
+     */
+    public static <K, V> BPlusTree<K, V> bulkLoad(int degree, Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, double fillFactor)
+            throws DegreeTooSmallException
+    {
+        return bulkLoad(degree, null, sorted, fillFactor);
+    }
+
+    /**
+     * Builds a tree bottom-up from entries in strictly ascending key order, which is much faster than inserting them
+     * one by one and gives denser nodes. Every node is filled to fillFactor * (degree - 1) keys, except the last one
+     * of each level, which is evened out with its left neighbour.
+     *
+     * @param fillFactor in (0, 1], 1 packs nodes completely, lower values leave room for later inserts
+     * @throws IllegalArgumentException if the keys are not in strictly ascending order
+     */
+    public static <K, V> BPlusTree<K, V> bulkLoad(int degree, @Nullable Comparator<? super K> comparator,
+                                                  Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted,
+                                                  double fillFactor) throws DegreeTooSmallException
+    {
+        BulkLoader<K, V> loader = new BulkLoader<>(new BPlusTree<>(degree, comparator), fillFactor);
+        while (sorted.hasNext())
+        {
+            Map.Entry<? extends K, ? extends V> entry = sorted.next();
+            loader.add(entry.getKey(), entry.getValue());
+        }
+        return loader.build();
+    }
+
+    /**
+     * Replaces the whole content of the tree with nodes built elsewhere.
+     */
+    void load(Node<K> root, LeafNode<K, V> firstLeaf, int size)
+    {
+        checkWritable();
+        this.root = root;
+        this.firstLeaf = firstLeaf;
+        this.size = size;
+        this.pathLength = 0;
+        modCount ++;
+    }
+
+
+    // Snapshots =======================================================================================================
+
+    /**
+     * Takes a consistent read-only view of the tree in O(1). The view shares all nodes with the tree, which copies the
+     * nodes on the root-to-leaf path of each later change instead of changing them in place, so the view never sees a
+     * change and never holds up one. Once handed to another thread, the view can be read there while this tree is
+     * still being written. Any attempt to modify the view throws {@link UnsupportedOperationException}.
+     */
+    public BPlusTree<K, V> snapshot()
+    {
+        if (snapshot)
         {
-            // split root node, create new root node
-            InternalNode<K> newRoot = new InternalNode<>();
-            newRoot.keys.add(newChild.getMinKey());
-            newRoot.children.add(root);
-            newRoot.children.add(newChild);
-            root = newRoot;
+            return this;
         }
+        BPlusTree<K, V> view = new BPlusTree<>(this);
+        generation ++;
+        return view;
     }
 
-    private Node<K> insert(Node<K> node, K key, V value) throws KeyConflictException
+    public boolean isSnapshot()
     {
+        return snapshot;
+    }
+
+    private void checkWritable()
+    {
+        if (snapshot)
+        {
+            throw new UnsupportedOperationException("A snapshot is read-only");
+        }
+    }
+
+    /**
+     * Makes the leaf reached by the last descent writable, by copying every node on the recorded path that is still
+     * shared with a snapshot. A node of the current generation only has parents of the current generation, so a
+     * writable leaf means a writable path.
+     *
+     * @return the writable leaf, which replaced the given one in the tree
+     */
+    private LeafNode<K, V> writablePath(LeafNode<K, V> leaf)
+    {
+        if (leaf.generation == generation)
+        {
+            return leaf;
+        }
+        if (root.generation != generation)
+        {
+            root = copy(root, null);
+        }
+        Node<K> node = root;
+        for (int depth = 0; depth < pathLength; depth ++)
+        {
+            pathNodes[depth] = (InternalNode<K>) node;
+            node = writableChild(depth, pathPositions[depth]);
+        }
+        return asLeaf(node);
+    }
+
+    /**
+     * Makes a child of the writable node at the given depth of the recorded path writable, copying it if shared.
+     */
+    private Node<K> writableChild(int depth, int childPos)
+    {
+        InternalNode<K> parent = pathNodes[depth];
+        Node<K> child = parent.children[childPos];
+        if (child.generation != generation)
+        {
+            child = copy(child, child.isLeaf() ? previousLeaf(depth, childPos) : null);
+            parent.children[childPos] = child;
+        }
+        return child;
+    }
+
+    /**
+     * Copies the node into the current generation. A leaf copy also takes the old leaf's place in the chain, by
+     * relinking the previous leaf in place, which snapshots sharing it do not mind as they never follow the chain.
+     */
+    private Node<K> copy(Node<K> node, @Nullable LeafNode<K, V> previousLeaf)
+    {
+        Node<K> copy;
         if (node.isLeaf())
         {
-            int pos = Collections.binarySearch(node.keys, key);
-            // found
-            if (pos >= 0)
+            LeafNode<K, V> leaf = asLeaf(node);
+            LeafNode<K, V> leafCopy = new LeafNode<>(degree);
+            System.arraycopy(leaf.values, 0, leafCopy.values, 0, leaf.keyCount);
+            leafCopy.next = leaf.next;
+            if (previousLeaf == null)
             {
-                throw new KeyConflictException(key.toString());
+                firstLeaf = leafCopy;
             }
-            // not found
             else
             {
-                LeafNode<K, V> leaf = (LeafNode<K, V>) node;
-                int insertPos = -(pos + 1); // See doc of Collections.binarySearch(list, key)
-                leaf.keys.add(insertPos, key);
-                leaf.values.add(insertPos, value);
-                // need split
-                if (leaf.keys.size() == degree)
+                previousLeaf.next = leafCopy;
+            }
+            copy = leafCopy;
+        }
+        else
+        {
+            InternalNode<K> internal = (InternalNode<K>) node;
+            InternalNode<K> internalCopy = new InternalNode<>(degree);
+            System.arraycopy(internal.children, 0, internalCopy.children, 0, internal.childCount());
+            copy = internalCopy;
+        }
+        System.arraycopy(node.keys, 0, copy.keys, 0, node.keyCount);
+        copy.keyCount = node.keyCount;
+        copy.generation = generation;
+        // cursors still on the old node would miss even a value replaced in the copy
+        modCount ++;
+        return copy;
+    }
+
+    /**
+     * @return the leaf before the child of the node at the given depth of the recorded path, null if it is the first
+     */
+    @Nullable
+    private LeafNode<K, V> previousLeaf(int depth, int childPos)
+    {
+        while (childPos == 0)
+        {
+            if (depth == 0)
+            {
+                return null;
+            }
+            depth --;
+            childPos = pathPositions[depth];
+        }
+        Node<K> node = pathNodes[depth].children[childPos - 1];
+        while (!node.isLeaf())
+        {
+            InternalNode<K> internal = (InternalNode<K>) node;
+            node = internal.children[internal.keyCount];
+        }
+        return asLeaf(node);
+    }
+
+    /**
+     * @return the leaf after the given one. Follows the chain, unless on a snapshot, which finds it from the root
+     * instead, as the first leaf right of the path to the leaf's last key.
+     */
+    @Nullable
+    LeafNode<K, V> nextLeaf(LeafNode<K, V> leaf)
+    {
+        if (!snapshot)
+        {
+            return leaf.next;
+        }
+        // only an empty root has no keys
+        if (leaf.keyCount == 0)
+        {
+            return null;
+        }
+        K lastKey = leaf.keyAt(leaf.keyCount - 1);
+        Node<K> node = root;
+        Node<K> rightBranch = null;
+        while (!node.isLeaf())
+        {
+            InternalNode<K> internal = (InternalNode<K>) node;
+            int childPos = childPosition(internal, lastKey);
+            if (childPos < internal.keyCount)
+            {
+                rightBranch = internal.children[childPos + 1];
+            }
+            node = internal.children[childPos];
+        }
+        if (rightBranch == null)
+        {
+            return null;
+        }
+        while (!rightBranch.isLeaf())
+        {
+            rightBranch = ((InternalNode<K>) rightBranch).children[0];
+        }
+        return asLeaf(rightBranch);
+    }
+
+
+    // Export and Import ===============================================================================================
+
+    /**
+     * Writes all entries to the channel in key order, in framed and checksummed chunks, for
+     * {@link #loadFrom(ReadableByteChannel, int, Comparator, KeySerializer, ValueSerializer, double)} to rebuild the
+     * tree elsewhere. Streams the leaf chain, holding a single frame in memory. The tree must not be modified
+     * meanwhile, to go on changing it, export a {@link #snapshot()} instead.
+     */
+    public void snapshotTo(WritableByteChannel channel, KeySerializer<K> keySerializer,
+                           ValueSerializer<V> valueSerializer) throws IOException
+    {
+        SnapshotFormat.write(this, channel, keySerializer, valueSerializer);
+    }
+
+    /**
+     * Same as {@link #loadFrom(ReadableByteChannel, int, Comparator, KeySerializer, ValueSerializer, double)}, ordered
+     * by the natural ordering of the keys.
+     */
+    public static <K, V> BPlusTree<K, V> loadFrom(ReadableByteChannel channel, int degree,
+                                                  KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer,
+                                                  double fillFactor) throws DegreeTooSmallException, IOException
+    {
+        return loadFrom(channel, degree, null, keySerializer, valueSerializer, fillFactor);
+    }
+
+    /**
+     * Rebuilds a tree written by {@link #snapshotTo(WritableByteChannel, KeySerializer, ValueSerializer)}, bottom-up
+     * as {@link #bulkLoad(int, Comparator, Iterator, double)} does, while reading the channel one frame at a time.
+     *
+     * @param comparator must order the keys as the exported tree did, natural ordering if null
+     * @throws IOException if the channel holds no snapshot, or a corrupt or truncated one
+     */
+    public static <K, V> BPlusTree<K, V> loadFrom(ReadableByteChannel channel, int degree,
+                                                  @Nullable Comparator<? super K> comparator,
+                                                  KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer,
+                                                  double fillFactor) throws DegreeTooSmallException, IOException
+    {
+        BulkLoader<K, V> loader = new BulkLoader<>(new BPlusTree<>(degree, comparator), fillFactor);
+        SnapshotFormat.read(channel, loader, keySerializer, valueSerializer);
+        return loader.build();
+    }
+
+
+    // Comparison ======================================================================================================
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    /**
+     * Same contract as {@link Arrays#binarySearch(Object[], int, int, Object)}, the natural ordering and the comparator
+     * each get their own loop, so neither pays for a per-comparison dispatch on the other.
+     */
+    @SuppressWarnings("unchecked")
+    private int binarySearch(Node<K> node, K key)
+    {
+        Object[] keys = node.keys;
+        int low = 0;
+        int high = node.keyCount - 1;
+        if (comparator == null)
+        {
+            Comparable<? super K> comparable = (Comparable<? super K>) key;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                int compareResult = comparable.compareTo((K) keys[mid]);
+                if (compareResult > 0)
                 {
-                    return split(leaf);
+                    low = mid + 1;
+                }
+                else if (compareResult < 0)
+                {
+                    high = mid - 1;
                 }
                 else
                 {
-                    return null;
+                    return mid;
                 }
             }
         }
-        else // is internal
+        else
         {
-            int pos = Collections.binarySearch(node.keys, key);
-            // found
-            if (pos >= 0)
-            {
-                throw new KeyConflictException(key.toString());
-            }
-            // not found
-            else
+            Comparator<? super K> comparator = this.comparator;
+            while (low <= high)
             {
-                InternalNode<K> internalNode = (InternalNode<K>) node;
-                int insertPos = -(pos + 1); // See doc of Collections.binarySearch(list, key)
-//                logger.debug("Keys: " + internalNode.keys);
-//                debugPrintChildrenKeys(internalNode);
-//                logger.debug("insertPos: " + insertPos);
-//                logger.debugBreakLine();
-                Node<K> child = internalNode.children.get(insertPos);
-                Node<K> newChild = insert(child, key, value);
-                if (newChild != null)
+                int mid = (low + high) >>> 1;
+                int compareResult = comparator.compare(key, (K) keys[mid]);
+                if (compareResult > 0)
                 {
-                    internalNode.keys.add(insertPos, newChild.getMinKey());
-                    internalNode.children.add(insertPos + 1, newChild);
-                    if (internalNode.keys.size() == degree)
-                    {
-                        return split(internalNode);
-                    }
-                    else
-                    {
-                        return null;
-                    }
+                    low = mid + 1;
+                }
+                else if (compareResult < 0)
+                {
+                    high = mid - 1;
                 }
                 else
                 {
-                    return null;
+                    return mid;
                 }
             }
         }
+        return -(low + 1);
+    }
+
+    int childPosition(InternalNode<K> internalNode, K key)
+    {
+        int keyPos = binarySearch(internalNode, key);
+        // found
+        if (keyPos >= 0)
+        {
+            return keyPos + 1; // when is found in internal, childPos = keyPos + 1
+        }
+        else
+        {
+            return -(keyPos + 1);
+        }
+    }
+
+
+    // Descent =========================================================================================================
+
+    /**
+     * Walks from the root to the leaf that covers the key, recording every internal node and the child taken in
+     * pathNodes and pathPositions, so that splits and merges can be carried back up without recursion.
+     */
+    private LeafNode<K, V> descend(K key)
+    {
+        return descendFrom(0, key);
+    }
+
+    /**
+     * Same as {@link #descend(Object)}, but keeps the first depth entries of the recorded path and walks on from the
+     * node reached there, which must cover the key, see {@link #fingerDepth(Object)}.
+     */
+    private LeafNode<K, V> descendFrom(int depth, K key)
+    {
+        pathLength = depth;
+        Node<K> node;
+        K lowerKey;
+        K upperKey;
+        if (depth == 0)
+        {
+            node = root;
+            lowerKey = null;
+            upperKey = null;
+        }
+        else
+        {
+            node = pathNodes[depth - 1].children[pathPositions[depth - 1]];
+            lowerKey = pathLowerKeys[depth - 1];
+            upperKey = pathUpperKeys[depth - 1];
+        }
+        while (!node.isLeaf())
+        {
+            InternalNode<K> internalNode = (InternalNode<K>) node;
+            int childPos = childPosition(internalNode, key);
+            if (pathLength == pathNodes.length)
+            {
+                pathNodes = Arrays.copyOf(pathNodes, pathLength * 2);
+                pathPositions = Arrays.copyOf(pathPositions, pathLength * 2);
+                pathLowerKeys = Arrays.copyOf(pathLowerKeys, pathLength * 2);
+                pathUpperKeys = Arrays.copyOf(pathUpperKeys, pathLength * 2);
+            }
+            // the child covers [keys[childPos - 1], keys[childPos]), the outer ends are inherited from the node
+            if (childPos > 0)
+            {
+                lowerKey = internalNode.keyAt(childPos - 1);
+            }
+            if (childPos < internalNode.keyCount)
+            {
+                upperKey = internalNode.keyAt(childPos);
+            }
+            pathNodes[pathLength] = internalNode;
+            pathPositions[pathLength] = childPos;
+            pathLowerKeys[pathLength] = lowerKey;
+            pathUpperKeys[pathLength] = upperKey;
+            pathLength ++;
+            node = internalNode.children[childPos];
+        }
+        return asLeaf(node);
+    }
+
+    /**
+     * @return the deepest depth of the recorded path whose node still covers the key, 0 (the root) at worst
+     */
+    private int fingerDepth(K key)
+    {
+        for (int depth = pathLength; depth > 0; depth --)
+        {
+            K lowerKey = pathLowerKeys[depth - 1];
+            K upperKey = pathUpperKeys[depth - 1];
+            if ((lowerKey == null || compare(key, lowerKey) >= 0) && (upperKey == null || compare(key, upperKey) < 0))
+            {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> LeafNode<K, V> asLeaf(Node<K> node)
+    {
+        return (LeafNode<K, V>) node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private InternalNode<K>[] newPathNodes(int length)
+    {
+        return (InternalNode<K>[]) new InternalNode<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private K[] newPathKeys(int length)
+    {
+        return (K[]) new Object[length];
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException
+    {
+        checkWritable();
+//        logger.debug("Inserting " + key);
+        LeafNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            throw new KeyConflictException(key.toString());
+        }
+        // not found
+        else
+        {
+            insertAt(leaf, -(pos + 1), key, value); // See doc of Arrays.binarySearch(array, from, to, key)
+        }
+    }
+
+    /**
+     * Inserts the key, or replaces its value if already in use.
+     *
+     * @return the previous value of the key, null if there was none
+     */
+    @Nullable
+    public V put(K key, V value)
+    {
+        checkWritable();
+        LeafNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            V oldValue = leaf.values[pos];
+            writablePath(leaf).values[pos] = value;
+            return oldValue;
+        }
+        else
+        {
+            insertAt(leaf, -(pos + 1), key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Inserts the key only if not in use, without the cost of a {@link KeyConflictException} otherwise.
+     *
+     * @return the current value of the key if already in use, null if inserted
+     */
+    @Nullable
+    public V putIfAbsent(K key, V value)
+    {
+        checkWritable();
+        LeafNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            return leaf.values[pos];
+        }
+        else
+        {
+            insertAt(leaf, -(pos + 1), key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the value of the key with the result of the function, given the key and its current value, null if not
+     * in use. A null result removes the key. As with {@link Map#compute}, the function must not modify this tree.
+     *
+     * @return the new value, null if none
+     */
+    @Nullable
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        checkWritable();
+        LeafNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        V oldValue = pos >= 0 ? leaf.values[pos] : null;
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(key, oldValue);
+        return update(leaf, pos, key, newValue, expectedModCount);
+    }
+
+    /**
+     * Inserts the key with the given value if not in use, otherwise replaces its value with the result of the
+     * function, given the current and the given value. A null result removes the key. As with {@link Map#merge}, the
+     * function must not modify this tree.
+     *
+     * @return the new value, null if none
+     */
+    @Nullable
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        checkWritable();
+        LeafNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        if (pos < 0)
+        {
+            insertAt(leaf, -(pos + 1), key, value);
+            return value;
+        }
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(leaf.values[pos], value);
+        return update(leaf, pos, key, newValue, expectedModCount);
+    }
+
+    /**
+     * Stores the computed value at the position found by the descent, which still holds unless the function modified
+     * the tree meanwhile.
+     */
+    @Nullable
+    private V update(LeafNode<K, V> leaf, int pos, K key, @Nullable V newValue, int expectedModCount)
+    {
+        if (modCount != expectedModCount)
+        {
+            throw new ConcurrentModificationException();
+        }
+        // found
+        if (pos >= 0)
+        {
+            if (newValue == null)
+            {
+                removeAt(leaf, pos);
+            }
+            else
+            {
+                writablePath(leaf).values[pos] = newValue;
+            }
+        }
+        else if (newValue != null)
+        {
+            insertAt(leaf, -(pos + 1), key, newValue);
+        }
+        return newValue;
+    }
+
+    /**
+     * Inserts the entry at the position of the leaf reached by the last descent, splitting up the path if needed.
+     */
+    private void insertAt(LeafNode<K, V> leaf, int pos, K key, V value)
+    {
+        leaf = writablePath(leaf);
+        leaf.insertEntry(pos, key, value);
+        size ++;
+        modCount ++;
+        // need split
+        if (leaf.keyCount == degree)
+        {
+            splitUpwards(leaf);
+        }
+    }
+
+    /**
+     * Same as {@link #insertAll(Iterator)}.
+     */
+    public void insertAll(SortedMap<? extends K, ? extends V> sorted) throws KeyConflictException
+    {
+        insertAll(sorted.entrySet().iterator());
+    }
+
+    /**
+     * Inserts a batch of entries, best in ascending key order. Instead of descending from the root for each key, the
+     * path to the current leaf is kept, and the next key climbs only as far as needed for a node that covers it, so a
+     * run of keys falling into the same leaf costs one binary search each. Stops at the first key already in use,
+     * entries before it stay inserted.
+     */
+    public void insertAll(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted) throws KeyConflictException
+    {
+        checkWritable();
+        LeafNode<K, V> leaf = null;
+        while (sorted.hasNext())
+        {
+            Map.Entry<? extends K, ? extends V> entry = sorted.next();
+            K key = entry.getKey();
+            if (leaf == null)
+            {
+                leaf = descend(key);
+            }
+            else
+            {
+                int depth = fingerDepth(key);
+                if (depth < pathLength)
+                {
+                    leaf = descendFrom(depth, key);
+                }
+            }
+            int pos = binarySearch(leaf, key);
+            // found
+            if (pos >= 0)
+            {
+                throw new KeyConflictException(key.toString());
+            }
+            leaf = writablePath(leaf);
+            leaf.insertEntry(-(pos + 1), key, entry.getValue());
+            size ++;
+            modCount ++;
+            // need split, the path changes, so the next key starts over from the root
+            if (leaf.keyCount == degree)
+            {
+                splitUpwards(leaf);
+                leaf = null;
+            }
+        }
+    }
+
+    /**
+     * Splits the overflowed leaf, then carries the new separators up along the recorded path as long as the parents
+     * overflow in turn.
+     */
+    private void splitUpwards(LeafNode<K, V> leaf)
+    {
+        Node<K> newChild = split(leaf);
+        for (int depth = pathLength - 1; depth >= 0; depth --)
+        {
+            InternalNode<K> parent = pathNodes[depth];
+            int childPos = pathPositions[depth];
+            parent.insertEntry(childPos, newChild.getMinKey(), childPos + 1, newChild);
+            if (parent.keyCount < degree)
+            {
+                return;
+            }
+            newChild = split(parent);
+        }
+        // split root node, create new root node
+        InternalNode<K> newRoot = new InternalNode<>(degree);
+        newRoot.generation = generation;
+        newRoot.children[0] = root;
+        newRoot.insertEntry(0, newChild.getMinKey(), 1, newChild);
+        root = newRoot;
     }
 
     private LeafNode<K, V> split(LeafNode<K, V> leaf)
     {
 //        logger.debug("Splitting leaf, keys: " + leaf.keys);
         int medianPos = degree / 2;
-        LeafNode<K, V> newLeaf = new LeafNode<>();
-        newLeaf.keys.addAll(leaf.keys.subList(medianPos, leaf.keys.size()));
-        newLeaf.values.addAll(leaf.values.subList(medianPos, leaf.values.size()));
-        leaf.keys.subList(medianPos, leaf.keys.size()).clear();
-        leaf.values.subList(medianPos, leaf.values.size()).clear();
+        int moved = leaf.keyCount - medianPos;
+        LeafNode<K, V> newLeaf = new LeafNode<>(degree);
+        newLeaf.generation = generation;
+        System.arraycopy(leaf.keys, medianPos, newLeaf.keys, 0, moved);
+        System.arraycopy(leaf.values, medianPos, newLeaf.values, 0, moved);
+        Arrays.fill(leaf.keys, medianPos, leaf.keyCount, null);
+        Arrays.fill(leaf.values, medianPos, leaf.keyCount, null);
+        newLeaf.keyCount = moved;
+        leaf.keyCount = medianPos;
         newLeaf.next = leaf.next;
         leaf.next = newLeaf;
         return newLeaf;
@@ -148,20 +845,24 @@ public class BPlusTree<K extends Comparable<? super K>, V>
     {
 //        logger.debug("Splitting internal node, keys: " + internal.keys);
         int medianPos = degree / 2 + 1;
-        InternalNode<K> newInternal = new InternalNode<>();
-        newInternal.keys.addAll(internal.keys.subList(medianPos, internal.keys.size()));
-        newInternal.children.addAll(internal.children.subList(medianPos, internal.children.size()));
-        internal.keys.subList(medianPos - 1, internal.keys.size()).clear();
-        internal.children.subList(medianPos, internal.children.size()).clear();
+        int childCount = internal.childCount();
+        InternalNode<K> newInternal = new InternalNode<>(degree);
+        newInternal.generation = generation;
+        System.arraycopy(internal.keys, medianPos, newInternal.keys, 0, internal.keyCount - medianPos);
+        System.arraycopy(internal.children, medianPos, newInternal.children, 0, childCount - medianPos);
+        newInternal.keyCount = internal.keyCount - medianPos;
+        Arrays.fill(internal.keys, medianPos - 1, internal.keyCount, null);
+        Arrays.fill(internal.children, medianPos, childCount, null);
+        internal.keyCount = medianPos - 1;
         return newInternal;
     }
 
     private void debugPrintChildrenKeys(InternalNode<K> node)
     {
         logger.debug("Children keys: ", false);
-        for (Node<K> child : node.children)
+        for (int i = 0; i < node.childCount(); i ++)
         {
-            logger.debugInline(child.keys + " ");
+            logger.debugInline(node.children[i] + " ");
         }
         logger.debugInline("\n");
     }
@@ -173,71 +874,353 @@ public class BPlusTree<K extends Comparable<? super K>, V>
     public V search(K key)
     {
 //        logger.debug("Searching: " + key);
-        return search(root, key);
+        LeafNode<K, V> leaf = findLeaf(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            return leaf.values[pos];
+        }
+        else
+        {
+            return null;
+        }
     }
 
-    @Nullable
-    private V search(Node<K> node, K key)
+    /**
+     * Looks up a batch of keys at once, see {@link #getAll(Collection)}.
+     *
+     * @return the value of each key, null if absent, in the order of the given keys
+     */
+    public List<V> searchAll(K[] keys)
     {
-        if (node.isLeaf())
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i ++)
         {
-            LeafNode<K, V> leaf = (LeafNode<K, V>) node;
-//            logger.debug("Leaf keys: " + leaf.keys);
-            int pos = Collections.binarySearch(leaf.keys, key);
-//            logger.debug("Position: " + pos);
-            // found
-            if (pos >= 0)
-            {
-                return leaf.values.get(pos);
-            }
-            else
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> compare(keys[i], keys[j]));
+        K[] sortedKeys = Arrays.copyOf(keys, keys.length);
+        for (int i = 0; i < order.length; i ++)
+        {
+            sortedKeys[i] = keys[order[i]];
+        }
+        Object[] sortedValues = searchSorted(sortedKeys);
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < order.length; i ++)
+        {
+            values[order[i]] = sortedValues[i];
+        }
+        @SuppressWarnings("unchecked")
+        List<V> result = (List<V>) Arrays.asList(values);
+        return result;
+    }
+
+    /**
+     * Looks up a batch of keys at once. The keys are sorted first, then the tree is walked once: each key climbs only
+     * as far as needed from the path of the previous one, and a key just past the current leaf is found by following
+     * the leaf chain instead of descending again.
+     *
+     * @return the keys found with their values, in key order
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys)
+    {
+        @SuppressWarnings("unchecked")
+        K[] sortedKeys = (K[]) keys.toArray();
+        Arrays.sort(sortedKeys, this::compare);
+        Object[] sortedValues = searchSorted(sortedKeys);
+        Map<K, V> result = new LinkedHashMap<>();
+        for (int i = 0; i < sortedKeys.length; i ++)
+        {
+            if (sortedValues[i] != null)
             {
-                return null;
+                @SuppressWarnings("unchecked")
+                V value = (V) sortedValues[i];
+                result.put(sortedKeys[i], value);
             }
         }
-        else // is internal
+        return result;
+    }
+
+    /**
+     * Keeps its own path, so lookups stay free of side effects like {@link #search(Object)}. As the keys ascend, a node
+     * on the path covers the next key as long as the key is below the node's upper bound.
+     *
+     * @return the value of each of the ascending keys, null if absent
+     */
+    private Object[] searchSorted(K[] sortedKeys)
+    {
+        Object[] values = new Object[sortedKeys.length];
+        List<InternalNode<K>> nodes = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        // upper bound of the child taken at each depth, null is unbounded
+        List<K> upperKeys = new ArrayList<>();
+        LeafNode<K, V> leaf = null;
+        for (int i = 0; i < sortedKeys.length; i ++)
         {
-            InternalNode<K> internalNode = (InternalNode<K>) node;
-//            logger.debug("Internal keys: " + node.keys);
-            int keyPos = Collections.binarySearch(internalNode.keys, key);
-            int childPos;
-            // found
-            if (keyPos >= 0)
+            K key = sortedKeys[i];
+            if (leaf != null && leaf.keyCount > 0 && compare(key, leaf.keyAt(leaf.keyCount - 1)) > 0)
             {
-                childPos = keyPos + 1; // when is found in internal, childPos = keyPos + 1
+                LeafNode<K, V> next = nextLeaf(leaf);
+                // keys of the next leaf follow right after this one, so a key not beyond its last key can only be there
+                if (next != null && compare(key, next.keyAt(next.keyCount - 1)) <= 0)
+                {
+                    leaf = next;
+                }
+                else
+                {
+                    leaf = null;
+                }
             }
-            else
+            if (leaf == null)
             {
-                childPos = -(keyPos + 1);
+                // climb to the deepest node still covering the key, the recorded path may lag behind the leaf chain
+                int depth = upperKeys.size();
+                while (depth > 0 && upperKeys.get(depth - 1) != null && compare(key, upperKeys.get(depth - 1)) >= 0)
+                {
+                    depth --;
+                }
+                Node<K> node;
+                K upperKey;
+                if (depth == 0)
+                {
+                    node = root;
+                    upperKey = null;
+                }
+                else
+                {
+                    node = nodes.get(depth - 1).children[positions.get(depth - 1)];
+                    upperKey = upperKeys.get(depth - 1);
+                }
+                nodes.subList(depth, nodes.size()).clear();
+                positions.subList(depth, positions.size()).clear();
+                upperKeys.subList(depth, upperKeys.size()).clear();
+                while (!node.isLeaf())
+                {
+                    InternalNode<K> internalNode = (InternalNode<K>) node;
+                    int childPos = childPosition(internalNode, key);
+                    if (childPos < internalNode.keyCount)
+                    {
+                        upperKey = internalNode.keyAt(childPos);
+                    }
+                    nodes.add(internalNode);
+                    positions.add(childPos);
+                    upperKeys.add(upperKey);
+                    node = internalNode.children[childPos];
+                }
+                leaf = asLeaf(node);
+            }
+            int pos = binarySearch(leaf, key);
+            // found
+            if (pos >= 0)
+            {
+                values[i] = leaf.values[pos];
             }
-//            logger.debug("Child position: " + childPos);
-            return search(internalNode.children.get(childPos), key);
         }
+        return values;
     }
 
+    /**
+     * @return values of all keys in [lowerKey, upperKey], in key order
+     */
     public List<V> rangeQuery(K lowerKey, K upperKey)
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * @return values of all keys between lowerKey and upperKey, in key order, each bound is included only if asked
+     */
+    public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
     {
 //        logger.debug("Querying from: " + lowerKey + " to " + upperKey);
-        LeafNode<K, V> leaf = firstLeaf;
         List<V> result = new ArrayList<>();
-        rangeQueryInLeaf(leaf, lowerKey, upperKey, result);
-        while (leaf.hasNext())
+        if (compare(lowerKey, upperKey) > 0)
         {
-            leaf = leaf.next;
-            rangeQueryInLeaf(leaf, lowerKey, upperKey, result);
+            return result;
+        }
+        LeafNode<K, V> leaf = findLeaf(lowerKey);
+        int pos = startPosition(leaf, lowerKey, lowerInclusive);
+        while (leaf != null)
+        {
+            int end;
+            // the whole rest of the leaf is in range, no need to search for the end
+            if (leaf.keyCount > 0 && compare(leaf.keyAt(leaf.keyCount - 1), upperKey) < 0)
+            {
+                end = leaf.keyCount;
+            }
+            else
+            {
+                end = endPosition(leaf, upperKey, upperInclusive);
+            }
+            if (pos < end)
+            {
+                result.addAll(Arrays.asList(leaf.values).subList(pos, end));
+            }
+            // passed the upper key, stop here
+            if (end < leaf.keyCount)
+            {
+                break;
+            }
+            leaf = nextLeaf(leaf);
+            pos = 0;
         }
         return result;
     }
 
-    private void rangeQueryInLeaf(LeafNode<K,V> leaf, K lowerKey, K upperKey, List<V> result)
+    /**
+     * @return position of the first key in the node that is after lowerKey, or equal to it when inclusive
+     */
+    int startPosition(Node<K> node, K lowerKey, boolean inclusive)
+    {
+        int pos = binarySearch(node, lowerKey);
+        // found
+        if (pos >= 0)
+        {
+            return inclusive ? pos : pos + 1;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+    /**
+     * @return position right after the last key in the node that is before upperKey, or equal to it when inclusive
+     */
+    int endPosition(Node<K> node, K upperKey, boolean inclusive)
+    {
+        int pos = binarySearch(node, upperKey);
+        // found
+        if (pos >= 0)
+        {
+            return inclusive ? pos + 1 : pos;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+    LeafNode<K, V> findLeaf(K key)
+    {
+        Node<K> node = root;
+        while (!node.isLeaf())
+        {
+            InternalNode<K> internalNode = (InternalNode<K>) node;
+            node = internalNode.children[childPosition(internalNode, key)];
+        }
+        return asLeaf(node);
+    }
+
+
+    // Cursors and Streams =============================================================================================
+
+    /**
+     * @return a cursor placed before the first entry, see {@link Cursor}
+     */
+    public Cursor<K, V> cursor()
+    {
+        return new Cursor<>(this);
+    }
+
+    /**
+     * Iterates over all entries in key order. Entries are snapshots, each {@code next()} allocates one, use
+     * {@link #cursor()} to walk without any per-entry allocation.
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator()
+    {
+        return new EntryIterator(cursor());
+    }
+
+    /**
+     * Iterates over the entries whose key is equal to or after fromKey, in key order.
+     */
+    public Iterator<Map.Entry<K, V>> iterator(K fromKey)
+    {
+        Cursor<K, V> cursor = cursor();
+        cursor.seek(fromKey);
+        return new EntryIterator(cursor);
+    }
+
+    /**
+     * A spliterator over all entries, it is SIZED, SORTED, ORDERED and DISTINCT, and splits along subtrees.
+     */
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator()
+    {
+        return new EntrySpliterator<>(this, null, true, null, true);
+    }
+
+    public Stream<Map.Entry<K, V>> stream()
+    {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<Map.Entry<K, V>> parallelStream()
+    {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * @return entries of all keys in [lowerKey, upperKey], in key order
+     */
+    public Stream<Map.Entry<K, V>> stream(K lowerKey, K upperKey)
+    {
+        return StreamSupport.stream(new EntrySpliterator<>(this, lowerKey, true, upperKey, true), false);
+    }
+
+    /**
+     * Same as {@link #stream(Object, Object)}, but parallel, the range is split into disjoint subtrees between workers.
+     * The tree must not be modified while the stream runs.
+     */
+    public Stream<Map.Entry<K, V>> parallelStream(K lowerKey, K upperKey)
+    {
+        return StreamSupport.stream(new EntrySpliterator<>(this, lowerKey, true, upperKey, true), true);
+    }
+
+    LeafNode<K, V> firstLeaf()
+    {
+        return firstLeaf;
+    }
+
+    Node<K> root()
+    {
+        return root;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K, V>>
     {
-        for (int pos = 0; pos < leaf.keys.size(); pos ++)
+        private final Cursor<K, V> cursor;
+        private boolean advanced = false;
+        private boolean hasNext;
+
+        EntryIterator(Cursor<K, V> cursor)
+        {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (!advanced)
+            {
+                hasNext = cursor.next();
+                advanced = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Map.Entry<K, V> next()
         {
-            K key = leaf.keys.get(pos);
-            if (key.compareTo(lowerKey) >= 0 && key.compareTo(upperKey) <= 0)
+            if (!hasNext())
             {
-                result.add(leaf.values.get(pos));
+                throw new NoSuchElementException();
             }
+            advanced = false;
+            return new AbstractMap.SimpleImmutableEntry<>(cursor.key(), cursor.value());
         }
     }
 
@@ -246,128 +1229,70 @@ public class BPlusTree<K extends Comparable<? super K>, V>
 
     public void delete(K key)
     {
+        checkWritable();
 //        logger.debug("Deleting: " + key);
-        delete(root, key);
+        LeafNode<K, V> leaf = descend(key);
+        int keyPos = binarySearch(leaf, key);
+        // found
+        if (keyPos >= 0)
+        {
+            removeAt(leaf, keyPos);
+        }
     }
 
-    private boolean delete(Node<K> node, K key)
+    /**
+     * Removes the entry at the position of the leaf reached by the last descent, rebalancing up the path if needed.
+     */
+    private void removeAt(LeafNode<K, V> leaf, int pos)
     {
-        if (node.isLeaf())
+        leaf = writablePath(leaf);
+        leaf.removeEntry(pos);
+        size --;
+        modCount ++;
+        rebalanceUpwards(leaf);
+    }
+
+    /**
+     * Fixes the underflowed node by borrowing or merging, then does the same for its parents along the recorded path
+     * as long as a merge leaves them underflowed too.
+     */
+    private void rebalanceUpwards(Node<K> node)
+    {
+        for (int depth = pathLength - 1; depth >= 0 && node.keyCount < minKeyArraySize; depth --)
         {
-            LeafNode<K, V> leaf = (LeafNode<K, V>) node;
-//            logger.debug("Leaf keys: " + leaf.keys);
-            int keyPos = Collections.binarySearch(leaf.keys, key);
-//            logger.debug("Position: " + keyPos);
-            // found
-            if (keyPos >= 0)
-            {
-                leaf.keys.remove(keyPos);
-                leaf.values.remove(keyPos);
-                return true;
-            }
-            else
-            {
-                return false;
-            }
+            InternalNode<K> parent = pathNodes[depth];
+            adjustNodes(depth, parent, node, pathPositions[depth]);
+            node = parent;
         }
-        else // is internal
+        if (!root.isLeaf() && root.keyCount == 0)
         {
-            InternalNode<K> internalNode = (InternalNode<K>) node;
-//            logger.debug("Internal keys: " + node.keys);
-            int keyPos = Collections.binarySearch(node.keys, key);
-            // found
-            if (keyPos >= 0)
-            {
-//                logger.debug("Found in internal");
-                int childPos = keyPos + 1;
-//                logger.debug("Key Position: " + keyPos);
-//                logger.debug("Child Position: " + childPos);
-                Node<K> child = internalNode.children.get(childPos);
-                delete(child, key);
-                // update the key with successor
-                if (child.isLeaf() && child.keys.size() == 0 && hasRightSibling(internalNode, childPos))
-                {
-//                    logger.info("child.getMinKey() == null, deleting: " + key);
-                    Node<K> right = getRightSibling(internalNode, childPos);
-                    internalNode.keys.set(keyPos, right.getMinKey());
-                    internalNode.keys.remove(keyPos + 1);
-                    internalNode.children.set(childPos, right);
-                    internalNode.children.remove(childPos + 1);
-                }
-                else
-                {
-                    internalNode.keys.set(keyPos, child.getMinKey());
-//                    logger.debug("internalNode.keys: " + internalNode.keys);
-//                    logger.debug("internalNode.keys.size(): " + internalNode.keys.size());
-//                    logger.debug("child.keys: " + child.keys);
-                    // need to adjust nodes
-                    if (child.keys.size() < minKeyArraySize)
-                    {
-                        adjustNodes(internalNode, true, child, keyPos, childPos);
-//                        printTree();
-                    }
-                }
-                return true;
-            }
-            // not found, try to delete from the child at the insertion point
-            else
-            {
-                int childPos = -(keyPos + 1);
-                keyPos = Math.max(childPos - 1, 0);
-//                logger.debug("Key Position: " + keyPos);
-//                logger.debug("Child Position: " + childPos);
-                Node<K> child = internalNode.children.get(childPos);
-                boolean success = delete(child, key);
-                if (success)
-                {
-//                    logger.debug("child.keys: " + child.keys);
-                    // need to adjust nodes
-                    if (child.keys.size() < minKeyArraySize)
-                    {
-                        adjustNodes(internalNode, false, child, keyPos, childPos);
-//                        printTree();
-                    }
-                    return true;
-                }
-                else
-                {
-                    return false;
-                }
-            }
+            root = ((InternalNode<K>) root).children[0];
         }
     }
 
-    private void adjustNodes(InternalNode<K> parent, boolean found, Node<K> child, int keyPos, int childPos)
+    /**
+     * The parent and the child are writable, a sibling is made writable before it changes.
+     */
+    private void adjustNodes(int depth, InternalNode<K> parent, Node<K> child, int childPos)
     {
         if (hasLeftSibling(childPos) && leftSiblingHasExtraKeys(parent, childPos))
         {
-            borrowFromLeft(parent, child, keyPos, childPos);
-            // update the key
-            parent.keys.set(keyPos, child.getMinKey());
+            writableChild(depth, childPos - 1);
+            borrowFromLeft(parent, child, childPos);
         }
         else if (hasRightSibling(parent, childPos) && rightSiblingHasExtraKeys(parent, childPos))
         {
-            borrowFromRight(parent, child, keyPos, childPos);
+            writableChild(depth, childPos + 1);
+            borrowFromRight(parent, child, childPos);
         }
         else if (hasLeftSibling(childPos))
         {
-            Node<K> left = mergeWithLeft(parent, child, keyPos, childPos);
-            parent.keys.remove(keyPos);
-            parent.children.remove(childPos);
-            if (parent == root && parent.keys.size() == 0)
-            {
-                root = left;
-            }
+            writableChild(depth, childPos - 1);
+            mergeWithLeft(parent, child, childPos);
         }
         else if (hasRightSibling(parent, childPos))
         {
-            mergeWithRight(parent, child, keyPos, childPos);
-            parent.keys.remove(keyPos);
-            parent.children.remove(childPos + 1);
-            if (parent == root && parent.keys.size() == 0)
-            {
-                root = child;
-            }
+            mergeWithRight(parent, child, childPos);
         }
         else
         {
@@ -375,135 +1300,88 @@ public class BPlusTree<K extends Comparable<? super K>, V>
         }
     }
 
-    private void borrowFromLeft(InternalNode<K> parent, Node<K> child, int keyPos, int childPos)
+    private void borrowFromLeft(InternalNode<K> parent, Node<K> child, int childPos)
     {
 //        logger.debug("Borrowing from left");
+        int keyPos = childPos - 1;
         Node<K> left = getLeftSibling(parent, childPos);
         if (child.isLeaf())
         {
             LeafNode<K, V> childLeaf = (LeafNode<K, V>) child;
             LeafNode<K, V> leftLeaf = (LeafNode<K, V>) left;
-            childLeaf.keys.add(0, leftLeaf.keys.get(left.keys.size() - 1));
-            leftLeaf.keys.remove(leftLeaf.keys.size() - 1);
-            childLeaf.values.add(0, leftLeaf.values.get(leftLeaf.values.size() - 1));
-            leftLeaf.values.remove(leftLeaf.values.size() - 1);
+            int last = leftLeaf.keyCount - 1;
+            childLeaf.insertEntry(0, leftLeaf.keyAt(last), leftLeaf.values[last]);
+            leftLeaf.removeEntry(last);
+            // update the key
+            parent.keys[keyPos] = childLeaf.keyAt(0);
         }
         else // child is internal
         {
             InternalNode<K> childInternal = (InternalNode<K>) child;
             InternalNode<K> leftInternal = (InternalNode<K>) left;
-            childInternal.keys.add(0, parent.keys.get(keyPos));
-            parent.keys.set(keyPos, leftInternal.keys.get(left.keys.size() - 1));
-            leftInternal.keys.remove(leftInternal.keys.size() - 1);
-            childInternal.children.add(0, leftInternal.children.get(leftInternal.children.size() - 1));
-            leftInternal.children.remove(leftInternal.children.size() - 1);
+            int last = leftInternal.keyCount - 1;
+            childInternal.insertEntry(0, parent.keyAt(keyPos), 0, leftInternal.children[last + 1]);
+            parent.keys[keyPos] = leftInternal.keyAt(last);
+            leftInternal.removeEntry(last, last + 1);
         }
     }
 
-    private void borrowFromRight(InternalNode<K> parent, Node<K> child, int keyPos, int childPos)
+    private void borrowFromRight(InternalNode<K> parent, Node<K> child, int childPos)
     {
 //        logger.debug("Borrowing from right");
+        int keyPos = childPos;
         Node<K> right = getRightSibling(parent, childPos);
-//        logger.debug("right: " + right.keys);
         if (child.isLeaf())
         {
             LeafNode<K, V> childLeaf = (LeafNode<K, V>) child;
             LeafNode<K, V> rightLeaf = (LeafNode<K, V>) right;
-            K borrowed = rightLeaf.keys.get(0);
-            childLeaf.keys.add(borrowed);
-            rightLeaf.keys.remove(0);
-            int compareResult = borrowed.compareTo(parent.keys.get(keyPos));
-            // first child borrow key from second child
-            if (compareResult == 0)
-            {
-                // update the key
-                parent.keys.set(keyPos, rightLeaf.getMinKey());
-            }
-            else
-            {
-                // update the next key
-                parent.keys.set(keyPos + 1, rightLeaf.getMinKey());
-            }
-            childLeaf.values.add(rightLeaf.values.get(0));
-            rightLeaf.values.remove(0);
+            childLeaf.insertEntry(childLeaf.keyCount, rightLeaf.keyAt(0), rightLeaf.values[0]);
+            rightLeaf.removeEntry(0);
+            // update the key
+            parent.keys[keyPos] = rightLeaf.keyAt(0);
         }
         else // child is internal
         {
             InternalNode<K> childInternal = (InternalNode<K>) child;
             InternalNode<K> rightInternal = (InternalNode<K>) right;
-            K borrowed = rightInternal.keys.get(0);
-            if (parent.keys.size() == 1)
-            {
-                childInternal.keys.add(parent.keys.get(keyPos));
-                parent.keys.set(keyPos, borrowed);
-            }
-            else
-            {
-                int compareResult = borrowed.compareTo(parent.keys.get(keyPos + 1));
-                if (compareResult > 0)
-                {
-                    childInternal.keys.add(parent.keys.get(keyPos + 1));
-                    parent.keys.set(keyPos + 1, borrowed);
-                }
-                else if (compareResult == 0)
-                {
-                    throw new IllegalStateException("Fatal Error - Should not reach here");
-                }
-                else
-                {
-                    childInternal.keys.add(parent.keys.get(keyPos));
-                    parent.keys.set(keyPos, borrowed);
-                }
-            }
-            rightInternal.keys.remove(0);
-            childInternal.children.add(rightInternal.children.get(0));
-            rightInternal.children.remove(0);
+            childInternal.insertEntry(childInternal.keyCount, parent.keyAt(keyPos), childInternal.childCount(), rightInternal.children[0]);
+            parent.keys[keyPos] = rightInternal.keyAt(0);
+            rightInternal.removeEntry(0, 0);
         }
     }
 
-    private Node<K> mergeWithLeft(InternalNode<K> parent, Node<K> child, int keyPos, int childPos)
+    private void mergeWithLeft(InternalNode<K> parent, Node<K> child, int childPos)
     {
-        Node<K> left = getLeftSibling(parent, childPos);
-//        logger.debug(String.format("Merging child %s with left %s", child.keys, left.keys));
-        if (child.isLeaf())
-        {
-            LeafNode<K, V> childLeaf = (LeafNode<K, V>) child;
-            LeafNode<K, V> leftLeaf = (LeafNode<K, V>) left;
-            leftLeaf.keys.addAll(childLeaf.keys);
-            leftLeaf.values.addAll(childLeaf.values);
-            leftLeaf.next = childLeaf.next; // remember to update the pointer
-        }
-        else // child is internal
-        {
-            InternalNode<K> childInternal = (InternalNode<K>) child;
-            InternalNode<K> leftInternal = (InternalNode<K>) left;
-            leftInternal.keys.add(parent.keys.get(keyPos));
-            leftInternal.keys.addAll(childInternal.keys);
-            leftInternal.children.addAll(childInternal.children);
-        }
-        return left;
+//        logger.debug(String.format("Merging child %s with left %s", child, getLeftSibling(parent, childPos)));
+        merge(parent, getLeftSibling(parent, childPos), child, childPos - 1);
     }
 
-    private void mergeWithRight(InternalNode<K> parent, Node<K> child, int keyPos, int childPos)
+    private void mergeWithRight(InternalNode<K> parent, Node<K> child, int childPos)
     {
 //        logger.debug("Merging with right");
-        Node<K> right = getRightSibling(parent, childPos);
-        if (child.isLeaf())
+        merge(parent, child, getRightSibling(parent, childPos), childPos);
+    }
+
+    /**
+     * Moves everything of the right node into the left one, then removes the separator at keyPos and the right node
+     * from the parent.
+     */
+    private void merge(InternalNode<K> parent, Node<K> left, Node<K> right, int keyPos)
+    {
+        if (left.isLeaf())
         {
-            LeafNode<K, V> childLeaf = (LeafNode<K, V>) child;
+            LeafNode<K, V> leftLeaf = (LeafNode<K, V>) left;
             LeafNode<K, V> rightLeaf = (LeafNode<K, V>) right;
-            childLeaf.keys.addAll(rightLeaf.keys);
-            childLeaf.values.addAll(rightLeaf.values);
-            childLeaf.next = rightLeaf.next; // remember to update the pointer
+            leftLeaf.appendAll(rightLeaf);
+            leftLeaf.next = rightLeaf.next; // remember to update the pointer
         }
-        else // child is internal
+        else // is internal
         {
-            InternalNode<K> childInternal = (InternalNode<K>) child;
+            InternalNode<K> leftInternal = (InternalNode<K>) left;
             InternalNode<K> rightInternal = (InternalNode<K>) right;
-            childInternal.keys.add(parent.keys.get(keyPos));
-            childInternal.keys.addAll(rightInternal.keys);
-            childInternal.children.addAll(rightInternal.children);
+            leftInternal.appendAll(parent.keyAt(keyPos), rightInternal);
         }
+        parent.removeEntry(keyPos, keyPos + 1);
     }
 
     private boolean leftSiblingHasExtraKeys(InternalNode<K> parent, int pos)
@@ -523,22 +1401,22 @@ public class BPlusTree<K extends Comparable<? super K>, V>
 
     private boolean hasRightSibling(InternalNode<K> parent, int pos)
     {
-        return parent.children.size() - 1 > pos;
+        return parent.childCount() - 1 > pos;
     }
 
     private Node<K> getLeftSibling(InternalNode<K> parent, int pos)
     {
-        return parent.children.get(pos - 1);
+        return parent.children[pos - 1];
     }
 
     private Node<K> getRightSibling(InternalNode<K> parent, int pos)
     {
-        return parent.children.get(pos + 1);
+        return parent.children[pos + 1];
     }
 
     private boolean hasExtraKeys(Node<K> node)
     {
-        return node.keys.size() > minKeyArraySize;
+        return node.keyCount > minKeyArraySize;
     }
 
 
@@ -578,21 +1456,21 @@ public class BPlusTree<K extends Comparable<? super K>, V>
             {
 //                logger.info("node " + node.keys + " is leaf");
                 LeafNode<K, V> leaf = (LeafNode<K, V>) node;
-                if (leaf.keys.size() != leaf.values.size())
+                if (leaf.keyCount < degree && leaf.values[leaf.keyCount] != null)
                 {
-                    logger.info("Validation failed: leaf.keys.size() != leaf.values.size()");
+                    logger.info("Validation failed: leaf.values[leaf.keyCount] != null");
                     return false;
                 }
                 else
                 {
-                    if (leaf.keys.size() >= degree)
+                    if (leaf.keyCount >= degree)
                     {
-                        logger.info("Validation failed: leaf.keys.size() >= degree");
+                        logger.info("Validation failed: leaf.keyCount >= degree");
                         return false;
                     }
-                    else if (leaf != root && leaf.keys.size() < Math.ceil((double) degree / 2) - 1)
+                    else if (leaf != root && leaf.keyCount < Math.ceil((double) degree / 2) - 1)
                     {
-                        logger.info("Validation failed: leaf.keys.size() < Math.ceil((double) degree / 2) - 1");
+                        logger.info("Validation failed: leaf.keyCount < Math.ceil((double) degree / 2) - 1");
                         return false;
                     }
                     else
@@ -605,22 +1483,22 @@ public class BPlusTree<K extends Comparable<? super K>, V>
             {
 //                logger.info("node " + node.keys + " is internal");
                 InternalNode<K> internal = (InternalNode<K>) node;
-                if (internal.keys.size() + 1 != internal.children.size())
+                if (internal.children[internal.keyCount] == null || internal.children[internal.childCount()] != null)
                 {
-                    logger.info("Validation failed: internal.keys.size() + 1 != internal.children.size()");
+                    logger.info("Validation failed: internal.keyCount + 1 != number of children");
                     return false;
                 }
                 else
                 {
-                    if (internal.keys.size() >= degree)
+                    if (internal.keyCount >= degree)
                     {
-                        logger.info("Validation failed: internal.keys.size() >= degree");
+                        logger.info("Validation failed: internal.keyCount >= degree");
                         return false;
                     }
-                    else if (internal != root && (internal.keys.size() < Math.ceil((double) degree / 2) - 1))
+                    else if (internal != root && (internal.keyCount < Math.ceil((double) degree / 2) - 1))
                     {
-                        logger.info("Validation failed: internal.keys.size() < Math.ceil((double) degree / 2) - 1");
-                        logger.info("Detail: " + internal.keys);
+                        logger.info("Validation failed: internal.keyCount < Math.ceil((double) degree / 2) - 1");
+                        logger.info("Detail: " + internal);
                         return false;
                     }
                     else
@@ -641,14 +1519,14 @@ public class BPlusTree<K extends Comparable<? super K>, V>
 
     private boolean validateChildren(InternalNode<K> internal)
     {
-        for (int i = 0; i < internal.children.size(); i ++)
+        for (int i = 0; i < internal.childCount(); i ++)
         {
-            Node<K> child = internal.children.get(i);
-            if (i == internal.children.size() - 1)
+            Node<K> child = internal.children[i];
+            if (i == internal.childCount() - 1)
             {
-                if (child.getMinKey().compareTo(internal.keys.get(i - 1)) < 0)
+                if (compare(child.getMinKey(), internal.keyAt(i - 1)) < 0)
                 {
-                    logger.info("Validation failed: child.getMinKey().compareTo(internal.keys.get(i - 1)) < 0");
+                    logger.info("Validation failed: compare(child.getMinKey(), internal.keys[i - 1]) < 0");
                     return false;
                 }
                 else
@@ -665,9 +1543,9 @@ public class BPlusTree<K extends Comparable<? super K>, V>
             }
             else
             {
-                if (child.getMinKey().compareTo(internal.keys.get(i)) >= 0)
+                if (compare(child.getMinKey(), internal.keyAt(i)) >= 0)
                 {
-                    logger.info("Validation failed: child.getMinKey().compareTo(internal.keys.get(i)) >= 0");
+                    logger.info("Validation failed: compare(child.getMinKey(), internal.keys[i]) >= 0");
                     return false;
                 }
                 else
@@ -688,11 +1566,11 @@ public class BPlusTree<K extends Comparable<? super K>, V>
 
     private boolean validateKeysOrder(Node<K> node)
     {
-        for (int i = 0; i < node.keys.size() - 1; i ++)
+        for (int i = 0; i < node.keyCount - 1; i ++)
         {
-            if (node != root && node.keys.get(i).compareTo(node.keys.get(i + 1)) >= 0)
+            if (node != root && compare(node.keyAt(i), node.keyAt(i + 1)) >= 0)
             {
-                logger.info("Validation failed: node.keys.get(i).compareTo(node.keys.get(i + 1)) >= 0");
+                logger.info("Validation failed: compare(node.keys[i], node.keys[i + 1]) >= 0");
                 return false;
             }
         }
@@ -703,20 +1581,20 @@ public class BPlusTree<K extends Comparable<? super K>, V>
     private boolean validateLeafs()
     {
         LeafNode<K, V> leaf = firstLeaf;
-        List<K> keys = null;
+        LeafNode<K, V> previous = null;
         while (leaf != null)
         {
-            if (keys != null)
+            if (previous != null)
             {
-                K leftKey = keys.get(keys.size() - 1);
-                K rightKey = leaf.keys.get(leaf.keys.size() - 1);
-                if (leftKey.compareTo(rightKey) >= 0)
+                K leftKey = previous.keyAt(previous.keyCount - 1);
+                K rightKey = leaf.keyAt(leaf.keyCount - 1);
+                if (compare(leftKey, rightKey) >= 0)
                 {
                     return false;
                 }
             }
-            keys = leaf.keys;
-            leaf = leaf.next;
+            previous = leaf;
+            leaf = nextLeaf(leaf);
         }
         return true;
     }
@@ -737,12 +1615,12 @@ public class BPlusTree<K extends Comparable<? super K>, V>
             {
                 Node<K> node = queue.poll();
                 assert node != null;
-                logger.infoInline(node.keys + " ");
+                logger.infoInline(node + " ");
 
                 if (!node.isLeaf())
                 {
                     InternalNode<K> internal = (InternalNode<K>) node;
-                    queue.addAll(internal.children);
+                    queue.addAll(Arrays.asList(internal.children).subList(0, internal.childCount()));
                 }
             }
             logger.infoBreakLine();
@@ -753,11 +1631,10 @@ public class BPlusTree<K extends Comparable<? super K>, V>
     {
         logger.info("Leafs: ");
         LeafNode<K, V> node = firstLeaf;
-        logger.info(node.keys.toString());
-        while (node.hasNext())
+        logger.info(node.toString());
+        while ((node = nextLeaf(node)) != null)
         {
-            node = node.next;
-            logger.info(node.keys.toString());
+            logger.info(node.toString());
         }
     }
 
@@ -765,11 +1642,10 @@ public class BPlusTree<K extends Comparable<? super K>, V>
     {
         logger.info("Values: ");
         LeafNode<K, V> leaf = firstLeaf;
-        logger.info(leaf.values.toString());
-        while (leaf.hasNext())
+        logger.info(leaf.valuesToString());
+        while ((leaf = nextLeaf(leaf)) != null)
         {
-            leaf = leaf.next;
-            logger.info(leaf.values.toString());
+            logger.info(leaf.valuesToString());
         }
     }
 
@@ -778,9 +1654,9 @@ public class BPlusTree<K extends Comparable<? super K>, V>
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("[");
         StringJoiner stringJoiner = new StringJoiner(", ");
-        for (K key : node.keys)
+        for (int i = 0; i < node.keyCount; i ++)
         {
-            stringJoiner.add(key.toString());
+            stringJoiner.add(node.keyAt(i).toString());
         }
         stringBuilder.append(stringJoiner);
         stringBuilder.append("]");
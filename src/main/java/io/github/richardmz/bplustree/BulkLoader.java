@@ -0,0 +1,234 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a {@link BPlusTree} bottom-up from entries in strictly ascending key order. Leafs are packed left to right
+ * up to the fill factor and linked as they are created, and every completed node is handed to the level above right
+ * away, so only the last two nodes of each level are held while streaming. The last node of a level may come out
+ * underfull, it is evened out with the one before it in {@link #build()}.
+ */
+class BulkLoader<K, V>
+{
+    private final BPlusTree<K, V> tree;
+    private final int degree;
+    private final int minKeyArraySize;
+    private final int fillKeys;
+
+    // levels.get(0) holds leafs, each level above holds internal nodes
+    private final List<Level<K>> levels = new ArrayList<>();
+
+    private LeafNode<K, V> firstLeaf = null;
+    private K lastKey = null;
+    private int size = 0;
+
+    private static class Level<K>
+    {
+        // completed, but held back in case the current one has to borrow from it
+        Node<K> pending;
+        K pendingMinKey;
+        // still being filled
+        Node<K> current;
+        K currentMinKey;
+    }
+
+    BulkLoader(BPlusTree<K, V> tree, double fillFactor)
+    {
+        if (!(fillFactor > 0 && fillFactor <= 1))
+        {
+            throw new IllegalArgumentException(String.format("Illegal fill factor [%s], which should be in (0, 1].", fillFactor));
+        }
+        this.tree = tree;
+        this.degree = tree.degree();
+        this.minKeyArraySize = tree.minKeyArraySize();
+        int fillKeys = (int) Math.round(fillFactor * (degree - 1));
+        this.fillKeys = Math.min(Math.max(fillKeys, Math.max(minKeyArraySize, 1)), degree - 1);
+        levels.add(new Level<>());
+    }
+
+    void add(K key, V value)
+    {
+        if (size > 0 && tree.compare(lastKey, key) >= 0)
+        {
+            throw new IllegalArgumentException(String.format("Key [%s] is not after the previous key [%s]", key, lastKey));
+        }
+        Level<K> leafLevel = levels.get(0);
+        LeafNode<K, V> leaf = asLeaf(leafLevel.current);
+        if (leaf == null || leaf.keyCount == fillKeys)
+        {
+            LeafNode<K, V> newLeaf = new LeafNode<>(degree);
+            if (leaf == null)
+            {
+                firstLeaf = newLeaf;
+            }
+            else
+            {
+                leaf.next = newLeaf;
+                complete(0, leaf, leafLevel.currentMinKey);
+            }
+            leafLevel.current = newLeaf;
+            leafLevel.currentMinKey = key;
+            leaf = newLeaf;
+        }
+        leaf.insertEntry(leaf.keyCount, key, value);
+        lastKey = key;
+        size ++;
+    }
+
+    /**
+     * Installs the built nodes into the tree, no more entries can be added afterwards.
+     */
+    BPlusTree<K, V> build()
+    {
+        if (size == 0)
+        {
+            return tree;
+        }
+        Node<K> root = null;
+        for (int depth = 0; root == null; depth ++)
+        {
+            Level<K> level = levels.get(depth);
+            evenOutLast(level);
+            boolean top = depth == levels.size() - 1;
+            if (top && (level.pending == null || level.current == null))
+            {
+                root = level.pending != null ? level.pending : level.current;
+            }
+            else
+            {
+                if (level.pending != null)
+                {
+                    addChild(depth + 1, level.pending, level.pendingMinKey);
+                }
+                addChild(depth + 1, level.current, level.currentMinKey);
+            }
+        }
+        tree.load(root, firstLeaf, size);
+        return tree;
+    }
+
+
+    // Levels ==========================================================================================================
+
+    /**
+     * A node of the given level is full, pass the one held back before it up to the parent level.
+     */
+    private void complete(int depth, Node<K> node, K minKey)
+    {
+        Level<K> level = levels.get(depth);
+        if (level.pending != null)
+        {
+            addChild(depth + 1, level.pending, level.pendingMinKey);
+        }
+        level.pending = node;
+        level.pendingMinKey = minKey;
+    }
+
+    private void addChild(int depth, Node<K> child, K childMinKey)
+    {
+        if (depth == levels.size())
+        {
+            levels.add(new Level<>());
+        }
+        Level<K> level = levels.get(depth);
+        InternalNode<K> internal = (InternalNode<K>) level.current;
+        if (internal == null || internal.keyCount == fillKeys)
+        {
+            if (internal != null)
+            {
+                complete(depth, internal, level.currentMinKey);
+            }
+            internal = new InternalNode<>(degree);
+            internal.children[0] = child;
+            level.current = internal;
+            level.currentMinKey = childMinKey;
+        }
+        else
+        {
+            internal.insertEntry(internal.keyCount, childMinKey, internal.childCount(), child);
+        }
+    }
+
+    /**
+     * Merges an underfull last node into the one before it, or moves entries over from it when both don't fit in one.
+     */
+    private void evenOutLast(Level<K> level)
+    {
+        Node<K> left = level.pending;
+        Node<K> right = level.current;
+        if (left == null || right.keyCount >= minKeyArraySize)
+        {
+            return;
+        }
+        if (right.isLeaf())
+        {
+            LeafNode<K, V> leftLeaf = asLeaf(left);
+            LeafNode<K, V> rightLeaf = asLeaf(right);
+            if (leftLeaf.keyCount + rightLeaf.keyCount < degree)
+            {
+                leftLeaf.appendAll(rightLeaf);
+                leftLeaf.next = rightLeaf.next;
+                level.current = null;
+            }
+            else
+            {
+                while (rightLeaf.keyCount < minKeyArraySize)
+                {
+                    int last = leftLeaf.keyCount - 1;
+                    rightLeaf.insertEntry(0, leftLeaf.keyAt(last), leftLeaf.values[last]);
+                    leftLeaf.removeEntry(last);
+                }
+                level.currentMinKey = rightLeaf.keyAt(0);
+            }
+        }
+        else
+        {
+            InternalNode<K> leftInternal = (InternalNode<K>) left;
+            InternalNode<K> rightInternal = (InternalNode<K>) right;
+            if (leftInternal.keyCount + 1 + rightInternal.keyCount < degree)
+            {
+                leftInternal.appendAll(level.currentMinKey, rightInternal);
+                level.current = null;
+            }
+            else
+            {
+                while (rightInternal.keyCount < minKeyArraySize)
+                {
+                    int last = leftInternal.keyCount - 1;
+                    rightInternal.insertEntry(0, level.currentMinKey, 0, leftInternal.children[last + 1]);
+                    level.currentMinKey = leftInternal.keyAt(last);
+                    leftInternal.removeEntry(last, last + 1);
+                }
+            }
+        }
+        if (level.current == null)
+        {
+            // the merged node is the last one now
+            level.current = level.pending;
+            level.currentMinKey = level.pendingMinKey;
+            level.pending = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private LeafNode<K, V> asLeaf(Node<K> node)
+    {
+        return (LeafNode<K, V>) node;
+    }
+}
@@ -0,0 +1,680 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe B+ tree using optimistic lock coupling. Every node carries a version latch, see
+ * {@link ConcurrentNode}. Readers go down the tree without writing any shared memory, validating each node's version
+ * after reading it, and start over from the root if a writer got in between. Writers latch only the leaf they change,
+ * plus the parent of a node they split.
+ * <p>
+ * Full nodes are split on the way down, before anything is inserted into them, so a split never has to go back up
+ * more than one level. Deletion never rebalances, which keeps every latch local, but a leaf left empty is unlinked by
+ * the delete that emptied it, its keys handed over to a sibling under the same parent. Internal nodes are never
+ * unlinked, so the empty leaves left are bounded by the internal nodes ever created: one per parent left with a single
+ * child, plus those whose unlinking gave up on a latched parent or sibling, until a later delete reaches them.
+ * <p>
+ * Range queries are weakly consistent: each leaf is read atomically, but entries changed in leaves not reached yet may
+ * or may not be seen.
+ */
+public class ConcurrentBPlusTree<K, V>
+{
+    // binary search result for a node read while a writer was changing it
+    private static final int INCONSISTENT = Integer.MIN_VALUE;
+
+    private final int degree;
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    private volatile ConcurrentNode<K> root;
+
+    private final LongAdder size = new LongAdder();
+
+    private final Logger logger = Logger.getInstance();
+
+    /**
+     * Creates a tree ordered by the natural ordering of its keys, which must implement {@link Comparable}.
+     */
+    public ConcurrentBPlusTree(int degree) throws DegreeTooSmallException
+    {
+        this(degree, null);
+    }
+
+    /**
+     * Creates a tree ordered by the given comparator, or by the natural ordering of its keys if it is null.
+     */
+    public ConcurrentBPlusTree(int degree, @Nullable Comparator<? super K> comparator) throws DegreeTooSmallException
+    {
+        if (degree < 3)
+        {
+            throw new DegreeTooSmallException(degree);
+        }
+        else
+        {
+            this.degree = degree;
+            this.comparator = comparator;
+            this.root = new ConcurrentLeafNode<K, V>(degree);
+        }
+    }
+
+    /**
+     * @return the number of entries, not an atomic snapshot while writers are running
+     */
+    public int size()
+    {
+        return size.intValue();
+    }
+
+    // Comparison ======================================================================================================
+
+    @SuppressWarnings("unchecked")
+    private int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    /**
+     * Same contract as {@link java.util.Arrays#binarySearch(Object[], Object)}, but safe on a node read while a writer
+     * is changing it.
+     *
+     * @return {@link #INCONSISTENT} if a slot was caught empty, the caller must validate and start over
+     */
+    private int binarySearch(ConcurrentNode<K> node, K key)
+    {
+        int low = 0;
+        int high = Math.min(node.keyCount, node.keys.length) - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            K midKey = node.keyAt(mid);
+            if (midKey == null)
+            {
+                return INCONSISTENT;
+            }
+            int cmp = compare(midKey, key);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the position of the child covering the key, -1 if the node was caught inconsistent
+     */
+    private int childPosition(ConcurrentInternalNode<K> node, K key)
+    {
+        int pos = binarySearch(node, key);
+        if (pos == INCONSISTENT)
+        {
+            return -1;
+        }
+        // a key equal to a separator belongs to the right child
+        else if (pos >= 0)
+        {
+            return pos + 1;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+
+    // Descent =========================================================================================================
+
+    /**
+     * The leaf reached by a descent, with the version it was read at, and its parent, null if the leaf is the root.
+     */
+    private static final class Position<K, V>
+    {
+        ConcurrentLeafNode<K, V> leaf;
+        long version;
+
+        @Nullable
+        ConcurrentInternalNode<K> parent;
+    }
+
+    /**
+     * Goes down optimistically to the leaf covering the key. When asked, splits the first full node on the way, then
+     * gives up, so the caller starts over on a tree with room for one more key all along the path.
+     *
+     * @return false if the caller must start over
+     */
+    private boolean descend(K key, boolean splitFullNodes, Position<K, V> position)
+    {
+        ConcurrentNode<K> node = root;
+        long version = node.readLock();
+        // the root was split since it was read, it no longer covers all keys
+        if (node != root)
+        {
+            return false;
+        }
+        ConcurrentInternalNode<K> parent = null;
+        long parentVersion = 0;
+        while (true)
+        {
+            if (splitFullNodes && node.isFull())
+            {
+                split(parent, parentVersion, node, version);
+                return false;
+            }
+            if (node.isLeaf())
+            {
+                position.leaf = asLeaf(node);
+                position.version = version;
+                position.parent = parent;
+                return true;
+            }
+            ConcurrentInternalNode<K> internalNode = (ConcurrentInternalNode<K>) node;
+            int childPos = childPosition(internalNode, key);
+            ConcurrentNode<K> child = childPos < 0 ? null : internalNode.children[childPos];
+            if (child == null || !internalNode.validate(version))
+            {
+                return false;
+            }
+            long childVersion = child.readLock();
+            // the child read is only good if the node did not change meanwhile
+            if (!internalNode.validate(version))
+            {
+                return false;
+            }
+            parent = internalNode;
+            parentVersion = version;
+            node = child;
+            version = childVersion;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ConcurrentLeafNode<K, V> asLeaf(ConcurrentNode<K> node)
+    {
+        return (ConcurrentLeafNode<K, V>) node;
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException
+    {
+        if (putIfAbsent(key, value) != null)
+        {
+            throw new KeyConflictException(key.toString());
+        }
+    }
+
+    /**
+     * Inserts the key, or replaces its value if already in use.
+     *
+     * @return the previous value of the key, null if there was none
+     */
+    @Nullable
+    public V put(K key, V value)
+    {
+        return put(key, value, true);
+    }
+
+    /**
+     * Inserts the key only if not in use.
+     *
+     * @return the current value of the key if already in use, null if inserted
+     */
+    @Nullable
+    public V putIfAbsent(K key, V value)
+    {
+        return put(key, value, false);
+    }
+
+    @Nullable
+    private V put(K key, V value, boolean replace)
+    {
+        Position<K, V> position = new Position<>();
+        while (true)
+        {
+            if (!descend(key, true, position))
+            {
+                continue;
+            }
+            ConcurrentLeafNode<K, V> leaf = position.leaf;
+            if (!leaf.tryUpgrade(position.version))
+            {
+                continue;
+            }
+            // the leaf did not change since it was found not full
+            int pos = binarySearch(leaf, key);
+            V oldValue;
+            // found
+            if (pos >= 0)
+            {
+                oldValue = leaf.values[pos];
+                if (replace)
+                {
+                    leaf.values[pos] = value;
+                }
+            }
+            else
+            {
+                leaf.insertEntry(-(pos + 1), key, value);
+                size.increment();
+                oldValue = null;
+            }
+            leaf.writeUnlock();
+            return oldValue;
+        }
+    }
+
+    /**
+     * Splits the full node, latching its parent too, or replaces the root if it has none. Does nothing if either node
+     * changed since its version was read, as the descent starts over anyway.
+     */
+    private void split(@Nullable ConcurrentInternalNode<K> parent, long parentVersion,
+                       ConcurrentNode<K> node, long version)
+    {
+        // the parent was not full at this version, so it has room for the new separator
+        if (parent != null && !parent.tryUpgrade(parentVersion))
+        {
+            return;
+        }
+        if (!node.tryUpgrade(version))
+        {
+            if (parent != null)
+            {
+                parent.writeUnlock();
+            }
+            return;
+        }
+        if (!node.isFull())
+        {
+            node.writeUnlock();
+            if (parent != null)
+            {
+                parent.writeUnlock();
+            }
+            return;
+        }
+        K separator;
+        ConcurrentNode<K> newNode;
+        if (node.isLeaf())
+        {
+            ConcurrentLeafNode<K, V> leaf = asLeaf(node);
+            ConcurrentLeafNode<K, V> newLeaf = new ConcurrentLeafNode<>(degree);
+            int medianPos = leaf.keyCount / 2;
+            for (int i = medianPos; i < leaf.keyCount; i ++)
+            {
+                newLeaf.insertEntry(i - medianPos, leaf.keyAt(i), leaf.values[i]);
+            }
+            while (leaf.keyCount > medianPos)
+            {
+                leaf.removeEntry(leaf.keyCount - 1);
+            }
+            newLeaf.next = leaf.next;
+            leaf.next = newLeaf;
+            separator = newLeaf.keyAt(0);
+            newNode = newLeaf;
+        }
+        else
+        {
+            ConcurrentInternalNode<K> internalNode = (ConcurrentInternalNode<K>) node;
+            ConcurrentInternalNode<K> newInternalNode = new ConcurrentInternalNode<>(degree);
+            // the median key moves up, the keys after it go to the new node along with their children
+            int medianPos = internalNode.keyCount / 2;
+            separator = internalNode.keyAt(medianPos);
+            newInternalNode.children[0] = internalNode.children[medianPos + 1];
+            for (int i = medianPos + 1; i < internalNode.keyCount; i ++)
+            {
+                newInternalNode.insertEntry(i - medianPos - 1, internalNode.keyAt(i), i - medianPos,
+                                            internalNode.children[i + 1]);
+            }
+            for (int i = medianPos + 1; i <= internalNode.keyCount; i ++)
+            {
+                internalNode.children[i] = null;
+            }
+            while (internalNode.keyCount > medianPos)
+            {
+                internalNode.removeKey(internalNode.keyCount - 1);
+            }
+            newNode = newInternalNode;
+        }
+        if (parent == null)
+        {
+            ConcurrentInternalNode<K> newRoot = new ConcurrentInternalNode<>(degree);
+            newRoot.children[0] = node;
+            newRoot.insertEntry(0, separator, 1, newNode);
+            // published before the old root is unlocked, so a reader seeing the unlocked version also sees the new root
+            root = newRoot;
+        }
+        else
+        {
+            int childPos = childPosition(parent, separator);
+            parent.insertEntry(childPos, separator, childPos + 1, newNode);
+            parent.writeUnlock();
+        }
+        node.writeUnlock();
+    }
+
+
+    // Search Methods ==================================================================================================
+
+    @Nullable
+    public V search(K key)
+    {
+        Position<K, V> position = new Position<>();
+        while (true)
+        {
+            if (!descend(key, false, position))
+            {
+                continue;
+            }
+            ConcurrentLeafNode<K, V> leaf = position.leaf;
+            int pos = binarySearch(leaf, key);
+            V value = pos >= 0 ? leaf.values[pos] : null;
+            if (pos != INCONSISTENT && leaf.validate(position.version))
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return values of all keys in [lowerKey, upperKey], in key order
+     */
+    public List<V> rangeQuery(K lowerKey, K upperKey)
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * Reads leaf by leaf along the chain, copying each one out before validating it. If a leaf changed meanwhile, the
+     * query goes down again from the root, right after the last key taken.
+     *
+     * @return values of all keys between lowerKey and upperKey, in key order, each bound is included only if asked
+     */
+    public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+    {
+        List<V> result = new ArrayList<>();
+        if (compare(lowerKey, upperKey) > 0)
+        {
+            return result;
+        }
+        Object[] keys = new Object[degree - 1];
+        Object[] values = new Object[degree - 1];
+        Position<K, V> position = new Position<>();
+        K fromKey = lowerKey;
+        boolean fromInclusive = lowerInclusive;
+        restart:
+        while (true)
+        {
+            if (!descend(fromKey, false, position))
+            {
+                continue;
+            }
+            ConcurrentLeafNode<K, V> leaf = position.leaf;
+            long version = position.version;
+            while (true)
+            {
+                int count = Math.min(leaf.keyCount, keys.length);
+                System.arraycopy(leaf.keys, 0, keys, 0, count);
+                System.arraycopy(leaf.values, 0, values, 0, count);
+                ConcurrentLeafNode<K, V> next = leaf.next;
+                if (!leaf.validate(version))
+                {
+                    continue restart;
+                }
+                for (int i = 0; i < count; i ++)
+                {
+                    @SuppressWarnings("unchecked")
+                    K key = (K) keys[i];
+                    int cmp = compare(key, fromKey);
+                    if (cmp < 0 || (cmp == 0 && !fromInclusive))
+                    {
+                        continue;
+                    }
+                    cmp = compare(key, upperKey);
+                    if (cmp > 0 || (cmp == 0 && !upperInclusive))
+                    {
+                        return result;
+                    }
+                    @SuppressWarnings("unchecked")
+                    V value = (V) values[i];
+                    result.add(value);
+                    fromKey = key;
+                    fromInclusive = false;
+                }
+                if (next == null)
+                {
+                    return result;
+                }
+                // a split of the leaf since the validation only moved keys already taken
+                version = next.readLock();
+                leaf = next;
+            }
+        }
+    }
+
+
+    // Deletion ========================================================================================================
+
+    /**
+     * Removes the key from its leaf, never rebalancing, and unlinks the leaf if left empty.
+     */
+    public void delete(K key)
+    {
+        Position<K, V> position = new Position<>();
+        while (true)
+        {
+            if (!descend(key, false, position))
+            {
+                continue;
+            }
+            ConcurrentLeafNode<K, V> leaf = position.leaf;
+            if (!leaf.tryUpgrade(position.version))
+            {
+                continue;
+            }
+            int pos = binarySearch(leaf, key);
+            // found
+            if (pos >= 0)
+            {
+                leaf.removeEntry(pos);
+                size.decrement();
+            }
+            if (leaf.keyCount == 0 && position.parent != null)
+            {
+                unlink(position.parent, leaf);
+            }
+            leaf.writeUnlock();
+            return;
+        }
+    }
+
+    /**
+     * Takes the empty leaf, latched by the caller, out of its parent and out of the chain, handing its keys over to its
+     * left sibling. The first child of a parent has its left sibling under another parent, so it takes in the entries
+     * of its right sibling instead, which goes out in its place. Does nothing if the parent or the sibling is latched,
+     * if the leaf is an only child, or if it moved to another parent since the descent.
+     * <p>
+     * Readers still on the node going out fail their validation and start over. It keeps its link and its entries, so
+     * a range query already past the validation goes on along the chain as if the node was still there.
+     */
+    private void unlink(ConcurrentInternalNode<K> parent, ConcurrentLeafNode<K, V> leaf)
+    {
+        if (!parent.tryWriteLock())
+        {
+            return;
+        }
+        int childPos = parent.positionOf(leaf);
+        // siblings under the same parent were last split with the parent latched, so they link to each other
+        if (childPos > 0)
+        {
+            ConcurrentLeafNode<K, V> sibling = asLeaf(parent.children[childPos - 1]);
+            if (sibling.tryWriteLock())
+            {
+                sibling.next = leaf.next;
+                parent.removeEntry(childPos - 1, childPos);
+                sibling.writeUnlock();
+            }
+        }
+        else if (childPos == 0 && parent.keyCount > 0)
+        {
+            ConcurrentLeafNode<K, V> sibling = asLeaf(parent.children[1]);
+            if (sibling.tryWriteLock())
+            {
+                for (int i = 0; i < sibling.keyCount; i ++)
+                {
+                    leaf.insertEntry(i, sibling.keyAt(i), sibling.values[i]);
+                }
+                leaf.next = sibling.next;
+                parent.removeEntry(0, 1);
+                sibling.writeUnlock();
+            }
+        }
+        parent.writeUnlock();
+    }
+
+
+    // Validation ======================================================================================================
+
+    /**
+     * Checks the structure of the tree. Only meaningful while no writer is running.
+     */
+    public boolean validate()
+    {
+        logger.info("Validating ...");
+        int height = 0;
+        for (ConcurrentNode<K> node = root; !node.isLeaf(); node = ((ConcurrentInternalNode<K>) node).children[0])
+        {
+            height ++;
+        }
+        List<ConcurrentLeafNode<K, V>> leaves = new ArrayList<>();
+        if (validate(root, height, null, null, leaves) && validateLeafs(leaves))
+        {
+            logger.info("Validation passed");
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the node and its subtree, every key must be in [lower, upper), a null bound is unbounded. Collects the
+     * leaves in key order.
+     */
+    private boolean validate(ConcurrentNode<K> node, int height, @Nullable K lower, @Nullable K upper,
+                             List<ConcurrentLeafNode<K, V>> leaves)
+    {
+        if (node.isLeaf() != (height == 0))
+        {
+            logger.info("Validation failed: leaves are not all at the same depth");
+            return false;
+        }
+        K previous = null;
+        for (int i = 0; i < node.keyCount; i ++)
+        {
+            K key = node.keyAt(i);
+            if (previous != null && compare(previous, key) >= 0)
+            {
+                logger.info("Validation failed: keys are not in ascending order");
+                return false;
+            }
+            if ((lower != null && compare(key, lower) < 0) || (upper != null && compare(key, upper) >= 0))
+            {
+                logger.info("Validation failed: key " + key + " is out of the range of its parent");
+                return false;
+            }
+            previous = key;
+        }
+        if (node.isLeaf())
+        {
+            leaves.add(asLeaf(node));
+            return true;
+        }
+        ConcurrentInternalNode<K> internalNode = (ConcurrentInternalNode<K>) node;
+        for (int i = 0; i < internalNode.children.length; i ++)
+        {
+            if ((internalNode.children[i] == null) == (i <= internalNode.keyCount))
+            {
+                logger.info("Validation failed: internal.keyCount + 1 != number of children");
+                return false;
+            }
+        }
+        for (int i = 0; i <= internalNode.keyCount; i ++)
+        {
+            K childLower = i == 0 ? lower : internalNode.keyAt(i - 1);
+            K childUpper = i == internalNode.keyCount ? upper : internalNode.keyAt(i);
+            if (!validate(internalNode.children[i], height - 1, childLower, childUpper, leaves))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the chain links exactly the leaves of the tree, in key order, and that they hold all entries.
+     */
+    private boolean validateLeafs(List<ConcurrentLeafNode<K, V>> leaves)
+    {
+        ConcurrentLeafNode<K, V> leaf = leaves.get(0);
+        int count = 0;
+        for (ConcurrentLeafNode<K, V> expected : leaves)
+        {
+            if (leaf != expected)
+            {
+                logger.info("Validation failed: the leaf chain does not follow the tree");
+                return false;
+            }
+            count += leaf.keyCount;
+            leaf = leaf.next;
+        }
+        if (leaf != null)
+        {
+            logger.info("Validation failed: the leaf chain goes on past the last leaf");
+            return false;
+        }
+        if (count != size())
+        {
+            logger.info("Validation failed: " + count + " entries in the leaves, size is " + size());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A node of {@link ConcurrentBPlusTree}, guarded by a version latch. Writers lock the node by setting the lowest bit
+ * of its version, and move the version on when they unlock. Readers never write the version, they read the node
+ * optimistically and check afterwards that the version has not moved, or else start over.
+ */
+abstract class ConcurrentNode<K>
+{
+    private static final VarHandle VERSION;
+
+    static
+    {
+        try
+        {
+            VERSION = MethodHandles.lookup().findVarHandle(ConcurrentNode.class, "version", long.class);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final long LOCKED = 1;
+
+    @SuppressWarnings("unused") // accessed through VERSION
+    private volatile long version = 0;
+
+    // sized once from degree, a full node holds degree - 1 keys and is split before anything goes in
+    final Object[] keys;
+    int keyCount = 0;
+
+    private final boolean leaf;
+
+    ConcurrentNode(int degree, boolean leaf)
+    {
+        this.keys = new Object[degree - 1];
+        this.leaf = leaf;
+    }
+
+    final boolean isLeaf()
+    {
+        return leaf;
+    }
+
+    final boolean isFull()
+    {
+        return keyCount >= keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    K keyAt(int pos)
+    {
+        return (K) keys[pos];
+    }
+
+    void insertKey(int pos, K key)
+    {
+        System.arraycopy(keys, pos, keys, pos + 1, keyCount - pos);
+        keys[pos] = key;
+        keyCount ++;
+    }
+
+    void removeKey(int pos)
+    {
+        System.arraycopy(keys, pos + 1, keys, pos, keyCount - pos - 1);
+        keys[-- keyCount] = null;
+    }
+
+    // Version Latch ===================================================================================================
+
+    /**
+     * Waits until no writer holds the node.
+     *
+     * @return the version to validate optimistic reads against
+     */
+    final long readLock()
+    {
+        long v = (long) VERSION.getAcquire(this);
+        while ((v & LOCKED) != 0)
+        {
+            Thread.onSpinWait();
+            v = (long) VERSION.getAcquire(this);
+        }
+        return v;
+    }
+
+    /**
+     * @return whether the node is still at the given version, so everything read from it since is consistent
+     */
+    final boolean validate(long v)
+    {
+        // keeps the reads of the node from moving past the version check
+        VarHandle.acquireFence();
+        return (long) VERSION.getAcquire(this) == v;
+    }
+
+    /**
+     * Locks the node, only if still at the given version.
+     *
+     * @return false if the node moved on meanwhile, the caller must start over
+     */
+    final boolean tryUpgrade(long v)
+    {
+        return VERSION.compareAndSet(this, v, v + LOCKED);
+    }
+
+    /**
+     * Locks the node only if no writer holds it, without waiting.
+     *
+     * @return false if a writer holds the node
+     */
+    final boolean tryWriteLock()
+    {
+        long v = (long) VERSION.getAcquire(this);
+        return (v & LOCKED) == 0 && tryUpgrade(v);
+    }
+
+    /**
+     * Waits until no writer holds the node, then locks it.
+     */
+    final void writeLock()
+    {
+        while (!tryUpgrade(readLock()))
+        {
+            Thread.onSpinWait();
+        }
+    }
+
+    final void writeUnlock()
+    {
+        VERSION.setRelease(this, (long) VERSION.getAcquire(this) + LOCKED);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOf(keys, keyCount));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy position in the leaf chain of a {@link BPlusTree}. A new cursor is placed before the first entry, and
+ * {@link #seek(Object)} places it right before the first key at or after the given one. Each {@link #next()} moves one
+ * entry forward without allocating anything, {@link #key()} and {@link #value()} read the entry under the cursor.
+ * <pre>
+ * try (Cursor&lt;K, V&gt; cursor = tree.cursor())
+ * {
+ *     cursor.seek(from);
+ *     while (cursor.next())
+ *     {
+ *         consume(cursor.key(), cursor.value());
+ *     }
+ * }
+ * </pre>
+ * Like the iterators of java.util collections, a cursor fails with {@link ConcurrentModificationException} once the
+ * tree has been structurally modified by anything else. After a {@link BPlusTree#snapshot()}, replacing a value counts
+ * too, as it copies the leaf out from under the cursor.
+ */
+public final class Cursor<K, V> implements AutoCloseable
+{
+    private final BPlusTree<K, V> tree;
+    private int expectedModCount;
+
+    private LeafNode<K, V> leaf;
+    // position of the current entry in leaf, -1 if before the first entry of leaf
+    private int pos;
+    private boolean positioned = false;
+    private boolean closed = false;
+
+    Cursor(BPlusTree<K, V> tree)
+    {
+        this.tree = tree;
+        seekToFirst();
+    }
+
+    /**
+     * Places the cursor before the first entry of the tree.
+     */
+    public void seekToFirst()
+    {
+        checkOpen();
+        expectedModCount = tree.modCount;
+        leaf = tree.firstLeaf();
+        pos = -1;
+        positioned = false;
+    }
+
+    /**
+     * Places the cursor before the first entry whose key is equal to or after the given key.
+     */
+    public void seek(K key)
+    {
+        checkOpen();
+        expectedModCount = tree.modCount;
+        leaf = tree.findLeaf(key);
+        pos = tree.startPosition(leaf, key, true) - 1;
+        positioned = false;
+    }
+
+    /**
+     * Moves to the next entry.
+     *
+     * @return false if there is no more entry, the cursor then stays after the last entry
+     */
+    public boolean next()
+    {
+        checkOpen();
+        checkForComodification();
+        if (leaf == null)
+        {
+            return false;
+        }
+        pos ++;
+        while (pos >= leaf.keyCount)
+        {
+            LeafNode<K, V> next = tree.nextLeaf(leaf);
+            if (next != null)
+            {
+                leaf = next;
+                pos = 0;
+            }
+            else
+            {
+                // stay after the last entry, so that repeated calls keep returning false
+                pos = leaf.keyCount;
+                positioned = false;
+                return false;
+            }
+        }
+        positioned = true;
+        return true;
+    }
+
+    public K key()
+    {
+        checkPositioned();
+        return leaf.keyAt(pos);
+    }
+
+    public V value()
+    {
+        checkPositioned();
+        return leaf.values[pos];
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        leaf = null;
+        positioned = false;
+    }
+
+    private void checkOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Cursor is closed");
+        }
+    }
+
+    private void checkPositioned()
+    {
+        checkOpen();
+        checkForComodification();
+        if (!positioned)
+        {
+            throw new NoSuchElementException("Cursor is not on an entry");
+        }
+    }
+
+    private void checkForComodification()
+    {
+        if (tree.modCount != expectedModCount)
+        {
+            throw new ConcurrentModificationException();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the entries of a key range. Before traversal starts it covers a run of children of one internal
+ * node, and {@link #trySplit()} hands the first half of that run to a new spliterator, using the separator between the
+ * halves as the boundary, so parallel workers always get disjoint subtrees. A single child is split by moving down to
+ * its own children. Traversal walks the leaf chain from the lower bound and stops at the upper bound.
+ */
+class EntrySpliterator<K, V> implements Spliterator<Map.Entry<K, V>>
+{
+    private final BPlusTree<K, V> tree;
+    private final int expectedModCount;
+
+    // null bounds are unbounded
+    @Nullable
+    private K lowerKey;
+    private boolean lowerInclusive;
+    @Nullable
+    private final K upperKey;
+    private final boolean upperInclusive;
+
+    // children [fromChild, toChild) of splitNode are covered, null once the covered range can't be split any more
+    @Nullable
+    private InternalNode<K> splitNode;
+    private int fromChild;
+    private int toChild;
+
+    private long estimatedSize;
+    private boolean sized;
+
+    // traversal state, leaf is null until the traversal starts
+    private LeafNode<K, V> leaf = null;
+    private int pos;
+    private int end;
+    private boolean finished = false;
+
+    EntrySpliterator(BPlusTree<K, V> tree, @Nullable K lowerKey, boolean lowerInclusive, @Nullable K upperKey, boolean upperInclusive)
+    {
+        this.tree = tree;
+        this.expectedModCount = tree.modCount;
+        this.lowerKey = lowerKey;
+        this.lowerInclusive = lowerInclusive;
+        this.upperKey = upperKey;
+        this.upperInclusive = upperInclusive;
+        this.estimatedSize = tree.size();
+        // only the whole tree has a known size
+        this.sized = lowerKey == null && upperKey == null;
+        setSplitRange(tree.root());
+    }
+
+    private EntrySpliterator(EntrySpliterator<K, V> parent, K upperKey, InternalNode<K> splitNode, int fromChild, int toChild, long estimatedSize)
+    {
+        this.tree = parent.tree;
+        this.expectedModCount = parent.expectedModCount;
+        this.lowerKey = parent.lowerKey;
+        this.lowerInclusive = parent.lowerInclusive;
+        this.upperKey = upperKey;
+        this.upperInclusive = false;
+        this.splitNode = splitNode;
+        this.fromChild = fromChild;
+        this.toChild = toChild;
+        this.estimatedSize = estimatedSize;
+        this.sized = false;
+    }
+
+    /**
+     * Covers the children of the node that overlap [lowerKey, upperKey], or nothing if the node is a leaf.
+     */
+    private void setSplitRange(Node<K> node)
+    {
+        if (node.isLeaf())
+        {
+            splitNode = null;
+        }
+        else
+        {
+            InternalNode<K> internalNode = (InternalNode<K>) node;
+            splitNode = internalNode;
+            fromChild = lowerKey == null ? 0 : tree.childPosition(internalNode, lowerKey);
+            toChild = upperKey == null ? internalNode.childCount() : tree.childPosition(internalNode, upperKey) + 1;
+        }
+    }
+
+
+    // Splitting =======================================================================================================
+
+    @Override
+    @Nullable
+    public Spliterator<Map.Entry<K, V>> trySplit()
+    {
+        checkForComodification();
+        if (leaf != null || finished)
+        {
+            return null;
+        }
+        // a single child, go down a level to find something to split
+        while (splitNode != null && toChild - fromChild == 1)
+        {
+            setSplitRange(splitNode.children[fromChild]);
+        }
+        if (splitNode == null || toChild - fromChild < 2)
+        {
+            return null;
+        }
+        int midChild = (fromChild + toChild) >>> 1;
+        K separator = splitNode.keyAt(midChild - 1);
+        long prefixSize = estimatedSize * (midChild - fromChild) / (toChild - fromChild);
+        EntrySpliterator<K, V> prefix = new EntrySpliterator<>(this, separator, splitNode, fromChild, midChild, prefixSize);
+        // this one keeps [separator, upperKey]
+        lowerKey = separator;
+        lowerInclusive = true;
+        fromChild = midChild;
+        estimatedSize -= prefixSize;
+        sized = false;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return finished ? 0 : estimatedSize;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        int characteristics = ORDERED | SORTED | DISTINCT | NONNULL;
+        return sized ? characteristics | SIZED : characteristics;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Comparator<? super Map.Entry<K, V>> getComparator()
+    {
+        Comparator<? super K> comparator = tree.comparator();
+        if (comparator == null)
+        {
+            return (Comparator) Map.Entry.comparingByKey();
+        }
+        else
+        {
+            return Map.Entry.comparingByKey(comparator);
+        }
+    }
+
+
+    // Traversal =======================================================================================================
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action)
+    {
+        if (!advance())
+        {
+            return false;
+        }
+        action.accept(new AbstractMap.SimpleImmutableEntry<>(leaf.keyAt(pos), leaf.values[pos]));
+        pos ++;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action)
+    {
+        while (advance())
+        {
+            for (; pos < end; pos ++)
+            {
+                action.accept(new AbstractMap.SimpleImmutableEntry<>(leaf.keyAt(pos), leaf.values[pos]));
+            }
+        }
+    }
+
+    /**
+     * Makes leaf and pos point to the next entry in range, pos &lt; end afterwards unless it returns false.
+     */
+    private boolean advance()
+    {
+        checkForComodification();
+        if (finished)
+        {
+            return false;
+        }
+        if (leaf == null)
+        {
+            if (lowerKey == null)
+            {
+                leaf = tree.firstLeaf();
+                pos = 0;
+            }
+            else
+            {
+                leaf = tree.findLeaf(lowerKey);
+                pos = tree.startPosition(leaf, lowerKey, lowerInclusive);
+            }
+            end = endOf(leaf);
+        }
+        while (pos >= end)
+        {
+            // stopped before the end of the leaf, or no more leafs
+            LeafNode<K, V> next = end < leaf.keyCount ? null : tree.nextLeaf(leaf);
+            if (next == null)
+            {
+                finished = true;
+                splitNode = null;
+                return false;
+            }
+            leaf = next;
+            pos = 0;
+            end = endOf(leaf);
+        }
+        return true;
+    }
+
+    private int endOf(LeafNode<K, V> leaf)
+    {
+        if (upperKey == null || (leaf.keyCount > 0 && tree.compare(leaf.keyAt(leaf.keyCount - 1), upperKey) < 0))
+        {
+            return leaf.keyCount;
+        }
+        else
+        {
+            return tree.endPosition(leaf, upperKey, upperInclusive);
+        }
+    }
+
+    private void checkForComodification()
+    {
+        if (tree.modCount != expectedModCount)
+        {
+            throw new ConcurrentModificationException();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+class IntInternalNode extends IntNode
+{
+    final IntNode[] children;
+
+    IntInternalNode(int degree)
+    {
+        super(degree);
+        this.children = new IntNode[degree + 1];
+    }
+
+    @Override
+    boolean isLeaf()
+    {
+        return false;
+    }
+
+    @Override
+    int getMinKey()
+    {
+        return children[0].getMinKey();
+    }
+
+    int childCount()
+    {
+        return keyCount + 1;
+    }
+
+    int childPosition(int key)
+    {
+        int keyPos = search(key);
+        // when is found in internal, childPos = keyPos + 1
+        return keyPos >= 0 ? keyPos + 1 : -(keyPos + 1);
+    }
+
+    void insertEntry(int keyPos, int key, int childPos, IntNode child)
+    {
+        System.arraycopy(children, childPos, children, childPos + 1, childCount() - childPos);
+        children[childPos] = child;
+        insertKey(keyPos, key);
+    }
+
+    void removeEntry(int keyPos, int childPos)
+    {
+        System.arraycopy(children, childPos + 1, children, childPos, childCount() - childPos - 1);
+        children[keyCount] = null;
+        removeKey(keyPos);
+    }
+}
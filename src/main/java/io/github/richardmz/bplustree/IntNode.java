@@ -0,0 +1,58 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.Arrays;
+
+abstract class IntNode
+{
+    final int[] keys;
+    int keyCount = 0;
+
+    IntNode(int degree)
+    {
+        // one extra slot, the node is split right after it reaches degree keys
+        this.keys = new int[degree];
+    }
+
+    abstract boolean isLeaf();
+
+    abstract int getMinKey();
+
+    int search(int key)
+    {
+        return Arrays.binarySearch(keys, 0, keyCount, key);
+    }
+
+    void insertKey(int pos, int key)
+    {
+        System.arraycopy(keys, pos, keys, pos + 1, keyCount - pos);
+        keys[pos] = key;
+        keyCount ++;
+    }
+
+    void removeKey(int pos)
+    {
+        System.arraycopy(keys, pos + 1, keys, pos, keyCount - pos - 1);
+        keyCount --;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOf(keys, keyCount));
+    }
+}
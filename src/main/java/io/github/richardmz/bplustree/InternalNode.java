@@ -17,23 +17,56 @@ package io.github.richardmz.bplustree;
 
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-
 class InternalNode<K> extends Node<K>
 {
-    List<Node<K>> children = new ArrayList<>();
+    final Node<K>[] children;
 
-    @Override
-    boolean isLeaf()
+    InternalNode(int degree)
+    {
+        super(degree, false);
+        this.children = newChildren(degree + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Node<K>[] newChildren(int length)
     {
-        return false;
+        return (Node<K>[]) new Node<?>[length];
     }
 
     @Override
     @Nullable
     K getMinKey()
     {
-        return children.get(0).getMinKey();
+        return children[0].getMinKey();
+    }
+
+    int childCount()
+    {
+        return keyCount + 1;
+    }
+
+    void insertEntry(int keyPos, K key, int childPos, Node<K> child)
+    {
+        System.arraycopy(children, childPos, children, childPos + 1, childCount() - childPos);
+        children[childPos] = child;
+        insertKey(keyPos, key);
+    }
+
+    void removeEntry(int keyPos, int childPos)
+    {
+        System.arraycopy(children, childPos + 1, children, childPos, childCount() - childPos - 1);
+        children[keyCount] = null;
+        removeKey(keyPos);
+    }
+
+    /**
+     * Appends the separator and then all keys and children of the other node.
+     */
+    void appendAll(K separator, InternalNode<K> other)
+    {
+        keys[keyCount] = separator;
+        System.arraycopy(other.keys, 0, keys, keyCount + 1, other.keyCount);
+        System.arraycopy(other.children, 0, children, keyCount + 1, other.childCount());
+        keyCount += other.keyCount + 1;
     }
 }
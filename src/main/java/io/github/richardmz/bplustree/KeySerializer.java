@@ -0,0 +1,35 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes keys into a {@link ByteBuffer} at an absolute offset, the position and limit of the buffer are never touched.
+ */
+public interface KeySerializer<K>
+{
+    /**
+     * @return the number of bytes of every encoded key, or -1 if the width depends on the key
+     */
+    int fixedSize();
+
+    int size(K key);
+
+    void write(ByteBuffer buffer, int offset, K key);
+
+    K read(ByteBuffer buffer, int offset);
+}
@@ -17,28 +17,28 @@ package io.github.richardmz.bplustree;
 
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 class LeafNode<K, V> extends Node<K>
 {
-    List<V> values = new ArrayList<>();
+    final V[] values;
 
     LeafNode<K, V> next = null;
 
-    @Override
-    boolean isLeaf()
+    @SuppressWarnings("unchecked")
+    LeafNode(int degree)
     {
-        return true;
+        super(degree, true);
+        this.values = (V[]) new Object[degree];
     }
 
     @Override
     @Nullable
     K getMinKey()
     {
-        if (keys.size() > 0)
+        if (keyCount > 0)
         {
-            return keys.get(0);
+            return keyAt(0);
         }
         else
         {
@@ -46,8 +46,34 @@ class LeafNode<K, V> extends Node<K>
         }
     }
 
+    void insertEntry(int pos, K key, V value)
+    {
+        System.arraycopy(values, pos, values, pos + 1, keyCount - pos);
+        values[pos] = value;
+        insertKey(pos, key);
+    }
+
+    void removeEntry(int pos)
+    {
+        System.arraycopy(values, pos + 1, values, pos, keyCount - pos - 1);
+        values[keyCount - 1] = null;
+        removeKey(pos);
+    }
+
+    void appendAll(LeafNode<K, V> other)
+    {
+        System.arraycopy(other.keys, 0, keys, keyCount, other.keyCount);
+        System.arraycopy(other.values, 0, values, keyCount, other.keyCount);
+        keyCount += other.keyCount;
+    }
+
     boolean hasNext()
     {
         return next != null;
     }
+
+    String valuesToString()
+    {
+        return Arrays.toString(Arrays.copyOf(values, keyCount));
+    }
 }
@@ -169,8 +169,9 @@ public class Logger implements Runnable
 
     public void start()
     {
-        thread.start();
+        // set before the thread checks it, or the thread may find it false and end at once
         run = true;
+        thread.start();
     }
 
     public void stop()
@@ -0,0 +1,489 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A B+ tree specialized for primitive long keys. Keys are kept in flat long[] arrays and compared without boxing,
+ * otherwise it behaves like {@link BPlusTree}.
+ * <p>
+ * Kept in sync with {@link IntBPlusTree} by hand, along with the node classes: the two differ in the key type
+ * only, so a fix to either goes into both.
+ */
+public class LongBPlusTree<V>
+{
+    private final Logger logger = Logger.getInstance();
+    private final int degree;
+
+    private final int minKeyArraySize;
+
+    private final LongLeafNode<V> firstLeaf;
+    private LongNode root;
+
+    public LongBPlusTree(int degree) throws DegreeTooSmallException
+    {
+        if (degree < 3)
+        {
+            throw new DegreeTooSmallException(degree);
+        }
+        else
+        {
+            this.degree = degree;
+            this.minKeyArraySize = (degree % 2 == 0) ? (degree / 2 - 1) : ((degree + 1) / 2 - 1);
+            this.firstLeaf = new LongLeafNode<>(degree);
+            this.root = firstLeaf;
+        }
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(long key, V value) throws KeyConflictException
+    {
+        LongNode newChild = insert(root, key, value);
+        if (newChild != null)
+        {
+            // split root node, create new root node
+            LongInternalNode newRoot = new LongInternalNode(degree);
+            newRoot.children[0] = root;
+            newRoot.insertEntry(0, newChild.getMinKey(), 1, newChild);
+            root = newRoot;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private LongNode insert(LongNode node, long key, V value) throws KeyConflictException
+    {
+        if (node.isLeaf())
+        {
+            LongLeafNode<V> leaf = (LongLeafNode<V>) node;
+            int pos = leaf.search(key);
+            // found
+            if (pos >= 0)
+            {
+                throw new KeyConflictException(String.valueOf(key));
+            }
+            int insertPos = -(pos + 1); // See doc of Arrays.binarySearch(array, from, to, key)
+            leaf.insertEntry(insertPos, key, value);
+            // need split
+            if (leaf.keyCount == degree)
+            {
+                return split(leaf);
+            }
+            else
+            {
+                return null;
+            }
+        }
+        else // is internal
+        {
+            // a separator may outlive its key after deletion, so conflicts are only decided in the leaf
+            LongInternalNode internalNode = (LongInternalNode) node;
+            int childPos = internalNode.childPosition(key);
+            LongNode newChild = insert(internalNode.children[childPos], key, value);
+            if (newChild != null)
+            {
+                internalNode.insertEntry(childPos, newChild.getMinKey(), childPos + 1, newChild);
+                if (internalNode.keyCount == degree)
+                {
+                    return split(internalNode);
+                }
+            }
+            return null;
+        }
+    }
+
+    private LongLeafNode<V> split(LongLeafNode<V> leaf)
+    {
+        int medianPos = degree / 2;
+        int moved = leaf.keyCount - medianPos;
+        LongLeafNode<V> newLeaf = new LongLeafNode<>(degree);
+        System.arraycopy(leaf.keys, medianPos, newLeaf.keys, 0, moved);
+        System.arraycopy(leaf.values, medianPos, newLeaf.values, 0, moved);
+        Arrays.fill(leaf.values, medianPos, leaf.keyCount, null);
+        newLeaf.keyCount = moved;
+        leaf.keyCount = medianPos;
+        newLeaf.next = leaf.next;
+        leaf.next = newLeaf;
+        return newLeaf;
+    }
+
+    private LongInternalNode split(LongInternalNode internal)
+    {
+        int medianPos = degree / 2 + 1;
+        int childCount = internal.childCount();
+        LongInternalNode newInternal = new LongInternalNode(degree);
+        System.arraycopy(internal.keys, medianPos, newInternal.keys, 0, internal.keyCount - medianPos);
+        System.arraycopy(internal.children, medianPos, newInternal.children, 0, childCount - medianPos);
+        Arrays.fill(internal.children, medianPos, childCount, null);
+        newInternal.keyCount = internal.keyCount - medianPos;
+        // the key at medianPos - 1 is dropped, the parent takes newInternal.getMinKey() instead
+        internal.keyCount = medianPos - 1;
+        return newInternal;
+    }
+
+
+    // Search Methods ==================================================================================================
+
+    @Nullable
+    public V search(long key)
+    {
+        LongLeafNode<V> leaf = findLeaf(key);
+        int pos = leaf.search(key);
+        // found
+        if (pos >= 0)
+        {
+            return leaf.getValue(pos);
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    public List<V> rangeQuery(long lowerKey, long upperKey)
+    {
+        List<V> result = new ArrayList<>();
+        LongLeafNode<V> leaf = findLeaf(lowerKey);
+        int pos = leaf.search(lowerKey);
+        if (pos < 0)
+        {
+            pos = -(pos + 1);
+        }
+        while (leaf != null)
+        {
+            for (; pos < leaf.keyCount; pos ++)
+            {
+                if (leaf.keys[pos] > upperKey)
+                {
+                    return result;
+                }
+                result.add(leaf.getValue(pos));
+            }
+            leaf = leaf.next;
+            pos = 0;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private LongLeafNode<V> findLeaf(long key)
+    {
+        LongNode node = root;
+        while (!node.isLeaf())
+        {
+            LongInternalNode internalNode = (LongInternalNode) node;
+            node = internalNode.children[internalNode.childPosition(key)];
+        }
+        return (LongLeafNode<V>) node;
+    }
+
+
+    // Deletion ========================================================================================================
+
+    public void delete(long key)
+    {
+        delete(root, key);
+        if (!root.isLeaf() && root.keyCount == 0)
+        {
+            root = ((LongInternalNode) root).children[0];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean delete(LongNode node, long key)
+    {
+        if (node.isLeaf())
+        {
+            LongLeafNode<V> leaf = (LongLeafNode<V>) node;
+            int keyPos = leaf.search(key);
+            // found
+            if (keyPos >= 0)
+            {
+                leaf.removeEntry(keyPos);
+                return true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        else // is internal
+        {
+            LongInternalNode internalNode = (LongInternalNode) node;
+            int childPos = internalNode.childPosition(key);
+            LongNode child = internalNode.children[childPos];
+            boolean success = delete(child, key);
+            // need to adjust nodes
+            if (success && child.keyCount < minKeyArraySize)
+            {
+                adjustNodes(internalNode, child, childPos);
+            }
+            return success;
+        }
+    }
+
+    private void adjustNodes(LongInternalNode parent, LongNode child, int childPos)
+    {
+        if (hasLeftSibling(childPos) && hasExtraKeys(parent.children[childPos - 1]))
+        {
+            borrowFromLeft(parent, child, childPos);
+        }
+        else if (hasRightSibling(parent, childPos) && hasExtraKeys(parent.children[childPos + 1]))
+        {
+            borrowFromRight(parent, child, childPos);
+        }
+        else if (hasLeftSibling(childPos))
+        {
+            merge(parent, childPos - 1);
+        }
+        else if (hasRightSibling(parent, childPos))
+        {
+            merge(parent, childPos);
+        }
+        else
+        {
+            throw new IllegalStateException("Fatal Error - Should not reach here");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void borrowFromLeft(LongInternalNode parent, LongNode child, int childPos)
+    {
+        LongNode left = parent.children[childPos - 1];
+        int last = left.keyCount - 1;
+        if (child.isLeaf())
+        {
+            LongLeafNode<V> childLeaf = (LongLeafNode<V>) child;
+            LongLeafNode<V> leftLeaf = (LongLeafNode<V>) left;
+            childLeaf.insertEntry(0, leftLeaf.keys[last], leftLeaf.getValue(last));
+            leftLeaf.removeEntry(last);
+            parent.keys[childPos - 1] = childLeaf.keys[0];
+        }
+        else // child is internal
+        {
+            LongInternalNode childInternal = (LongInternalNode) child;
+            LongInternalNode leftInternal = (LongInternalNode) left;
+            childInternal.insertEntry(0, parent.keys[childPos - 1], 0, leftInternal.children[last + 1]);
+            parent.keys[childPos - 1] = leftInternal.keys[last];
+            leftInternal.removeEntry(last, last + 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void borrowFromRight(LongInternalNode parent, LongNode child, int childPos)
+    {
+        LongNode right = parent.children[childPos + 1];
+        if (child.isLeaf())
+        {
+            LongLeafNode<V> childLeaf = (LongLeafNode<V>) child;
+            LongLeafNode<V> rightLeaf = (LongLeafNode<V>) right;
+            childLeaf.insertEntry(childLeaf.keyCount, rightLeaf.keys[0], rightLeaf.getValue(0));
+            rightLeaf.removeEntry(0);
+            parent.keys[childPos] = rightLeaf.keys[0];
+        }
+        else // child is internal
+        {
+            LongInternalNode childInternal = (LongInternalNode) child;
+            LongInternalNode rightInternal = (LongInternalNode) right;
+            childInternal.insertEntry(childInternal.keyCount, parent.keys[childPos], childInternal.keyCount + 1, rightInternal.children[0]);
+            parent.keys[childPos] = rightInternal.keys[0];
+            rightInternal.removeEntry(0, 0);
+        }
+    }
+
+    /**
+     * Moves everything of the child at keyPos + 1 into the child at keyPos, and removes the separator between them.
+     */
+    @SuppressWarnings("unchecked")
+    private void merge(LongInternalNode parent, int keyPos)
+    {
+        LongNode left = parent.children[keyPos];
+        LongNode right = parent.children[keyPos + 1];
+        if (left.isLeaf())
+        {
+            LongLeafNode<V> leftLeaf = (LongLeafNode<V>) left;
+            LongLeafNode<V> rightLeaf = (LongLeafNode<V>) right;
+            System.arraycopy(rightLeaf.keys, 0, leftLeaf.keys, leftLeaf.keyCount, rightLeaf.keyCount);
+            System.arraycopy(rightLeaf.values, 0, leftLeaf.values, leftLeaf.keyCount, rightLeaf.keyCount);
+            leftLeaf.keyCount += rightLeaf.keyCount;
+            leftLeaf.next = rightLeaf.next; // remember to update the pointer
+        }
+        else // is internal
+        {
+            LongInternalNode leftInternal = (LongInternalNode) left;
+            LongInternalNode rightInternal = (LongInternalNode) right;
+            leftInternal.keys[leftInternal.keyCount] = parent.keys[keyPos];
+            System.arraycopy(rightInternal.keys, 0, leftInternal.keys, leftInternal.keyCount + 1, rightInternal.keyCount);
+            System.arraycopy(rightInternal.children, 0, leftInternal.children, leftInternal.keyCount + 1, rightInternal.childCount());
+            leftInternal.keyCount += rightInternal.keyCount + 1;
+        }
+        parent.removeEntry(keyPos, keyPos + 1);
+    }
+
+    private boolean hasLeftSibling(int pos)
+    {
+        return pos > 0;
+    }
+
+    private boolean hasRightSibling(LongInternalNode parent, int pos)
+    {
+        return parent.childCount() - 1 > pos;
+    }
+
+    private boolean hasExtraKeys(LongNode node)
+    {
+        return node.keyCount > minKeyArraySize;
+    }
+
+
+    // Validation ======================================================================================================
+
+    public boolean validate()
+    {
+        logger.info("Validating ...");
+        if (validate(root, Long.MIN_VALUE, Long.MAX_VALUE, true) && validateLeafs())
+        {
+            logger.info("Validation passed");
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the node and its subtree, every key must be in [lower, upper), or [lower, upper] for the rightmost path.
+     */
+    private boolean validate(LongNode node, long lower, long upper, boolean upperInclusive)
+    {
+        if (node.keyCount >= degree)
+        {
+            logger.info("Validation failed: node.keyCount >= degree");
+            return false;
+        }
+        else if (node != root && node.keyCount < minKeyArraySize)
+        {
+            logger.info("Validation failed: node.keyCount < minKeyArraySize, detail: " + node);
+            return false;
+        }
+        for (int i = 0; i < node.keyCount; i ++)
+        {
+            long key = node.keys[i];
+            if (i > 0 && node.keys[i - 1] >= key)
+            {
+                logger.info("Validation failed: keys are not in ascending order, detail: " + node);
+                return false;
+            }
+            if (key < lower || key > upper || (key == upper && !upperInclusive))
+            {
+                logger.info("Validation failed: key " + key + " is out of the range of its parent");
+                return false;
+            }
+        }
+        if (node.isLeaf())
+        {
+            return true;
+        }
+        LongInternalNode internal = (LongInternalNode) node;
+        for (int i = 0; i < internal.childCount(); i ++)
+        {
+            LongNode child = internal.children[i];
+            if (child == null)
+            {
+                logger.info("Validation failed: null pointer found");
+                return false;
+            }
+            long childLower = i == 0 ? lower : internal.keys[i - 1];
+            long childUpper = i == internal.keyCount ? upper : internal.keys[i];
+            boolean childUpperInclusive = i == internal.keyCount && upperInclusive;
+            if (!validate(child, childLower, childUpper, childUpperInclusive))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean validateLeafs()
+    {
+        LongLeafNode<V> leaf = firstLeaf;
+        LongLeafNode<V> previous = null;
+        while (leaf != null)
+        {
+            if (previous != null && previous.keyCount > 0 && leaf.keyCount > 0
+                    && previous.keys[previous.keyCount - 1] >= leaf.keys[0])
+            {
+                logger.info("Validation failed: leafs are not in ascending order");
+                return false;
+            }
+            previous = leaf;
+            leaf = leaf.next;
+        }
+        return true;
+    }
+
+
+    // Visualization ===================================================================================================
+
+    public void printTree()
+    {
+        logger.info("Tree Structure: ");
+        Queue<LongNode> queue = new LinkedList<>();
+        queue.add(root);
+
+        while (!queue.isEmpty())
+        {
+            int levelSize = queue.size();
+            for (int i = 0; i < levelSize; i++)
+            {
+                LongNode node = queue.poll();
+                assert node != null;
+                logger.infoInline(node + " ");
+
+                if (!node.isLeaf())
+                {
+                    LongInternalNode internal = (LongInternalNode) node;
+                    for (int j = 0; j < internal.childCount(); j ++)
+                    {
+                        queue.add(internal.children[j]);
+                    }
+                }
+            }
+            logger.infoBreakLine();
+        }
+    }
+
+    public void printLeafs()
+    {
+        logger.info("Leafs: ");
+        LongLeafNode<V> node = firstLeaf;
+        logger.info(node.toString());
+        while (node.hasNext())
+        {
+            node = node.next;
+            logger.info(node.toString());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+class LongLeafNode<V> extends LongNode
+{
+    final Object[] values;
+
+    LongLeafNode<V> next = null;
+
+    LongLeafNode(int degree)
+    {
+        super(degree);
+        this.values = new Object[degree];
+    }
+
+    @Override
+    boolean isLeaf()
+    {
+        return true;
+    }
+
+    @Override
+    long getMinKey()
+    {
+        return keys[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    V getValue(int pos)
+    {
+        return (V) values[pos];
+    }
+
+    void insertEntry(int pos, long key, V value)
+    {
+        System.arraycopy(values, pos, values, pos + 1, keyCount - pos);
+        values[pos] = value;
+        insertKey(pos, key);
+    }
+
+    void removeEntry(int pos)
+    {
+        System.arraycopy(values, pos + 1, values, pos, keyCount - pos - 1);
+        values[keyCount - 1] = null;
+        removeKey(pos);
+    }
+
+    boolean hasNext()
+    {
+        return next != null;
+    }
+}
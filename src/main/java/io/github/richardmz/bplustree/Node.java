@@ -17,15 +17,56 @@ package io.github.richardmz.bplustree;
 
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 abstract class Node<K>
 {
-    List<K> keys = new ArrayList<>();
+    // sized once from degree, a node is split as soon as it holds degree keys
+    final Object[] keys;
+    int keyCount = 0;
 
-    abstract boolean isLeaf();
+    // a plain field rather than an overridden method, so the check stays monomorphic on the descent path
+    private final boolean leaf;
+
+    // generation of the tree the node was created in, see BPlusTree.snapshot()
+    int generation = 0;
+
+    Node(int degree, boolean leaf)
+    {
+        this.keys = new Object[degree];
+        this.leaf = leaf;
+    }
+
+    final boolean isLeaf()
+    {
+        return leaf;
+    }
 
     @Nullable
     abstract K getMinKey();
+
+    @SuppressWarnings("unchecked")
+    K keyAt(int pos)
+    {
+        return (K) keys[pos];
+    }
+
+    void insertKey(int pos, K key)
+    {
+        System.arraycopy(keys, pos, keys, pos + 1, keyCount - pos);
+        keys[pos] = key;
+        keyCount ++;
+    }
+
+    void removeKey(int pos)
+    {
+        System.arraycopy(keys, pos + 1, keys, pos, keyCount - pos - 1);
+        keys[-- keyCount] = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(Arrays.copyOf(keys, keyCount));
+    }
 }
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A B+ tree whose nodes live outside of the Java heap, see {@link OffHeapNodeStore}. Keys and values are copied in and
+ * out through fixed-width serializers, so the heap holds no per-entry objects no matter how large the tree grows.
+ * <p>
+ * The slabs are direct buffers, reserved as the tree grows and never returned while it is open, see
+ * {@link #offHeapBytes()}. {@link #close()} only drops them: their memory is reclaimed by the garbage collector like
+ * any direct buffer, which may take until a later collection. Direct memory counts against
+ * {@code -XX:MaxDirectMemorySize}, which should leave room for trees closed but not yet collected, or a new slab fails
+ * with an {@link OutOfMemoryError}.
+ */
+public class OffHeapBPlusTree<K extends Comparable<? super K>, V> implements AutoCloseable
+{
+    private static final int NULL = OffHeapNodeStore.NULL;
+
+    private final Logger logger = Logger.getInstance();
+    private final int degree;
+
+    private final int minKeyArraySize;
+
+    private final OffHeapNodeStore<K, V> store;
+    private final int firstLeaf;
+    private int root;
+
+    public OffHeapBPlusTree(int degree, KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer)
+            throws DegreeTooSmallException
+    {
+        if (degree < 3)
+        {
+            throw new DegreeTooSmallException(degree);
+        }
+        else
+        {
+            this.degree = degree;
+            this.minKeyArraySize = (degree % 2 == 0) ? (degree / 2 - 1) : ((degree + 1) / 2 - 1);
+            this.store = new OffHeapNodeStore<>(degree, keySerializer, valueSerializer);
+            this.firstLeaf = store.allocate(true);
+            this.root = firstLeaf;
+        }
+    }
+
+    /**
+     * @return bytes reserved off-heap for nodes
+     */
+    public long offHeapBytes()
+    {
+        return store.reservedBytes();
+    }
+
+    /**
+     * Drops all slabs, for the garbage collector to reclaim, the tree must not be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        store.clear();
+        root = NULL;
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException
+    {
+        int newChild = insert(root, key, value);
+        if (newChild != NULL)
+        {
+            // split root node, create new root node
+            int newRoot = store.allocate(false);
+            store.child(newRoot, 0, root);
+            store.insertInternalEntry(newRoot, 0, getMinKey(newChild), 1, newChild);
+            root = newRoot;
+        }
+    }
+
+    private int insert(int node, K key, V value) throws KeyConflictException
+    {
+        if (store.isLeaf(node))
+        {
+            int pos = store.search(node, key);
+            // found
+            if (pos >= 0)
+            {
+                throw new KeyConflictException(key.toString());
+            }
+            store.insertLeafEntry(node, -(pos + 1), key, value);
+            // need split
+            if (store.keyCount(node) == degree)
+            {
+                return splitLeaf(node);
+            }
+            else
+            {
+                return NULL;
+            }
+        }
+        else // is internal
+        {
+            // a separator may outlive its key after deletion, so conflicts are only decided in the leaf
+            int childPos = store.childPosition(node, key);
+            int newChild = insert(store.child(node, childPos), key, value);
+            if (newChild != NULL)
+            {
+                store.insertInternalEntry(node, childPos, getMinKey(newChild), childPos + 1, newChild);
+                if (store.keyCount(node) == degree)
+                {
+                    return splitInternal(node);
+                }
+            }
+            return NULL;
+        }
+    }
+
+    private int splitLeaf(int leaf)
+    {
+        int medianPos = degree / 2;
+        int moved = store.keyCount(leaf) - medianPos;
+        int newLeaf = store.allocate(true);
+        store.moveKeys(leaf, medianPos, newLeaf, 0, moved);
+        store.moveValues(leaf, medianPos, newLeaf, 0, moved);
+        store.keyCount(newLeaf, moved);
+        store.keyCount(leaf, medianPos);
+        store.next(newLeaf, store.next(leaf));
+        store.next(leaf, newLeaf);
+        return newLeaf;
+    }
+
+    private int splitInternal(int internal)
+    {
+        int medianPos = degree / 2 + 1;
+        int keyCount = store.keyCount(internal);
+        int newInternal = store.allocate(false);
+        store.moveKeys(internal, medianPos, newInternal, 0, keyCount - medianPos);
+        store.moveChildren(internal, medianPos, newInternal, 0, keyCount + 1 - medianPos);
+        store.keyCount(newInternal, keyCount - medianPos);
+        // the key at medianPos - 1 is dropped, the parent takes getMinKey(newInternal) instead
+        store.keyCount(internal, medianPos - 1);
+        return newInternal;
+    }
+
+    private K getMinKey(int node)
+    {
+        while (!store.isLeaf(node))
+        {
+            node = store.child(node, 0);
+        }
+        return store.key(node, 0);
+    }
+
+
+    // Search Methods ==================================================================================================
+
+    @Nullable
+    public V search(K key)
+    {
+        int leaf = findLeaf(key);
+        int pos = store.search(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            return store.value(leaf, pos);
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    public List<V> rangeQuery(K lowerKey, K upperKey)
+    {
+        List<V> result = new ArrayList<>();
+        int leaf = findLeaf(lowerKey);
+        int pos = store.search(leaf, lowerKey);
+        if (pos < 0)
+        {
+            pos = -(pos + 1);
+        }
+        while (leaf != NULL)
+        {
+            int keyCount = store.keyCount(leaf);
+            for (; pos < keyCount; pos ++)
+            {
+                if (store.key(leaf, pos).compareTo(upperKey) > 0)
+                {
+                    return result;
+                }
+                result.add(store.value(leaf, pos));
+            }
+            leaf = store.next(leaf);
+            pos = 0;
+        }
+        return result;
+    }
+
+    private int findLeaf(K key)
+    {
+        int node = root;
+        while (!store.isLeaf(node))
+        {
+            node = store.child(node, store.childPosition(node, key));
+        }
+        return node;
+    }
+
+
+    // Deletion ========================================================================================================
+
+    public void delete(K key)
+    {
+        delete(root, key);
+        if (!store.isLeaf(root) && store.keyCount(root) == 0)
+        {
+            int oldRoot = root;
+            root = store.child(root, 0);
+            store.free(oldRoot);
+        }
+    }
+
+    private boolean delete(int node, K key)
+    {
+        if (store.isLeaf(node))
+        {
+            int keyPos = store.search(node, key);
+            // found
+            if (keyPos >= 0)
+            {
+                store.removeLeafEntry(node, keyPos);
+                return true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        else // is internal
+        {
+            int childPos = store.childPosition(node, key);
+            int child = store.child(node, childPos);
+            boolean success = delete(child, key);
+            // need to adjust nodes
+            if (success && store.keyCount(child) < minKeyArraySize)
+            {
+                adjustNodes(node, child, childPos);
+            }
+            return success;
+        }
+    }
+
+    private void adjustNodes(int parent, int child, int childPos)
+    {
+        boolean hasLeftSibling = childPos > 0;
+        boolean hasRightSibling = childPos < store.keyCount(parent);
+        if (hasLeftSibling && hasExtraKeys(store.child(parent, childPos - 1)))
+        {
+            borrowFromLeft(parent, child, childPos);
+        }
+        else if (hasRightSibling && hasExtraKeys(store.child(parent, childPos + 1)))
+        {
+            borrowFromRight(parent, child, childPos);
+        }
+        else if (hasLeftSibling)
+        {
+            merge(parent, childPos - 1);
+        }
+        else if (hasRightSibling)
+        {
+            merge(parent, childPos);
+        }
+        else
+        {
+            throw new IllegalStateException("Fatal Error - Should not reach here");
+        }
+    }
+
+    private void borrowFromLeft(int parent, int child, int childPos)
+    {
+        int left = store.child(parent, childPos - 1);
+        int last = store.keyCount(left) - 1;
+        if (store.isLeaf(child))
+        {
+            store.insertLeafEntry(child, 0, store.key(left, last), store.value(left, last));
+            store.keyCount(left, last);
+            store.key(parent, childPos - 1, store.key(child, 0));
+        }
+        else // child is internal
+        {
+            store.insertInternalEntry(child, 0, store.key(parent, childPos - 1), 0, store.child(left, last + 1));
+            store.key(parent, childPos - 1, store.key(left, last));
+            store.keyCount(left, last);
+        }
+    }
+
+    private void borrowFromRight(int parent, int child, int childPos)
+    {
+        int right = store.child(parent, childPos + 1);
+        int keyCount = store.keyCount(child);
+        if (store.isLeaf(child))
+        {
+            store.insertLeafEntry(child, keyCount, store.key(right, 0), store.value(right, 0));
+            store.removeLeafEntry(right, 0);
+            store.key(parent, childPos, store.key(right, 0));
+        }
+        else // child is internal
+        {
+            store.insertInternalEntry(child, keyCount, store.key(parent, childPos), keyCount + 1, store.child(right, 0));
+            store.key(parent, childPos, store.key(right, 0));
+            store.removeInternalEntry(right, 0, 0);
+        }
+    }
+
+    /**
+     * Moves everything of the child at keyPos + 1 into the child at keyPos, and removes the separator between them.
+     */
+    private void merge(int parent, int keyPos)
+    {
+        int left = store.child(parent, keyPos);
+        int right = store.child(parent, keyPos + 1);
+        int leftCount = store.keyCount(left);
+        int rightCount = store.keyCount(right);
+        if (store.isLeaf(left))
+        {
+            store.moveKeys(right, 0, left, leftCount, rightCount);
+            store.moveValues(right, 0, left, leftCount, rightCount);
+            store.keyCount(left, leftCount + rightCount);
+            store.next(left, store.next(right)); // remember to update the pointer
+        }
+        else // is internal
+        {
+            store.key(left, leftCount, store.key(parent, keyPos));
+            store.moveKeys(right, 0, left, leftCount + 1, rightCount);
+            store.moveChildren(right, 0, left, leftCount + 1, rightCount + 1);
+            store.keyCount(left, leftCount + rightCount + 1);
+        }
+        store.removeInternalEntry(parent, keyPos, keyPos + 1);
+        store.free(right);
+    }
+
+    private boolean hasExtraKeys(int node)
+    {
+        return store.keyCount(node) > minKeyArraySize;
+    }
+
+
+    // Validation ======================================================================================================
+
+    public boolean validate()
+    {
+        logger.info("Validating ...");
+        if (validate(root, null, null) && validateLeafs())
+        {
+            logger.info("Validation passed");
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the node and its subtree, every key must be in [lower, upper), a null bound is unbounded.
+     */
+    private boolean validate(int node, @Nullable K lower, @Nullable K upper)
+    {
+        int keyCount = store.keyCount(node);
+        if (keyCount >= degree)
+        {
+            logger.info("Validation failed: keyCount >= degree");
+            return false;
+        }
+        else if (node != root && keyCount < minKeyArraySize)
+        {
+            logger.info("Validation failed: keyCount < minKeyArraySize");
+            return false;
+        }
+        K previous = null;
+        for (int i = 0; i < keyCount; i ++)
+        {
+            K key = store.key(node, i);
+            if (previous != null && previous.compareTo(key) >= 0)
+            {
+                logger.info("Validation failed: keys are not in ascending order");
+                return false;
+            }
+            if ((lower != null && key.compareTo(lower) < 0) || (upper != null && key.compareTo(upper) >= 0))
+            {
+                logger.info("Validation failed: key " + key + " is out of the range of its parent");
+                return false;
+            }
+            previous = key;
+        }
+        if (!store.isLeaf(node))
+        {
+            for (int i = 0; i <= keyCount; i ++)
+            {
+                K childLower = i == 0 ? lower : store.key(node, i - 1);
+                K childUpper = i == keyCount ? upper : store.key(node, i);
+                if (!validate(store.child(node, i), childLower, childUpper))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean validateLeafs()
+    {
+        K previous = null;
+        for (int leaf = firstLeaf; leaf != NULL; leaf = store.next(leaf))
+        {
+            int keyCount = store.keyCount(leaf);
+            if (keyCount > 0)
+            {
+                if (previous != null && previous.compareTo(store.key(leaf, 0)) >= 0)
+                {
+                    logger.info("Validation failed: leafs are not in ascending order");
+                    return false;
+                }
+                previous = store.key(leaf, keyCount - 1);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps B+ tree nodes in fixed-size slots of direct (off-heap) buffers. A node is referred to by its slot number, so
+ * children and leaf links are plain ints and the heap only holds the slab references.
+ * <p>
+ * Slot layout: leaf flag (int), key count (int), next leaf (int), keys, then values (leaf) or children (internal).
+ * <p>
+ * Freed slots are reused, slabs are not returned. {@link #clear()} drops them, leaving their memory to the garbage
+ * collector.
+ */
+class OffHeapNodeStore<K extends Comparable<? super K>, V>
+{
+    static final int NULL = -1;
+
+    private static final int SLAB_BYTES = 1 << 24;
+
+    private static final int LEAF_FLAG_OFFSET = 0;
+    private static final int KEY_COUNT_OFFSET = 4;
+    private static final int NEXT_OFFSET = 8;
+    private static final int HEADER_SIZE = 12;
+
+    private final KeySerializer<K> keySerializer;
+    private final ValueSerializer<V> valueSerializer;
+    private final int keySize;
+    private final int valueSize;
+
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final int payloadOffset;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final byte[] scratch;
+    private int allocatedSlots = 0;
+    private int freeSlots = 0;
+    private int freeListHead = NULL;
+
+    OffHeapNodeStore(int degree, KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer)
+    {
+        if (keySerializer.fixedSize() <= 0 || valueSerializer.fixedSize() <= 0)
+        {
+            throw new IllegalArgumentException("Off-heap nodes need fixed-width key and value serializers");
+        }
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.keySize = keySerializer.fixedSize();
+        this.valueSize = valueSerializer.fixedSize();
+        // one extra key slot, the node is split right after it reaches degree keys
+        this.payloadOffset = HEADER_SIZE + degree * keySize;
+        this.slotSize = payloadOffset + Math.max(degree * valueSize, (degree + 1) * Integer.BYTES);
+        this.slotsPerSlab = Math.max(1, SLAB_BYTES / slotSize);
+        this.scratch = new byte[slotSize];
+    }
+
+
+    // Slot Management =================================================================================================
+
+    int allocate(boolean leaf)
+    {
+        int slot;
+        if (freeListHead != NULL)
+        {
+            slot = freeListHead;
+            freeListHead = next(slot);
+            freeSlots --;
+        }
+        else
+        {
+            slot = allocatedSlots ++;
+            if (slot / slotsPerSlab == slabs.size())
+            {
+                slabs.add(ByteBuffer.allocateDirect(slotsPerSlab * slotSize).order(ByteOrder.nativeOrder()));
+            }
+        }
+        ByteBuffer slab = slab(slot);
+        int base = base(slot);
+        slab.putInt(base + LEAF_FLAG_OFFSET, leaf ? 1 : 0);
+        slab.putInt(base + KEY_COUNT_OFFSET, 0);
+        slab.putInt(base + NEXT_OFFSET, NULL);
+        return slot;
+    }
+
+    void free(int slot)
+    {
+        // freed slots are chained through their next field
+        next(slot, freeListHead);
+        freeListHead = slot;
+        freeSlots ++;
+    }
+
+    int usedSlots()
+    {
+        return allocatedSlots - freeSlots;
+    }
+
+    long reservedBytes()
+    {
+        return (long) slabs.size() * slotsPerSlab * slotSize;
+    }
+
+    void clear()
+    {
+        slabs.clear();
+        allocatedSlots = 0;
+        freeSlots = 0;
+        freeListHead = NULL;
+    }
+
+    private ByteBuffer slab(int slot)
+    {
+        return slabs.get(slot / slotsPerSlab);
+    }
+
+    private int base(int slot)
+    {
+        return (slot % slotsPerSlab) * slotSize;
+    }
+
+
+    // Header ==========================================================================================================
+
+    boolean isLeaf(int slot)
+    {
+        return slab(slot).getInt(base(slot) + LEAF_FLAG_OFFSET) != 0;
+    }
+
+    int keyCount(int slot)
+    {
+        return slab(slot).getInt(base(slot) + KEY_COUNT_OFFSET);
+    }
+
+    void keyCount(int slot, int keyCount)
+    {
+        slab(slot).putInt(base(slot) + KEY_COUNT_OFFSET, keyCount);
+    }
+
+    int next(int slot)
+    {
+        return slab(slot).getInt(base(slot) + NEXT_OFFSET);
+    }
+
+    void next(int slot, int next)
+    {
+        slab(slot).putInt(base(slot) + NEXT_OFFSET, next);
+    }
+
+
+    // Entries =========================================================================================================
+
+    K key(int slot, int pos)
+    {
+        return keySerializer.read(slab(slot), base(slot) + HEADER_SIZE + pos * keySize);
+    }
+
+    void key(int slot, int pos, K key)
+    {
+        keySerializer.write(slab(slot), base(slot) + HEADER_SIZE + pos * keySize, key);
+    }
+
+    V value(int slot, int pos)
+    {
+        return valueSerializer.read(slab(slot), base(slot) + payloadOffset + pos * valueSize);
+    }
+
+    void value(int slot, int pos, V value)
+    {
+        valueSerializer.write(slab(slot), base(slot) + payloadOffset + pos * valueSize, value);
+    }
+
+    int child(int slot, int pos)
+    {
+        return slab(slot).getInt(base(slot) + payloadOffset + pos * Integer.BYTES);
+    }
+
+    void child(int slot, int pos, int child)
+    {
+        slab(slot).putInt(base(slot) + payloadOffset + pos * Integer.BYTES, child);
+    }
+
+    /**
+     * Same contract as {@link java.util.Arrays#binarySearch(Object[], int, int, Object)}.
+     */
+    int search(int slot, K key)
+    {
+        int low = 0;
+        int high = keyCount(slot) - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int compareResult = key(slot, mid).compareTo(key);
+            if (compareResult < 0)
+            {
+                low = mid + 1;
+            }
+            else if (compareResult > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    int childPosition(int slot, K key)
+    {
+        int keyPos = search(slot, key);
+        // when is found in internal, childPos = keyPos + 1
+        return keyPos >= 0 ? keyPos + 1 : -(keyPos + 1);
+    }
+
+
+    // Moving ==========================================================================================================
+
+    void moveKeys(int fromSlot, int fromPos, int toSlot, int toPos, int count)
+    {
+        move(fromSlot, HEADER_SIZE + fromPos * keySize, toSlot, HEADER_SIZE + toPos * keySize, count * keySize);
+    }
+
+    void moveValues(int fromSlot, int fromPos, int toSlot, int toPos, int count)
+    {
+        move(fromSlot, payloadOffset + fromPos * valueSize, toSlot, payloadOffset + toPos * valueSize, count * valueSize);
+    }
+
+    void moveChildren(int fromSlot, int fromPos, int toSlot, int toPos, int count)
+    {
+        move(fromSlot, payloadOffset + fromPos * Integer.BYTES, toSlot, payloadOffset + toPos * Integer.BYTES,
+                count * Integer.BYTES);
+    }
+
+    private void move(int fromSlot, int fromOffset, int toSlot, int toOffset, int length)
+    {
+        if (length > 0)
+        {
+            // copy through the scratch array, so overlapping ranges in the same slot are handled
+            slab(fromSlot).get(base(fromSlot) + fromOffset, scratch, 0, length);
+            slab(toSlot).put(base(toSlot) + toOffset, scratch, 0, length);
+        }
+    }
+
+    void insertLeafEntry(int leaf, int pos, K key, V value)
+    {
+        int keyCount = keyCount(leaf);
+        moveKeys(leaf, pos, leaf, pos + 1, keyCount - pos);
+        moveValues(leaf, pos, leaf, pos + 1, keyCount - pos);
+        key(leaf, pos, key);
+        value(leaf, pos, value);
+        keyCount(leaf, keyCount + 1);
+    }
+
+    void removeLeafEntry(int leaf, int pos)
+    {
+        int keyCount = keyCount(leaf);
+        moveKeys(leaf, pos + 1, leaf, pos, keyCount - pos - 1);
+        moveValues(leaf, pos + 1, leaf, pos, keyCount - pos - 1);
+        keyCount(leaf, keyCount - 1);
+    }
+
+    void insertInternalEntry(int internal, int keyPos, K key, int childPos, int child)
+    {
+        int keyCount = keyCount(internal);
+        moveKeys(internal, keyPos, internal, keyPos + 1, keyCount - keyPos);
+        moveChildren(internal, childPos, internal, childPos + 1, keyCount + 1 - childPos);
+        key(internal, keyPos, key);
+        child(internal, childPos, child);
+        keyCount(internal, keyCount + 1);
+    }
+
+    void removeInternalEntry(int internal, int keyPos, int childPos)
+    {
+        int keyCount = keyCount(internal);
+        moveKeys(internal, keyPos + 1, internal, keyPos, keyCount - keyPos - 1);
+        moveChildren(internal, childPos + 1, internal, childPos, keyCount - childPos);
+        keyCount(internal, keyCount - 1);
+    }
+}
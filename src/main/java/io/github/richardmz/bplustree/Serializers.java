@@ -0,0 +1,436 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Built-in serializers, each of them can be used for both keys and values. The variable width ones are self-delimiting,
+ * an item is read back without knowing its length, and work on the buffer directly, without encoding into a temporary
+ * array first.
+ */
+public final class Serializers
+{
+    public static final FixedInt INT = new FixedInt();
+    public static final FixedLong LONG = new FixedLong();
+    public static final FixedDouble DOUBLE = new FixedDouble();
+    public static final VarInt VAR_INT = new VarInt();
+    public static final VarLong VAR_LONG = new VarLong();
+    public static final Utf8String STRING = new Utf8String();
+    public static final Bytes BYTES = new Bytes();
+
+    private Serializers()
+    {
+    }
+
+
+    // Fixed Width =====================================================================================================
+
+    public static final class FixedInt implements KeySerializer<Integer>, ValueSerializer<Integer>
+    {
+        private FixedInt()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public int size(Integer value)
+        {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Integer value)
+        {
+            buffer.putInt(offset, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int offset)
+        {
+            return buffer.getInt(offset);
+        }
+    }
+
+    public static final class FixedLong implements KeySerializer<Long>, ValueSerializer<Long>
+    {
+        private FixedLong()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return Long.BYTES;
+        }
+
+        @Override
+        public int size(Long value)
+        {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Long value)
+        {
+            buffer.putLong(offset, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset)
+        {
+            return buffer.getLong(offset);
+        }
+    }
+
+    public static final class FixedDouble implements KeySerializer<Double>, ValueSerializer<Double>
+    {
+        private FixedDouble()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return Double.BYTES;
+        }
+
+        @Override
+        public int size(Double value)
+        {
+            return Double.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Double value)
+        {
+            buffer.putDouble(offset, value);
+        }
+
+        @Override
+        public Double read(ByteBuffer buffer, int offset)
+        {
+            return buffer.getDouble(offset);
+        }
+    }
+
+
+    // Variable Width ==================================================================================================
+
+    /**
+     * @return the number of bytes of the unsigned LEB128 encoding of the value, 7 bits per byte, low bits first
+     */
+    public static int varLongSize(long value)
+    {
+        int size = 1;
+        while ((value & ~0x7FL) != 0)
+        {
+            value >>>= 7;
+            size ++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the value as unsigned LEB128, a negative one takes 10 bytes, see {@link #zigzag(long)}.
+     *
+     * @return the offset after the encoded value
+     */
+    public static int writeVarLong(ByteBuffer buffer, int offset, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer.put(offset ++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(offset ++, (byte) value);
+        return offset;
+    }
+
+    public static long readVarLong(ByteBuffer buffer, int offset)
+    {
+        long value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = buffer.get(offset ++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return the value with its sign moved to the lowest bit, so that values of small magnitude stay small unsigned
+     */
+    public static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long zigzag)
+    {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Integers of small magnitude, negative ones included thanks to zigzag encoding, in 1 to 5 bytes.
+     */
+    public static final class VarInt implements KeySerializer<Integer>, ValueSerializer<Integer>
+    {
+        private VarInt()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return -1;
+        }
+
+        @Override
+        public int size(Integer value)
+        {
+            return varLongSize(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Integer value)
+        {
+            writeVarLong(buffer, offset, Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int offset)
+        {
+            int zigzag = (int) readVarLong(buffer, offset);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+
+    /**
+     * Longs of small magnitude, negative ones included thanks to zigzag encoding, in 1 to 10 bytes.
+     */
+    public static final class VarLong implements KeySerializer<Long>, ValueSerializer<Long>
+    {
+        private VarLong()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return -1;
+        }
+
+        @Override
+        public int size(Long value)
+        {
+            return varLongSize(zigzag(value));
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Long value)
+        {
+            writeVarLong(buffer, offset, zigzag(value));
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset)
+        {
+            return unzigzag(readVarLong(buffer, offset));
+        }
+    }
+
+    /**
+     * Strings as their UTF-8 byte count followed by the bytes. Unpaired surrogates are written as '?', like
+     * {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    public static final class Utf8String implements KeySerializer<String>, ValueSerializer<String>
+    {
+        private Utf8String()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return -1;
+        }
+
+        @Override
+        public int size(String value)
+        {
+            int length = utf8Length(value);
+            return varLongSize(length) + length;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, String value)
+        {
+            offset = writeVarLong(buffer, offset, utf8Length(value));
+            for (int i = 0; i < value.length(); i ++)
+            {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                {
+                    buffer.put(offset ++, (byte) c);
+                }
+                else if (c < 0x800)
+                {
+                    buffer.put(offset ++, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(offset ++, (byte) (0x80 | (c & 0x3F)));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++ i));
+                    buffer.put(offset ++, (byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put(offset ++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put(offset ++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put(offset ++, (byte) (0x80 | (codePoint & 0x3F)));
+                }
+                else if (Character.isSurrogate(c))
+                {
+                    buffer.put(offset ++, (byte) '?');
+                }
+                else
+                {
+                    buffer.put(offset ++, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(offset ++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(offset ++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        @Override
+        public String read(ByteBuffer buffer, int offset)
+        {
+            int length = (int) readVarLong(buffer, offset);
+            offset += varLongSize(length);
+            if (buffer.hasArray())
+            {
+                return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+            }
+            // direct and mapped buffers have no array to decode from
+            char[] chars = new char[length];
+            int count = 0;
+            for (int end = offset + length; offset < end; )
+            {
+                int b = buffer.get(offset ++) & 0xFF;
+                if (b < 0x80)
+                {
+                    chars[count ++] = (char) b;
+                }
+                else if (b < 0xE0)
+                {
+                    chars[count ++] = (char) (((b & 0x1F) << 6) | (buffer.get(offset ++) & 0x3F));
+                }
+                else if (b < 0xF0)
+                {
+                    chars[count ++] = (char) (((b & 0x0F) << 12) | ((buffer.get(offset ++) & 0x3F) << 6)
+                            | (buffer.get(offset ++) & 0x3F));
+                }
+                else
+                {
+                    int codePoint = ((b & 0x07) << 18) | ((buffer.get(offset ++) & 0x3F) << 12)
+                            | ((buffer.get(offset ++) & 0x3F) << 6) | (buffer.get(offset ++) & 0x3F);
+                    chars[count ++] = Character.highSurrogate(codePoint);
+                    chars[count ++] = Character.lowSurrogate(codePoint);
+                }
+            }
+            return new String(chars, 0, count);
+        }
+
+        private static int utf8Length(String value)
+        {
+            int length = 0;
+            for (int i = 0; i < value.length(); i ++)
+            {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                {
+                    length ++;
+                }
+                else if (c < 0x800)
+                {
+                    length += 2;
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    length += 4;
+                    i ++;
+                }
+                else if (Character.isSurrogate(c))
+                {
+                    length ++;
+                }
+                else
+                {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Byte arrays as their length followed by the bytes. Arrays are not comparable, used as keys they need a
+     * comparator, such as {@link java.util.Arrays#compareUnsigned(byte[], byte[])}.
+     */
+    public static final class Bytes implements KeySerializer<byte[]>, ValueSerializer<byte[]>
+    {
+        private Bytes()
+        {
+        }
+
+        @Override
+        public int fixedSize()
+        {
+            return -1;
+        }
+
+        @Override
+        public int size(byte[] value)
+        {
+            return varLongSize(value.length) + value.length;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, byte[] value)
+        {
+            offset = writeVarLong(buffer, offset, value.length);
+            buffer.put(offset, value);
+        }
+
+        @Override
+        public byte[] read(ByteBuffer buffer, int offset)
+        {
+            int length = (int) readVarLong(buffer, offset);
+            byte[] value = new byte[length];
+            buffer.get(offset + varLongSize(length), value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,602 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Range-partitions the key space over independent {@link BPlusTree} shards. Each shard is only ever touched by its own
+ * single-threaded executor, so shards need no locking and work in parallel. A boundary table routes every key to the
+ * shard covering it: shard i holds the keys in [boundaries[i - 1], boundaries[i]). Point operations run on one shard,
+ * range queries fan out to all shards they overlap and concatenate the results in order.
+ * <p>
+ * The table can change online, by {@link #splitShard(int)}, {@link #moveBoundary(int, Object)} or
+ * {@link #rebalance()}. The table is never changed in place but replaced, so routing takes no lock. A change waits for
+ * the operations queued on the shards it touches and holds back only these shards meanwhile. An operation that finds
+ * the table replaced when it is about to run on its shard is routed again.
+ */
+public class ShardedBPlusTree<K, V> implements AutoCloseable
+{
+    // fill factor of the trees rebuilt by a split, leaves room for the inserts that made the shard hot
+    private static final double SPLIT_FILL_FACTOR = 0.75;
+
+    private final Logger logger = Logger.getInstance();
+    private final int degree;
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    // replaced as a whole by a change of the boundaries, which are serialized by the tree's lock
+    private volatile RoutingTable<K, V> table;
+
+    private static final class Shard<K, V>
+    {
+        final BPlusTree<K, V> tree;
+        final ExecutorService executor;
+
+        Shard(BPlusTree<K, V> tree, ExecutorService executor)
+        {
+            this.tree = tree;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Boundaries and shards, never changed once published.
+     */
+    private static final class RoutingTable<K, V>
+    {
+        final List<K> boundaries;
+        final List<Shard<K, V>> shards;
+
+        RoutingTable(List<K> boundaries, List<Shard<K, V>> shards)
+        {
+            this.boundaries = boundaries;
+            this.shards = shards;
+        }
+    }
+
+    // thrown by an operation that was routed with a table replaced since, to be routed again
+    private static final class StaleRouteException extends RuntimeException
+    {
+        StaleRouteException()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final StaleRouteException STALE_ROUTE = new StaleRouteException();
+
+    /**
+     * Creates boundaries.size() + 1 shards, ordered by the natural ordering of the keys.
+     *
+     * @param boundaries lowest key of every shard but the first, in strictly ascending order
+     */
+    public ShardedBPlusTree(int degree, List<? extends K> boundaries) throws DegreeTooSmallException
+    {
+        this(degree, null, boundaries);
+    }
+
+    /**
+     * Creates boundaries.size() + 1 shards, ordered by the given comparator, or by the natural ordering of the keys if
+     * it is null.
+     *
+     * @param boundaries lowest key of every shard but the first, in strictly ascending order
+     */
+    public ShardedBPlusTree(int degree, @Nullable Comparator<? super K> comparator, List<? extends K> boundaries)
+            throws DegreeTooSmallException
+    {
+        this.degree = degree;
+        this.comparator = comparator;
+        List<K> boundaryList = new ArrayList<>(boundaries);
+        for (int i = 1; i < boundaryList.size(); i ++)
+        {
+            if (compare(boundaryList.get(i - 1), boundaryList.get(i)) >= 0)
+            {
+                throw new IllegalArgumentException("Shard boundaries must be in strictly ascending order");
+            }
+        }
+        List<Shard<K, V>> shards = new ArrayList<>();
+        for (int i = 0; i <= boundaryList.size(); i ++)
+        {
+            shards.add(new Shard<>(new BPlusTree<>(degree, comparator), newExecutor()));
+        }
+        this.table = new RoutingTable<>(boundaryList, shards);
+    }
+
+    private ExecutorService newExecutor()
+    {
+        return Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "bplustree-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int shardCount()
+    {
+        return table.shards.size();
+    }
+
+    /**
+     * @return a copy of the current boundary table
+     */
+    public List<K> boundaries()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(table.boundaries));
+    }
+
+    /**
+     * @return number of entries over all shards
+     */
+    public int size()
+    {
+        while (true)
+        {
+            RoutingTable<K, V> routed = table;
+            try
+            {
+                List<CompletableFuture<Integer>> sizes = new ArrayList<>();
+                for (Shard<K, V> shard : routed.shards)
+                {
+                    sizes.add(submit(routed, shard, BPlusTree::size));
+                }
+                int size = 0;
+                for (CompletableFuture<Integer> shardSize : sizes)
+                {
+                    size += join(shardSize);
+                }
+                return size;
+            }
+            catch (StaleRouteException e)
+            {
+                // the table changed meanwhile, count again
+            }
+        }
+    }
+
+    /**
+     * Stops the executors of all shards, waiting for nothing.
+     */
+    @Override
+    public synchronized void close()
+    {
+        for (Shard<K, V> shard : table.shards)
+        {
+            shard.executor.shutdown();
+        }
+    }
+
+
+    // Routing =========================================================================================================
+
+    @SuppressWarnings("unchecked")
+    private int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    /**
+     * @return the index of the shard covering the key, that is the number of boundaries not after it
+     */
+    private int shardIndex(List<K> boundaries, K key)
+    {
+        int low = 0;
+        int high = boundaries.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (compare(boundaries.get(mid), key) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Runs the operation on the shard's executor, unless the table the shard was taken from has been replaced by then,
+     * as the shard may no longer cover the keys it was picked for. The future then fails with a
+     * {@link StaleRouteException}.
+     */
+    private <T> CompletableFuture<T> submit(RoutingTable<K, V> routed, Shard<K, V> shard,
+                                            Function<BPlusTree<K, V>, T> operation)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            // a change parks the shards it touches before replacing the table, so an operation running here sees it
+            if (routed != table)
+            {
+                throw STALE_ROUTE;
+            }
+            return operation.apply(shard.tree);
+        }, shard.executor);
+    }
+
+    /**
+     * Waits for the operation, rethrowing what it threw.
+     */
+    private <T> T join(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            else if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+            else
+            {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the operation on the shard covering the key, routing it again if the table changes before it runs.
+     */
+    private <T> T route(K key, Function<BPlusTree<K, V>, T> operation)
+    {
+        while (true)
+        {
+            RoutingTable<K, V> routed = table;
+            try
+            {
+                return join(submit(routed, routed.shards.get(shardIndex(routed.boundaries, key)), operation));
+            }
+            catch (StaleRouteException e)
+            {
+                // the table changed meanwhile, route again
+            }
+        }
+    }
+
+    /**
+     * Parks the executors of the shards once the operations queued on them are done, so that the shards can be read
+     * and changed by the calling thread, until the returned future is completed.
+     */
+    private CompletableFuture<Void> park(List<Shard<K, V>> shards)
+    {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        List<CompletableFuture<Void>> parked = new ArrayList<>();
+        for (Shard<K, V> shard : shards)
+        {
+            CompletableFuture<Void> shardParked = new CompletableFuture<>();
+            shard.executor.execute(() ->
+            {
+                shardParked.complete(null);
+                release.join();
+            });
+            parked.add(shardParked);
+        }
+        for (CompletableFuture<Void> shardParked : parked)
+        {
+            shardParked.join();
+        }
+        return release;
+    }
+
+
+    // Point Operations ================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException
+    {
+        if (putIfAbsent(key, value) != null)
+        {
+            throw new KeyConflictException(key.toString());
+        }
+    }
+
+    /**
+     * @see BPlusTree#put(Object, Object)
+     */
+    @Nullable
+    public V put(K key, V value)
+    {
+        return route(key, tree -> tree.put(key, value));
+    }
+
+    /**
+     * @see BPlusTree#putIfAbsent(Object, Object)
+     */
+    @Nullable
+    public V putIfAbsent(K key, V value)
+    {
+        return route(key, tree -> tree.putIfAbsent(key, value));
+    }
+
+    @Nullable
+    public V search(K key)
+    {
+        return route(key, tree -> tree.search(key));
+    }
+
+    public void delete(K key)
+    {
+        route(key, tree ->
+        {
+            tree.delete(key);
+            return null;
+        });
+    }
+
+
+    // Range Queries ===================================================================================================
+
+    /**
+     * @return values of all keys in [lowerKey, upperKey], in key order
+     */
+    public List<V> rangeQuery(K lowerKey, K upperKey)
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * Queries every shard overlapping the range in parallel, then concatenates their results in shard order.
+     *
+     * @return values of all keys between lowerKey and upperKey, in key order, each bound is included only if asked
+     */
+    public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+    {
+        if (compare(lowerKey, upperKey) > 0)
+        {
+            return new ArrayList<>();
+        }
+        while (true)
+        {
+            RoutingTable<K, V> routed = table;
+            try
+            {
+                int first = shardIndex(routed.boundaries, lowerKey);
+                int last = shardIndex(routed.boundaries, upperKey);
+                List<CompletableFuture<List<V>>> parts = new ArrayList<>();
+                for (int i = first; i <= last; i ++)
+                {
+                    parts.add(submit(routed, routed.shards.get(i), tree -> tree.rangeQuery(lowerKey, lowerInclusive,
+                                                                                         upperKey, upperInclusive)));
+                }
+                List<V> result = new ArrayList<>();
+                for (CompletableFuture<List<V>> part : parts)
+                {
+                    result.addAll(join(part));
+                }
+                return result;
+            }
+            catch (StaleRouteException e)
+            {
+                // the table changed meanwhile, query again
+            }
+        }
+    }
+
+
+    // Rebalancing =====================================================================================================
+
+    /**
+     * Splits the shard at its median key into two shards, each with its own executor. Holds back the operations on
+     * that shard only.
+     *
+     * @return false if the shard holds too few entries to split
+     */
+    public synchronized boolean splitShard(int index)
+    {
+        RoutingTable<K, V> current = table;
+        Shard<K, V> shard = current.shards.get(index);
+        CompletableFuture<Void> release = park(Collections.singletonList(shard));
+        try
+        {
+            // nothing runs on the shard, its tree can be read from here
+            BPlusTree<K, V> tree = shard.tree;
+            int size = tree.size();
+            if (size < 2)
+            {
+                return false;
+            }
+            BulkLoader<K, V> lowerLoader = new BulkLoader<>(new BPlusTree<>(degree, comparator), SPLIT_FILL_FACTOR);
+            BulkLoader<K, V> upperLoader = new BulkLoader<>(new BPlusTree<>(degree, comparator), SPLIT_FILL_FACTOR);
+            K median = null;
+            int count = 0;
+            for (Map.Entry<K, V> entry : tree)
+            {
+                if (count < size / 2)
+                {
+                    lowerLoader.add(entry.getKey(), entry.getValue());
+                }
+                else
+                {
+                    if (count == size / 2)
+                    {
+                        median = entry.getKey();
+                    }
+                    upperLoader.add(entry.getKey(), entry.getValue());
+                }
+                count ++;
+            }
+            List<K> boundaries = new ArrayList<>(current.boundaries);
+            boundaries.add(index, median);
+            List<Shard<K, V>> shards = new ArrayList<>(current.shards);
+            shards.set(index, new Shard<>(lowerLoader.build(), shard.executor));
+            shards.add(index + 1, new Shard<>(upperLoader.build(), newExecutor()));
+            table = new RoutingTable<>(boundaries, shards);
+//            logger.debug("Split shard " + index + " at " + median);
+            return true;
+        }
+        catch (DegreeTooSmallException e)
+        {
+            // the degree was accepted when the first shards were created
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            release.complete(null);
+        }
+    }
+
+    /**
+     * Moves the boundary between shard index and shard index + 1 to the given key, migrating the entries in between.
+     * Holds back the operations on these two shards only.
+     *
+     * @throws IllegalArgumentException if the key is not strictly between the neighbouring boundaries
+     */
+    public synchronized void moveBoundary(int index, K boundary)
+    {
+        RoutingTable<K, V> current = table;
+        if ((index > 0 && compare(boundary, current.boundaries.get(index - 1)) <= 0)
+                || (index + 1 < current.boundaries.size() && compare(boundary, current.boundaries.get(index + 1)) >= 0))
+        {
+            throw new IllegalArgumentException(String.format("Boundary [%s] is out of the range of boundary %d",
+                                                             boundary, index));
+        }
+        CompletableFuture<Void> release = park(current.shards.subList(index, index + 2));
+        try
+        {
+            List<K> boundaries = new ArrayList<>(current.boundaries);
+            moveBoundary(boundaries, current.shards, index, boundary);
+            table = new RoutingTable<>(boundaries, current.shards);
+        }
+        finally
+        {
+            release.complete(null);
+        }
+    }
+
+    /**
+     * Evens out every pair of neighbouring shards where one holds more than twice as many entries as the other, by
+     * moving their boundary. A hot shard hands entries to both neighbours, repeated calls spread them further. Use
+     * {@link #splitShard(int)} to add shards instead. Holds back the operations on all shards.
+     */
+    public synchronized void rebalance()
+    {
+        RoutingTable<K, V> current = table;
+        CompletableFuture<Void> release = park(current.shards);
+        try
+        {
+            List<K> boundaries = new ArrayList<>(current.boundaries);
+            for (int i = 0; i + 1 < current.shards.size(); i ++)
+            {
+                BPlusTree<K, V> left = current.shards.get(i).tree;
+                BPlusTree<K, V> right = current.shards.get(i + 1).tree;
+                // small shards are left alone, they are not worth the churn
+                if (Math.max(left.size(), right.size()) <= 2 * Math.min(left.size(), right.size()) + degree)
+                {
+                    continue;
+                }
+                int half = (left.size() + right.size()) / 2;
+                K boundary = left.size() > right.size() ? keyAt(left, half) : keyAt(right, half - left.size());
+                moveBoundary(boundaries, current.shards, i, boundary);
+            }
+            table = new RoutingTable<>(boundaries, current.shards);
+        }
+        finally
+        {
+            release.complete(null);
+        }
+    }
+
+    private K keyAt(BPlusTree<K, V> tree, int pos)
+    {
+        Iterator<Map.Entry<K, V>> iterator = tree.iterator();
+        for (int i = 0; i < pos; i ++)
+        {
+            iterator.next();
+        }
+        return iterator.next().getKey();
+    }
+
+    /**
+     * Migrates the entries between the two shards and sets the boundary in the given copy of the table's boundaries,
+     * the shards being parked.
+     */
+    private void moveBoundary(List<K> boundaries, List<Shard<K, V>> shards, int index, K boundary)
+    {
+        K oldBoundary = boundaries.get(index);
+        BPlusTree<K, V> left = shards.get(index).tree;
+        BPlusTree<K, V> right = shards.get(index + 1).tree;
+        if (compare(boundary, oldBoundary) < 0)
+        {
+            migrate(left, right, boundary, oldBoundary);
+        }
+        else
+        {
+            migrate(right, left, oldBoundary, boundary);
+        }
+        boundaries.set(index, boundary);
+//        logger.debug("Moved boundary " + index + " from " + oldBoundary + " to " + boundary);
+    }
+
+    /**
+     * Moves the entries of keys in [lowerKey, upperKey) from one tree to the other.
+     */
+    private void migrate(BPlusTree<K, V> from, BPlusTree<K, V> to, K lowerKey, K upperKey)
+    {
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        Iterator<Map.Entry<K, V>> iterator = from.iterator(lowerKey);
+        while (iterator.hasNext())
+        {
+            Map.Entry<K, V> entry = iterator.next();
+            if (compare(entry.getKey(), upperKey) >= 0)
+            {
+                break;
+            }
+            entries.add(entry);
+        }
+        for (Map.Entry<K, V> entry : entries)
+        {
+            from.delete(entry.getKey());
+        }
+        try
+        {
+            // sorted, so the batch insert only climbs as far as needed between keys
+            to.insertAll(entries.iterator());
+        }
+        catch (KeyConflictException e)
+        {
+            // shards never share keys
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the entries of a {@link BPlusTree} in key order, encoded by serializers, and reads them back into a
+ * {@link BulkLoader}. Only one frame is buffered on either side, so memory stays constant whatever the tree size.
+ * <p>
+ * Stream layout: magic (int), version (int), then frames. A frame is its entry count (int), payload length (int),
+ * CRC32 of the payload (int), then the payload, the keys and values back to back. The last frame has no entries, its
+ * payload is the total entry count (long), so that a truncated stream is told apart from a complete one.
+ */
+final class SnapshotFormat
+{
+    private static final int MAGIC = 0x42505453; // "BPTS"
+    private static final int VERSION = 1;
+
+    private static final int FRAME_HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int FRAME_PAYLOAD_SIZE = 64 * 1024;
+    // bound on the payload of a frame read back, as it is allocated before its checksum can be verified
+    private static final int MAX_FRAME_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    private SnapshotFormat()
+    {
+    }
+
+    /**
+     * Writes the entries of the tree. Steps through its leaves with {@link BPlusTree#nextLeaf(LeafNode)}, as the chain
+     * of a snapshot is shared with the live tree and goes on changing with it.
+     */
+    static <K, V> void write(BPlusTree<K, V> tree, WritableByteChannel channel, KeySerializer<K> keySerializer,
+                             ValueSerializer<V> valueSerializer) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(channel, header);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + FRAME_PAYLOAD_SIZE);
+        CRC32 crc = new CRC32();
+        int offset = FRAME_HEADER_SIZE;
+        int count = 0;
+        long total = 0;
+        for (LeafNode<K, V> leaf = tree.firstLeaf(); leaf != null; leaf = tree.nextLeaf(leaf))
+        {
+            for (int i = 0; i < leaf.keyCount; i ++)
+            {
+                K key = leaf.keyAt(i);
+                V value = leaf.values[i];
+                int size = keySerializer.size(key) + valueSerializer.size(value);
+                if (size > MAX_FRAME_PAYLOAD_SIZE)
+                {
+                    throw new IOException("Entry of " + size + " bytes is too large for a tree snapshot");
+                }
+                if (offset + size > frame.capacity())
+                {
+                    if (count > 0)
+                    {
+                        writeFrame(channel, frame, offset, count, crc);
+                        offset = FRAME_HEADER_SIZE;
+                        count = 0;
+                    }
+                    if (FRAME_HEADER_SIZE + size > frame.capacity())
+                    {
+                        // an entry larger than a frame gets a frame of its own
+                        frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + size);
+                    }
+                }
+                keySerializer.write(frame, offset, key);
+                valueSerializer.write(frame, offset + keySerializer.size(key), value);
+                offset += size;
+                count ++;
+                total ++;
+            }
+        }
+        if (count > 0)
+        {
+            writeFrame(channel, frame, offset, count, crc);
+        }
+        frame.putLong(FRAME_HEADER_SIZE, total);
+        writeFrame(channel, frame, FRAME_HEADER_SIZE + Long.BYTES, 0, crc);
+    }
+
+    private static void writeFrame(WritableByteChannel channel, ByteBuffer frame, int end, int count, CRC32 crc)
+            throws IOException
+    {
+        int payloadLength = end - FRAME_HEADER_SIZE;
+        crc.reset();
+        crc.update(frame.array(), FRAME_HEADER_SIZE, payloadLength);
+        frame.putInt(0, count);
+        frame.putInt(Integer.BYTES, payloadLength);
+        frame.putInt(2 * Integer.BYTES, (int) crc.getValue());
+        frame.clear().limit(end);
+        writeFully(channel, frame);
+        frame.clear();
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Adds every entry of the stream to the loader, up to the last frame.
+     *
+     * @throws IOException if the stream is no snapshot, is corrupt or ends early
+     */
+    static <K, V> void read(ReadableByteChannel channel, BulkLoader<K, V> loader, KeySerializer<K> keySerializer,
+                            ValueSerializer<V> valueSerializer) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        readFully(channel, header);
+        if (header.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a tree snapshot");
+        }
+        if (header.getInt(Integer.BYTES) != VERSION)
+        {
+            throw new IOException("Unsupported tree snapshot version " + header.getInt(Integer.BYTES));
+        }
+        ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocate(FRAME_PAYLOAD_SIZE);
+        CRC32 crc = new CRC32();
+        long total = 0;
+        while (true)
+        {
+            frameHeader.clear();
+            readFully(channel, frameHeader);
+            int count = frameHeader.getInt(0);
+            int payloadLength = frameHeader.getInt(Integer.BYTES);
+            if (count < 0 || payloadLength < 0 || payloadLength > MAX_FRAME_PAYLOAD_SIZE || count > payloadLength)
+            {
+                throw new IOException("Corrupt tree snapshot frame after " + total + " entries");
+            }
+            if (payloadLength > payload.capacity())
+            {
+                payload = ByteBuffer.allocate(payloadLength);
+            }
+            payload.clear().limit(payloadLength);
+            readFully(channel, payload);
+            crc.reset();
+            crc.update(payload.array(), 0, payloadLength);
+            if ((int) crc.getValue() != frameHeader.getInt(2 * Integer.BYTES))
+            {
+                throw new IOException("Checksum mismatch in tree snapshot frame after " + total + " entries");
+            }
+            if (count == 0)
+            {
+                if (payloadLength != Long.BYTES || payload.getLong(0) != total)
+                {
+                    throw new IOException("Tree snapshot ends after " + total + " entries, not as many as written");
+                }
+                return;
+            }
+            int offset = 0;
+            for (int i = 0; i < count; i ++)
+            {
+                K key = keySerializer.read(payload, offset);
+                offset += keySerializer.size(key);
+                V value = valueSerializer.read(payload, offset);
+                offset += valueSerializer.size(value);
+                loader.add(key, value);
+            }
+            total += count;
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new EOFException("Tree snapshot ends early");
+            }
+        }
+    }
+}
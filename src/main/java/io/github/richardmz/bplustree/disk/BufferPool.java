@@ -0,0 +1,354 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches decoded nodes in a fixed number of frames, so that a page is decoded once while it stays in use, and memory
+ * stays bounded whatever the size of the file. A node handed out by {@link #fetch(int)} or {@link #create(boolean)} is
+ * pinned, and cannot be evicted until unpinned as often. A changed node must be marked dirty while still pinned, it is
+ * encoded and handed to the {@link PageWriter} when evicted, once the log is durable up to the node's LSN (write-ahead
+ * rule), or written by a checkpoint, which takes its image with {@link #snapshotDirty()}. Until the checkpoint has written the image, see
+ * {@link #checkpointDone()}, the node stays in its frame, so that no older image can be written after a newer one.
+ * <p>
+ * Internal nodes are kept once loaded unless asked otherwise: they are few, and every lookup goes through them.
+ */
+final class BufferPool<K, V>
+{
+    /**
+     * Blocks until the log is durable up to the LSN.
+     */
+    interface WriteAheadRule
+    {
+        void awaitDurable(long lsn) throws IOException;
+    }
+
+    /**
+     * Writes the image of an evicted node to its page, so that a crash cannot leave the page torn.
+     */
+    interface PageWriter
+    {
+        void write(int pageId, ByteBuffer image) throws IOException;
+    }
+
+    private final PageFile file;
+    private final NodeFormat<K, V> format;
+    private final EvictionPolicy policy;
+    private final boolean keepInternalNodes;
+    private final WriteAheadRule writeAheadRule;
+    private final PageWriter pageWriter;
+
+    private final List<DiskNode<K, V>> nodes;
+    private final int[] pinCounts;
+    private final boolean[] dirty;
+    // clean, but the image is still being written by a checkpoint
+    private final boolean[] inFlight;
+    private final Map<Integer, Integer> frameOfPage = new HashMap<>();
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    // freed while in flight, returned to the file once the image is written, so that no newer node can be written first
+    private final List<Integer> freedInFlight = new ArrayList<>();
+    private int dirtyCount = 0;
+    private int inFlightCount = 0;
+    // frames that cannot be evicted even once unpinned
+    private int heldCount = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    BufferPool(PageFile file, NodeFormat<K, V> format, int frameCount, EvictionPolicy policy,
+               boolean keepInternalNodes, WriteAheadRule writeAheadRule, PageWriter pageWriter)
+    {
+        this.file = file;
+        this.format = format;
+        this.policy = policy;
+        this.keepInternalNodes = keepInternalNodes;
+        this.writeAheadRule = writeAheadRule;
+        this.pageWriter = pageWriter;
+        this.nodes = new ArrayList<>(frameCount);
+        this.pinCounts = new int[frameCount];
+        this.dirty = new boolean[frameCount];
+        this.inFlight = new boolean[frameCount];
+        for (int frame = 0; frame < frameCount; frame ++)
+        {
+            nodes.add(null);
+            freeFrames.add(frame);
+        }
+        policy.init(frameCount);
+    }
+
+    int frameCount()
+    {
+        return pinCounts.length;
+    }
+
+    int dirtyCount()
+    {
+        return dirtyCount;
+    }
+
+    int inFlightCount()
+    {
+        return inFlightCount;
+    }
+
+    /**
+     * @return the number of frames that are free or can be evicted once their nodes are unpinned
+     */
+    int availableCount()
+    {
+        return pinCounts.length - heldCount;
+    }
+
+    long hitCount()
+    {
+        return hitCount;
+    }
+
+    long missCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * @return the pinned node of the page, loaded into a frame first if not there yet
+     */
+    DiskNode<K, V> fetch(int pageId) throws IOException
+    {
+        Integer frame = frameOfPage.get(pageId);
+        if (frame != null)
+        {
+            hitCount ++;
+            pinCounts[frame] ++;
+            policy.accessed(frame, pageId, true);
+            return nodes.get(frame);
+        }
+        missCount ++;
+        int newFrame = takeFrame();
+        DiskNode<K, V> node = format.read(pageId, file.page(pageId));
+        place(newFrame, node);
+        policy.accessed(newFrame, pageId, false);
+        return node;
+    }
+
+    /**
+     * @return a pinned, dirty and empty node on a newly allocated page
+     */
+    DiskNode<K, V> create(boolean leaf) throws IOException
+    {
+        int frame = takeFrame();
+        DiskNode<K, V> node = new DiskNode<>(file.allocate(), leaf);
+        place(frame, node);
+        setDirty(frame);
+        policy.accessed(frame, node.pageId, false);
+        return node;
+    }
+
+    void unpin(DiskNode<K, V> node)
+    {
+        Integer frame = frameOfPage.get(node.pageId);
+        // a freed node is gone from its frame already
+        if (frame != null && nodes.get(frame) == node)
+        {
+            pinCounts[frame] --;
+        }
+    }
+
+    void markDirty(DiskNode<K, V> node)
+    {
+        Integer frame = frameOfPage.get(node.pageId);
+        if (frame == null || nodes.get(frame) != node)
+        {
+            throw new IllegalStateException("Node " + node + " was changed while not pinned");
+        }
+        setDirty(frame);
+    }
+
+    /**
+     * Drops the node from its frame, pinned or not, and returns its page to the file.
+     */
+    void free(DiskNode<K, V> node)
+    {
+        Integer frame = frameOfPage.remove(node.pageId);
+        if (frame != null && inFlight[frame])
+        {
+            freedInFlight.add(node.pageId);
+        }
+        else
+        {
+            file.free(node.pageId);
+        }
+        if (frame != null)
+        {
+            policy.removed(frame, node.pageId);
+            clear(frame);
+        }
+    }
+
+    /**
+     * Encodes every dirty node, which then counts as clean but stays in its frame until {@link #checkpointDone()}.
+     *
+     * @return the images by page id, for the caller to write
+     */
+    Map<Integer, ByteBuffer> snapshotDirty()
+    {
+        Map<Integer, ByteBuffer> images = new HashMap<>();
+        for (int frame = 0; frame < dirty.length; frame ++)
+        {
+            if (dirty[frame])
+            {
+                DiskNode<K, V> node = nodes.get(frame);
+                ByteBuffer image = ByteBuffer.allocate(file.pageSize());
+                format.write(node, image);
+                images.put(node.pageId, image);
+                dirty[frame] = false;
+                dirtyCount --;
+                if (!inFlight[frame])
+                {
+                    boolean wasHeld = held(frame);
+                    inFlight[frame] = true;
+                    inFlightCount ++;
+                    updateHeld(frame, wasHeld);
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * The images of the last {@link #snapshotDirty()} are in place, their frames may be evicted.
+     */
+    void checkpointDone()
+    {
+        for (int frame = 0; frame < inFlight.length; frame ++)
+        {
+            if (inFlight[frame])
+            {
+                boolean wasHeld = held(frame);
+                inFlight[frame] = false;
+                updateHeld(frame, wasHeld);
+            }
+        }
+        inFlightCount = 0;
+        for (int pageId : freedInFlight)
+        {
+            file.free(pageId);
+        }
+        freedInFlight.clear();
+    }
+
+    private void place(int frame, DiskNode<K, V> node)
+    {
+        nodes.set(frame, node);
+        updateHeld(frame, false);
+        pinCounts[frame] = 1;
+        frameOfPage.put(node.pageId, frame);
+    }
+
+    private void setDirty(int frame)
+    {
+        if (!dirty[frame])
+        {
+            boolean wasHeld = held(frame);
+            dirty[frame] = true;
+            dirtyCount ++;
+            updateHeld(frame, wasHeld);
+        }
+    }
+
+    private boolean held(int frame)
+    {
+        DiskNode<K, V> node = nodes.get(frame);
+        return node != null && (inFlight[frame] || (!node.leaf && keepInternalNodes));
+    }
+
+    private void updateHeld(int frame, boolean wasHeld)
+    {
+        if (held(frame) != wasHeld)
+        {
+            heldCount += wasHeld ? -1 : 1;
+        }
+    }
+
+    private void clear(int frame)
+    {
+        if (held(frame))
+        {
+            heldCount --;
+        }
+        if (dirty[frame])
+        {
+            dirty[frame] = false;
+            dirtyCount --;
+        }
+        if (inFlight[frame])
+        {
+            inFlight[frame] = false;
+            inFlightCount --;
+        }
+        nodes.set(frame, null);
+        pinCounts[frame] = 0;
+        freeFrames.add(frame);
+    }
+
+    private boolean evictable(int frame)
+    {
+        DiskNode<K, V> node = nodes.get(frame);
+        return node != null && pinCounts[frame] == 0 && !inFlight[frame] && (node.leaf || !keepInternalNodes);
+    }
+
+    private void write(int frame) throws IOException
+    {
+        DiskNode<K, V> node = nodes.get(frame);
+        writeAheadRule.awaitDurable(node.lsn);
+        ByteBuffer image = ByteBuffer.allocate(file.pageSize());
+        format.write(node, image);
+        pageWriter.write(node.pageId, image);
+        dirty[frame] = false;
+        dirtyCount --;
+    }
+
+    /**
+     * @return a free frame, emptied by evicting a node if needed
+     */
+    private int takeFrame() throws IOException
+    {
+        if (freeFrames.isEmpty())
+        {
+            int victim = policy.victim(this::evictable);
+            if (victim < 0)
+            {
+                throw new IllegalStateException("All " + pinCounts.length + " frames are pinned, in flight or kept");
+            }
+            if (dirty[victim])
+            {
+                write(victim);
+            }
+            DiskNode<K, V> node = nodes.get(victim);
+            frameOfPage.remove(node.pageId);
+            policy.removed(victim, node.pageId);
+            clear(victim);
+        }
+        return freeFrames.poll();
+    }
+}
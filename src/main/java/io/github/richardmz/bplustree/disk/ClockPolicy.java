@@ -0,0 +1,69 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Second-chance eviction: a hand sweeps over the frames, clearing the reference bit of every frame it passes, and
+ * stops at the first frame accessed since the hand last came by. Cheap on hits, only a bit is set.
+ */
+public class ClockPolicy implements EvictionPolicy
+{
+    private boolean[] referenced;
+    private int hand = 0;
+
+    @Override
+    public void init(int frameCount)
+    {
+        referenced = new boolean[frameCount];
+    }
+
+    @Override
+    public void accessed(int frame, int pageId, boolean hit)
+    {
+        referenced[frame] = true;
+    }
+
+    @Override
+    public void removed(int frame, int pageId)
+    {
+        referenced[frame] = false;
+    }
+
+    @Override
+    public int victim(IntPredicate evictable)
+    {
+        // the first round may only clear bits, the second finds any evictable frame
+        for (int i = 0; i < 2 * referenced.length; i ++)
+        {
+            int frame = hand;
+            hand = (hand + 1) % referenced.length;
+            if (evictable.test(frame))
+            {
+                if (referenced[frame])
+                {
+                    referenced[frame] = false;
+                }
+                else
+                {
+                    return frame;
+                }
+            }
+        }
+        return -1;
+    }
+}
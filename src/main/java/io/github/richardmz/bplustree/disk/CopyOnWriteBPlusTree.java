@@ -0,0 +1,1027 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.KeyConflictException;
+import io.github.richardmz.bplustree.KeySerializer;
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.ValueSerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A B+ tree stored in a {@link PageFile} by shadow paging, in the manner of LMDB: a committed page is never written
+ * while it may still be read. A change copies the nodes from the root down to the leaf it touches to new pages, and
+ * {@link #commit()} forces them, then publishes the new root by writing one of two meta pages, taking turns. Each meta
+ * page carries its transaction id and a checksum, and opening the file takes the valid one of the highest id, so a
+ * crash leaves the last commit in place, and there is no log to replay.
+ * <p>
+ * Writers are serialized by the tree's lock, a node copied by the running transaction is changed in place until it
+ * commits. Readers take no lock: a {@link Snapshot} pins the last committed version and decodes its nodes straight from
+ * the mapped file, where nothing it can reach is written. The pages replaced by a commit go back to the free list once
+ * no snapshot of that version or an earlier one is left.
+ * <p>
+ * Leaves are not linked, as a link would have the previous leaf copied along with each leaf, range queries walk down
+ * from the root instead. The free list is kept in memory only, opening the file frees the pages the committed internal
+ * nodes do not reach.
+ */
+public class CopyOnWriteBPlusTree<K, V> implements AutoCloseable
+{
+    // two meta pages follow the one of the page file
+    private static final int FIRST_META_PAGE = PageFile.META_PAGE + 1;
+
+    private static final int MAGIC = 0x42504357; // "BPCW"
+    private static final int MAGIC_OFFSET = 0;
+    private static final int ROOT_OFFSET = 4;
+    private static final int TRANSACTION_ID_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int PAGE_COUNT_OFFSET = 24;
+    private static final int CHECKSUM_OFFSET = 28;
+    private static final int META_SIZE = 32;
+
+    private final Logger logger = Logger.getInstance();
+
+    private final PageFile file;
+    private final NodeFormat<K, V> format;
+    private final int pageSize;
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    // last committed version, read without locking
+    private volatile Version current;
+    // versions replaced by commits, oldest first, their pages not reused yet
+    private final Deque<Version> retiredVersions = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    // root and size as the running transaction sees them
+    private int rootPageId;
+    private long size;
+    // nodes copied or created by the running transaction, written when it commits
+    private final Map<Integer, DiskNode<K, V>> changedNodes = new HashMap<>();
+    // committed pages the running transaction no longer uses
+    private List<Integer> replacedPages = new ArrayList<>();
+
+    // root-to-leaf path of the last descent, pathPositions[i] is the child taken from pathNodes[i]
+    private final List<DiskNode<K, V>> pathNodes = new ArrayList<>();
+    private final List<Integer> pathPositions = new ArrayList<>();
+
+    private CopyOnWriteBPlusTree(Path path, PageFile file, KeySerializer<K> keySerializer,
+                                 ValueSerializer<V> valueSerializer, @Nullable Comparator<? super K> comparator)
+            throws IOException
+    {
+        this.file = file;
+        this.pageSize = file.pageSize();
+        // packing needs buffers of its own, which readers cannot share
+        this.format = new NodeFormat<>(keySerializer, valueSerializer, pageSize, false);
+        this.comparator = comparator;
+        if (file.created())
+        {
+            // the meta pages
+            file.allocate();
+            file.allocate();
+            current = new Version(0, PageFile.NULL, 0);
+            rootPageId = create(true).pageId;
+            size = 0;
+            commit();
+        }
+        else
+        {
+            ByteBuffer meta = lastMeta(path);
+            current = new Version(meta.getLong(TRANSACTION_ID_OFFSET), meta.getInt(ROOT_OFFSET),
+                                  meta.getLong(SIZE_OFFSET));
+            rootPageId = current.rootPageId;
+            size = current.size;
+            file.reset(meta.getInt(PAGE_COUNT_OFFSET));
+            freeUnreachablePages();
+        }
+    }
+
+    /**
+     * Same as {@link #open(Path, int, KeySerializer, ValueSerializer, Comparator)}, ordered by the natural ordering of
+     * the keys.
+     */
+    public static <K, V> CopyOnWriteBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                         ValueSerializer<V> valueSerializer) throws IOException
+    {
+        return open(path, pageSize, keySerializer, valueSerializer, null);
+    }
+
+    /**
+     * Opens the tree committed to the file, or creates an empty one if the file is missing or empty. The file must not
+     * be opened by a {@link DiskBPlusTree}.
+     *
+     * @param pageSize a power of two between 4 and 64 KiB, only used when creating, an existing file keeps its own
+     * @param comparator must be the same ordering every time the file is opened, natural ordering if null
+     */
+    public static <K, V> CopyOnWriteBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                         ValueSerializer<V> valueSerializer,
+                                                         @Nullable Comparator<? super K> comparator)
+            throws IOException
+    {
+        PageFile file = PageFile.open(path, pageSize);
+        try
+        {
+            return new CopyOnWriteBPlusTree<>(path, file, keySerializer, valueSerializer, comparator);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int pageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return number of entries as of the last commit
+     */
+    public long size()
+    {
+        return current.size;
+    }
+
+    /**
+     * @return id of the last commit, counting from 1 for the one creating the file
+     */
+    public long transactionId()
+    {
+        return current.transactionId;
+    }
+
+    /**
+     * Commits the running transaction, then closes the file. Snapshots left open must not be read any more.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        try
+        {
+            commit();
+        }
+        finally
+        {
+            closed = true;
+            file.close();
+        }
+    }
+
+    private void checkOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Tree closed");
+        }
+    }
+
+
+    // Snapshots =======================================================================================================
+
+    /**
+     * A committed version of the tree and the pages it is made of.
+     */
+    private static final class Version
+    {
+        final long transactionId;
+        final int rootPageId;
+        final long size;
+        // snapshots open on this version
+        final AtomicInteger readers = new AtomicInteger();
+        // pages the next version no longer uses, set once it is committed
+        List<Integer> replacedPages = Collections.emptyList();
+
+        Version(long transactionId, int rootPageId, long size)
+        {
+            this.transactionId = transactionId;
+            this.rootPageId = rootPageId;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Pins the last committed version, which stays readable as it is, whatever is committed later, until the snapshot
+     * is closed. Takes no lock.
+     */
+    public Snapshot snapshot()
+    {
+        checkOpen();
+        while (true)
+        {
+            Version version = current;
+            version.readers.incrementAndGet();
+            // a commit in between may have retired the version without seeing this reader, so it may not be read
+            if (version == current)
+            {
+                return new Snapshot(version);
+            }
+            version.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * A committed version of the tree, read without locking. Meant for one thread at a time, any number of them may be
+     * open on the tree at once. Pages are only reused once every snapshot reading them is closed.
+     */
+    public final class Snapshot implements AutoCloseable
+    {
+        private final Version version;
+        private boolean closed = false;
+
+        private Snapshot(Version version)
+        {
+            this.version = version;
+        }
+
+        public long transactionId()
+        {
+            return version.transactionId;
+        }
+
+        /**
+         * @return number of entries in the version
+         */
+        public long size()
+        {
+            return version.size;
+        }
+
+        @Nullable
+        public V search(K key) throws IOException
+        {
+            checkOpen();
+            DiskNode<K, V> node = readCommitted(version.rootPageId);
+            while (!node.leaf)
+            {
+                node = readCommitted(node.children.get(childPosition(node, key)));
+            }
+            int pos = binarySearch(node, key);
+            // found
+            if (pos >= 0)
+            {
+                return node.values.get(pos);
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        /**
+         * @return values of all keys in [lowerKey, upperKey], in key order
+         */
+        public List<V> rangeQuery(K lowerKey, K upperKey) throws IOException
+        {
+            return rangeQuery(lowerKey, true, upperKey, true);
+        }
+
+        /**
+         * @return values of all keys between the bounds, each included or not, in key order
+         */
+        public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+                throws IOException
+        {
+            checkOpen();
+            List<V> result = new ArrayList<>();
+            if (compare(lowerKey, upperKey) <= 0)
+            {
+                collect(version.rootPageId, lowerKey, lowerInclusive, upperKey, upperInclusive, result);
+            }
+            return result;
+        }
+
+        @Override
+        public void close()
+        {
+            if (!closed)
+            {
+                closed = true;
+                version.readers.decrementAndGet();
+            }
+        }
+
+        private void checkOpen()
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("Snapshot closed");
+            }
+        }
+    }
+
+    /**
+     * Same as {@link Snapshot#search(Object)} on a snapshot of the last commit.
+     */
+    @Nullable
+    public V search(K key) throws IOException
+    {
+        try (Snapshot snapshot = snapshot())
+        {
+            return snapshot.search(key);
+        }
+    }
+
+    /**
+     * Same as {@link Snapshot#rangeQuery(Object, Object)} on a snapshot of the last commit.
+     */
+    public List<V> rangeQuery(K lowerKey, K upperKey) throws IOException
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * Same as {@link Snapshot#rangeQuery(Object, boolean, Object, boolean)} on a snapshot of the last commit.
+     */
+    public List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+            throws IOException
+    {
+        try (Snapshot snapshot = snapshot())
+        {
+            return snapshot.rangeQuery(lowerKey, lowerInclusive, upperKey, upperInclusive);
+        }
+    }
+
+    /**
+     * Adds the values of the keys between the bounds under the committed node, in key order.
+     */
+    private void collect(int pageId, K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive,
+                         List<V> result) throws IOException
+    {
+        DiskNode<K, V> node = readCommitted(pageId);
+        if (!node.leaf)
+        {
+            for (int childPos = childPosition(node, lowerKey); childPos < node.children.size(); childPos ++)
+            {
+                collect(node.children.get(childPos), lowerKey, lowerInclusive, upperKey, upperInclusive, result);
+                // the children after a separator beyond the upper key hold greater keys only
+                if (childPos < node.keys.size() && compare(node.keys.get(childPos), upperKey) > 0)
+                {
+                    return;
+                }
+            }
+            return;
+        }
+        int pos = binarySearch(node, lowerKey);
+        if (pos < 0)
+        {
+            pos = -(pos + 1);
+        }
+        else if (!lowerInclusive)
+        {
+            pos ++;
+        }
+        for (; pos < node.keys.size(); pos ++)
+        {
+            int cmp = compare(node.keys.get(pos), upperKey);
+            if (cmp > 0 || (cmp == 0 && !upperInclusive))
+            {
+                return;
+            }
+            result.add(node.values.get(pos));
+        }
+    }
+
+
+    // Transactions ====================================================================================================
+
+    /**
+     * Makes the changes since the last commit durable and visible to new snapshots: forces the pages they wrote, then
+     * writes the meta page of the new version over that of the version before the last and forces it. Does nothing
+     * without changes.
+     */
+    public synchronized void commit() throws IOException
+    {
+        checkOpen();
+        // any change copies the root
+        if (changedNodes.isEmpty())
+        {
+            return;
+        }
+        Version version = current;
+        long transactionId = version.transactionId + 1;
+        for (DiskNode<K, V> node : changedNodes.values())
+        {
+            // the LSN field tells which transaction wrote the page
+            node.lsn = transactionId;
+            format.write(node, file.page(node.pageId));
+        }
+        file.force();
+        writeMeta(transactionId);
+        file.force();
+        version.replacedPages = replacedPages;
+        retiredVersions.addLast(version);
+        current = new Version(transactionId, rootPageId, size);
+        changedNodes.clear();
+        replacedPages = new ArrayList<>();
+        reclaim();
+    }
+
+    /**
+     * Drops the changes since the last commit.
+     */
+    public synchronized void rollback()
+    {
+        checkOpen();
+        for (int pageId : changedNodes.keySet())
+        {
+            file.free(pageId);
+        }
+        changedNodes.clear();
+        replacedPages.clear();
+        rootPageId = current.rootPageId;
+        size = current.size;
+    }
+
+    /**
+     * Hands the pages replaced by commits back to the file, oldest version first, as long as no snapshot reads them.
+     * Pages of a version may be part of earlier ones too, so a version pinned by a snapshot holds back all later ones.
+     */
+    private void reclaim()
+    {
+        while (!retiredVersions.isEmpty() && retiredVersions.peekFirst().readers.get() == 0)
+        {
+            for (int pageId : retiredVersions.removeFirst().replacedPages)
+            {
+                file.free(pageId);
+            }
+        }
+    }
+
+
+    // Meta Pages ======================================================================================================
+
+    private static int metaPageId(long transactionId)
+    {
+        return FIRST_META_PAGE + (int) (transactionId & 1);
+    }
+
+    /**
+     * Writes the meta page of the running transaction, with the page count including the pages it allocated.
+     */
+    private void writeMeta(long transactionId) throws IOException
+    {
+        ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+        meta.putInt(MAGIC_OFFSET, MAGIC);
+        meta.putInt(ROOT_OFFSET, rootPageId);
+        meta.putLong(TRANSACTION_ID_OFFSET, transactionId);
+        meta.putLong(SIZE_OFFSET, size);
+        meta.putInt(PAGE_COUNT_OFFSET, file.pageCount());
+        CRC32 crc = new CRC32();
+        crc.update(meta.array(), 0, CHECKSUM_OFFSET);
+        meta.putInt(CHECKSUM_OFFSET, (int) crc.getValue());
+        file.page(metaPageId(transactionId)).put(0, meta, 0, META_SIZE);
+    }
+
+    /**
+     * @return the valid meta page of the highest transaction id
+     * @throws IOException if neither is valid, as the file holds no such tree
+     */
+    private ByteBuffer lastMeta(Path path) throws IOException
+    {
+        ByteBuffer last = null;
+        for (int pageId = FIRST_META_PAGE; pageId < FIRST_META_PAGE + 2; pageId ++)
+        {
+            ByteBuffer meta = file.page(pageId);
+            CRC32 crc = new CRC32();
+            crc.update(meta.duplicate().limit(CHECKSUM_OFFSET));
+            // a meta page torn by a crash fails its checksum, the other one is the last commit
+            if (meta.getInt(MAGIC_OFFSET) == MAGIC && meta.getInt(CHECKSUM_OFFSET) == (int) crc.getValue()
+                    && (last == null || meta.getLong(TRANSACTION_ID_OFFSET) > last.getLong(TRANSACTION_ID_OFFSET)))
+            {
+                last = meta;
+            }
+        }
+        if (last == null)
+        {
+            throw new IOException("Not a copy-on-write tree: " + path);
+        }
+        return last;
+    }
+
+    /**
+     * Hands every page the last commit does not use to the file, the lowest ones to be allocated first. These are the
+     * pages replaced or written by later transactions, the pages reached are found by reading the internal nodes only.
+     */
+    private void freeUnreachablePages() throws IOException
+    {
+        int pageCount = file.pageCount();
+        BitSet reachable = new BitSet(pageCount);
+        reachable.set(PageFile.META_PAGE, FIRST_META_PAGE + 2);
+        int height = 0;
+        for (DiskNode<K, V> node = peek(rootPageId); !node.leaf; node = peek(node.children.get(0)))
+        {
+            height ++;
+        }
+        markReachable(rootPageId, height, reachable);
+        for (int pageId = reachable.previousClearBit(pageCount - 1); pageId >= 0;
+             pageId = reachable.previousClearBit(pageId - 1))
+        {
+            file.free(pageId);
+        }
+    }
+
+    private void markReachable(int pageId, int height, BitSet reachable) throws IOException
+    {
+        reachable.set(pageId);
+        if (height > 0)
+        {
+            for (int childPageId : peek(pageId).children)
+            {
+                markReachable(childPageId, height - 1, reachable);
+            }
+        }
+    }
+
+
+    // Pages ===========================================================================================================
+
+    /**
+     * @return the node of the committed page, decoded on each call, as readers share nothing but the mapped file
+     */
+    private DiskNode<K, V> readCommitted(int pageId) throws IOException
+    {
+        return format.read(pageId, file.page(pageId));
+    }
+
+    /**
+     * @return the node of the page as the running transaction sees it, only to be read
+     */
+    private DiskNode<K, V> peek(int pageId) throws IOException
+    {
+        DiskNode<K, V> node = changedNodes.get(pageId);
+        return node != null ? node : readCommitted(pageId);
+    }
+
+    /**
+     * @return the node of the page, copied to a new page first unless the running transaction did so already
+     */
+    private DiskNode<K, V> copy(int pageId) throws IOException
+    {
+        DiskNode<K, V> node = changedNodes.get(pageId);
+        if (node != null)
+        {
+            return node;
+        }
+        DiskNode<K, V> committed = readCommitted(pageId);
+        DiskNode<K, V> copy = create(committed.leaf);
+        copy.keys.addAll(committed.keys);
+        if (committed.leaf)
+        {
+            copy.values.addAll(committed.values);
+        }
+        else
+        {
+            copy.children.addAll(committed.children);
+        }
+        replacedPages.add(pageId);
+        return copy;
+    }
+
+    /**
+     * @return an empty node on a new page
+     */
+    private DiskNode<K, V> create(boolean leaf) throws IOException
+    {
+        DiskNode<K, V> node = new DiskNode<>(file.allocate(), leaf);
+        changedNodes.put(node.pageId, node);
+        return node;
+    }
+
+    private void free(DiskNode<K, V> node)
+    {
+        // only a page written by the running transaction is read by no snapshot
+        if (changedNodes.remove(node.pageId) != null)
+        {
+            file.free(node.pageId);
+        }
+        else
+        {
+            replacedPages.add(node.pageId);
+        }
+    }
+
+
+    // Comparison ======================================================================================================
+
+    @SuppressWarnings("unchecked")
+    private int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    private int binarySearch(DiskNode<K, V> node, K key)
+    {
+        return Collections.binarySearch(node.keys, key, this::compare);
+    }
+
+    private int childPosition(DiskNode<K, V> node, K key)
+    {
+        int pos = binarySearch(node, key);
+        // a key equal to a separator belongs to the right child
+        if (pos >= 0)
+        {
+            return pos + 1;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+
+    // Descent =========================================================================================================
+
+    /**
+     * @return the value of the key as the running transaction sees it, null if not in use
+     */
+    @Nullable
+    private V lookup(K key) throws IOException
+    {
+        DiskNode<K, V> node = peek(rootPageId);
+        while (!node.leaf)
+        {
+            node = peek(node.children.get(childPosition(node, key)));
+        }
+        int pos = binarySearch(node, key);
+        return pos >= 0 ? node.values.get(pos) : null;
+    }
+
+    /**
+     * Walks from the root to the leaf that covers the key, copying every node not copied yet and pointing its parent at
+     * the copy, and recording every internal node and the child taken.
+     */
+    private DiskNode<K, V> descendToChange(K key) throws IOException
+    {
+        pathNodes.clear();
+        pathPositions.clear();
+        DiskNode<K, V> node = copy(rootPageId);
+        rootPageId = node.pageId;
+        while (!node.leaf)
+        {
+            int childPos = childPosition(node, key);
+            DiskNode<K, V> child = copy(node.children.get(childPos));
+            node.children.set(childPos, child.pageId);
+            pathNodes.add(node);
+            pathPositions.add(childPos);
+            node = child;
+        }
+        return node;
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public synchronized void insert(K key, V value) throws KeyConflictException, IOException
+    {
+        if (put(key, value, false) != null)
+        {
+            throw new KeyConflictException(key.toString());
+        }
+    }
+
+    /**
+     * Inserts the key, or replaces its value if already in use.
+     *
+     * @return the previous value of the key, null if there was none
+     */
+    @Nullable
+    public synchronized V put(K key, V value) throws IOException
+    {
+        return put(key, value, true);
+    }
+
+    /**
+     * Inserts the key only if not in use.
+     *
+     * @return the current value of the key if already in use, null if inserted
+     */
+    @Nullable
+    public synchronized V putIfAbsent(K key, V value) throws IOException
+    {
+        return put(key, value, false);
+    }
+
+    @Nullable
+    private V put(K key, V value, boolean replace) throws IOException
+    {
+        checkOpen();
+        if (format.entrySize(key, value) > format.maxEntrySize())
+        {
+            throw new IllegalArgumentException(String.format("Entry of key [%s] takes more than %d bytes", key,
+                                                             format.maxEntrySize()));
+        }
+        reclaim();
+        V oldValue = lookup(key);
+        // copy nothing for a change not made
+        if (oldValue != null && !replace)
+        {
+            return oldValue;
+        }
+        DiskNode<K, V> leaf = descendToChange(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            leaf.values.set(pos, value);
+        }
+        else
+        {
+            leaf.keys.add(-(pos + 1), key);
+            leaf.values.add(-(pos + 1), value);
+            size ++;
+        }
+        splitUpwards(leaf);
+        return oldValue;
+    }
+
+    /**
+     * Splits the changed node if it outgrew its page, then does the same for its parents along the recorded path as
+     * long as they receive a new separator.
+     */
+    private void splitUpwards(DiskNode<K, V> node) throws IOException
+    {
+        for (int depth = pathNodes.size() - 1; format.encodedSize(node) > pageSize; depth --)
+        {
+            DiskNode<K, V> newNode = create(node.leaf);
+            K separator = node.leaf ? split(node, newNode) : splitInternal(node, newNode);
+            if (depth < 0)
+            {
+                // split root node, create new root node
+                DiskNode<K, V> newRoot = create(false);
+                newRoot.children.add(node.pageId);
+                newRoot.keys.add(separator);
+                newRoot.children.add(newNode.pageId);
+                rootPageId = newRoot.pageId;
+                return;
+            }
+            DiskNode<K, V> parent = pathNodes.get(depth);
+            int childPos = pathPositions.get(depth);
+            parent.keys.add(childPos, separator);
+            parent.children.add(childPos + 1, newNode.pageId);
+            node = parent;
+        }
+    }
+
+    /**
+     * @return the position splitting the node's entries into two halves of about the same number of bytes
+     */
+    private int splitPosition(DiskNode<K, V> node)
+    {
+        int half = (format.plainSize(node) - NodeFormat.HEADER_SIZE) / 2;
+        int bytes = 0;
+        int pos = 0;
+        while (pos < node.keys.size() - 1 && bytes < half)
+        {
+            bytes += format.entrySize(node, pos);
+            pos ++;
+        }
+        return Math.max(pos, 1);
+    }
+
+    /**
+     * Moves the upper half of the leaf into the new one.
+     *
+     * @return the separator, the first key of the new leaf
+     */
+    private K split(DiskNode<K, V> leaf, DiskNode<K, V> newLeaf)
+    {
+        int pos = splitPosition(leaf);
+        List<K> movedKeys = leaf.keys.subList(pos, leaf.keys.size());
+        List<V> movedValues = leaf.values.subList(pos, leaf.values.size());
+        newLeaf.keys.addAll(movedKeys);
+        newLeaf.values.addAll(movedValues);
+        movedKeys.clear();
+        movedValues.clear();
+        return newLeaf.keys.get(0);
+    }
+
+    /**
+     * Moves the keys after the median and their children into the new node.
+     *
+     * @return the separator, the median key, which is left out of both nodes
+     */
+    private K splitInternal(DiskNode<K, V> internal, DiskNode<K, V> newInternal)
+    {
+        // keep at least one key on the right, as long as there are enough
+        int medianPos = Math.max(Math.min(splitPosition(internal), internal.keys.size() - 2), 0);
+        K separator = internal.keys.get(medianPos);
+        List<K> movedKeys = internal.keys.subList(medianPos + 1, internal.keys.size());
+        List<Integer> movedChildren = internal.children.subList(medianPos + 1, internal.children.size());
+        newInternal.keys.addAll(movedKeys);
+        newInternal.children.addAll(movedChildren);
+        movedKeys.clear();
+        movedChildren.clear();
+        internal.keys.remove(medianPos);
+        return separator;
+    }
+
+
+    // Deletion ========================================================================================================
+
+    public synchronized void delete(K key) throws IOException
+    {
+        checkOpen();
+        reclaim();
+        // copy nothing for a key not in use
+        if (lookup(key) == null)
+        {
+            return;
+        }
+        DiskNode<K, V> leaf = descendToChange(key);
+        int pos = binarySearch(leaf, key);
+        leaf.keys.remove(pos);
+        leaf.values.remove(pos);
+        size --;
+        rebalanceUpwards(leaf);
+    }
+
+    private boolean underflows(DiskNode<K, V> node)
+    {
+        return format.encodedSize(node) < pageSize / 4;
+    }
+
+    /**
+     * Merges the changed node into a neighbour if it underflowed and both fit into one page, and does the same for its
+     * parents along the recorded path as long as a merge leaves them underflowed too. An underflowed node whose
+     * neighbours are too full to take it in is left as it is.
+     */
+    private void rebalanceUpwards(DiskNode<K, V> node) throws IOException
+    {
+        for (int depth = pathNodes.size() - 1; depth >= 0 && underflows(node); depth --)
+        {
+            DiskNode<K, V> parent = pathNodes.get(depth);
+            int childPos = pathPositions.get(depth);
+            boolean merged = childPos > 0 && merge(parent, childPos - 1, peek(parent.children.get(childPos - 1)), node);
+            if (!merged && childPos < parent.keys.size())
+            {
+                merged = merge(parent, childPos, node, peek(parent.children.get(childPos + 1)));
+            }
+            if (!merged)
+            {
+                return;
+            }
+            node = parent;
+        }
+        if (!pathNodes.isEmpty())
+        {
+            DiskNode<K, V> root = pathNodes.get(0);
+            if (root.keys.isEmpty())
+            {
+                rootPageId = root.children.get(0);
+                free(root);
+            }
+        }
+    }
+
+    /**
+     * Moves everything of the right node into the left one, copied first if need be, then removes the separator at
+     * keyPos and the right node from the parent, unless the result would not fit into a page.
+     *
+     * @return whether the nodes were merged
+     */
+    private boolean merge(DiskNode<K, V> parent, int keyPos, DiskNode<K, V> left, DiskNode<K, V> right)
+            throws IOException
+    {
+        if (!format.fitsMerged(left, parent.keys.get(keyPos), right))
+        {
+            return false;
+        }
+        left = copy(left.pageId);
+        parent.children.set(keyPos, left.pageId);
+        if (left.leaf)
+        {
+            left.keys.addAll(right.keys);
+            left.values.addAll(right.values);
+        }
+        else
+        {
+            left.keys.add(parent.keys.get(keyPos));
+            left.keys.addAll(right.keys);
+            left.children.addAll(right.children);
+        }
+        parent.keys.remove(keyPos);
+        parent.children.remove(keyPos + 1);
+        free(right);
+        return true;
+    }
+
+
+    // Validation ======================================================================================================
+
+    /**
+     * Checks the tree as the running transaction sees it: every page fits, keys are in order and within the bounds of
+     * their parents, all leaves are at the same depth, and the entry count matches.
+     */
+    public synchronized boolean validate() throws IOException
+    {
+        checkOpen();
+        logger.info("Validating ...");
+        long count = validate(peek(rootPageId), null, null, 0, new int[]{-1});
+        if (count < 0)
+        {
+            return false;
+        }
+        if (count != size)
+        {
+            logger.info("Validation failed: size " + size + " != entry count " + count);
+            return false;
+        }
+        logger.info("Validation passed");
+        return true;
+    }
+
+    /**
+     * @return the number of entries under the node, -1 if anything is wrong
+     */
+    private long validate(DiskNode<K, V> node, @Nullable K lowerKey, @Nullable K upperKey, int depth, int[] leafDepth)
+            throws IOException
+    {
+        if (format.encodedSize(node) > pageSize)
+        {
+            logger.info("Validation failed: node " + node + " outgrew its page");
+            return -1;
+        }
+        for (int i = 0; i < node.keys.size(); i ++)
+        {
+            K key = node.keys.get(i);
+            if ((i > 0 && compare(node.keys.get(i - 1), key) >= 0)
+                    || (lowerKey != null && compare(key, lowerKey) < 0)
+                    || (upperKey != null && compare(key, upperKey) >= 0))
+            {
+                logger.info("Validation failed: key " + key + " out of order in node " + node);
+                return -1;
+            }
+        }
+        if (node.leaf)
+        {
+            if (leafDepth[0] < 0)
+            {
+                leafDepth[0] = depth;
+            }
+            else if (leafDepth[0] != depth)
+            {
+                logger.info("Validation failed: leaf " + node + " at depth " + depth + ", not " + leafDepth[0]);
+                return -1;
+            }
+            return node.keys.size();
+        }
+        if (node.children.size() != node.keys.size() + 1)
+        {
+            logger.info("Validation failed: internal node " + node + " has " + node.children.size() + " children");
+            return -1;
+        }
+        long count = 0;
+        for (int i = 0; i < node.children.size(); i ++)
+        {
+            K childLowerKey = i > 0 ? node.keys.get(i - 1) : lowerKey;
+            K childUpperKey = i < node.keys.size() ? node.keys.get(i) : upperKey;
+            long childCount = validate(peek(node.children.get(i)), childLowerKey, childUpperKey, depth + 1, leafDepth);
+            if (childCount < 0)
+            {
+                return -1;
+            }
+            count += childCount;
+        }
+        return count;
+    }
+}
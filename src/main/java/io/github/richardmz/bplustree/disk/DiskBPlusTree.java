@@ -0,0 +1,1304 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.KeyConflictException;
+import io.github.richardmz.bplustree.KeySerializer;
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.ValueSerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A B+ tree stored in a {@link PageFile}, one node per page. Children and leaf links are page ids, keys and values are
+ * encoded by the given serializers. Opening an existing file only maps it, nodes are decoded from their pages as they
+ * are reached, and kept decoded in a {@link BufferPool} of a fixed number of frames.
+ * <p>
+ * Nodes are sized in bytes rather than in keys: a node is split once its encoding outgrows the page, and merged with a
+ * neighbour once it uses less than a quarter of the page and both fit into one.
+ * <p>
+ * Every change is recorded in a {@link WriteAheadLog} before the call making it returns, so changes survive a crash
+ * without forcing the pages each time. Calls are serialized by the tree's lock, but wait for their log record outside
+ * of it, so that concurrent writers share one force. A change to a single leaf is logged against its page, a change
+ * that splits or merges nodes as the images of all nodes it changed, and every node carries the LSN of its last
+ * record, so that recovery redoes a record only on pages older than it.
+ * <p>
+ * Changed nodes are written back by a checkpoint, or when evicted, once the log holds their changes. A checkpoint
+ * takes images of the changed nodes while holding the lock, which takes no I/O, then writes them in page order from a
+ * background thread while the tree goes on changing. It runs once a quarter of the frames hold changed nodes, or the
+ * log grows past a couple of segments, after which the log is truncated; opening the tree thus only replays the log
+ * written since the last checkpoint. A checkpoint interrupted by a crash is completed from its
+ * {@link DoubleWriteFile}, and so is a node written back when evicted, which goes through a double-write file of its
+ * own: a page torn by a crash may carry a new LSN over an old body, which recovery would take as up to date.
+ */
+public class DiskBPlusTree<K, V> implements AutoCloseable
+{
+    private static final int ROOT_OFFSET = PageFile.META_USER_OFFSET;
+    private static final int SIZE_OFFSET = PageFile.META_USER_OFFSET + 8;
+    private static final int CHECKPOINT_LSN_OFFSET = PageFile.META_USER_OFFSET + 16;
+    private static final int PACK_LEAVES_OFFSET = PageFile.META_USER_OFFSET + 24;
+
+    private static final int DEFAULT_FRAME_COUNT = 1024;
+    private static final int MIN_FRAME_COUNT = 16;
+    // enough for a leaf, a sibling and the nodes created by splits, or for a descent
+    private static final int CHANGE_FRAME_COUNT = 8;
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ZERO;
+    private static final int CHECKPOINT_SEGMENT_COUNT = 3;
+
+    private final Logger logger = Logger.getInstance();
+
+    private final Path path;
+    private final PageFile file;
+    private final NodeFormat<K, V> format;
+    private final int pageSize;
+    private final boolean packLeaves;
+    private final BufferPool<K, V> pool;
+    // null while recovering
+    private WriteAheadLog<K, V> log;
+    private final Thread checkpointer;
+
+    @Nullable
+    private final Comparator<? super K> comparator;
+
+    // root-to-leaf path of the last descent, pathPositions[i] is the child taken from pathNodes[i]
+    private final List<DiskNode<K, V>> pathNodes = new ArrayList<>();
+    private final List<Integer> pathPositions = new ArrayList<>();
+    // nodes pinned by the running operation, unpinned when it ends
+    private final List<DiskNode<K, V>> pinnedNodes = new ArrayList<>();
+    // nodes changed, pages allocated with the free list head left, and pages freed by the running operation
+    private final Set<DiskNode<K, V>> changedNodes = new LinkedHashSet<>();
+    private final Map<Integer, Integer> allocatedPages = new LinkedHashMap<>();
+    private final List<Integer> freedPages = new ArrayList<>();
+
+    // written to the meta page by checkpoints only, like the nodes
+    private int rootPageId;
+    private long size;
+    // LSN of the last change made
+    private long lastLsn;
+
+    private boolean checkpointRequested = false;
+    private boolean checkpointRunning = false;
+    private boolean closing = false;
+    @Nullable
+    private IOException checkpointFailure = null;
+
+    private DiskBPlusTree(Path path, PageFile file, KeySerializer<K> keySerializer,
+                          ValueSerializer<V> valueSerializer, @Nullable Comparator<? super K> comparator,
+                          int frameCount, EvictionPolicy policy, Duration flushInterval, boolean packLeaves)
+            throws IOException
+    {
+        this.path = path;
+        this.file = file;
+        this.pageSize = file.pageSize();
+        this.packLeaves = file.created() ? packLeaves : file.meta().get(PACK_LEAVES_OFFSET) != 0;
+        this.format = new NodeFormat<>(keySerializer, valueSerializer, pageSize, this.packLeaves);
+        this.comparator = comparator;
+        this.pool = new BufferPool<>(file, format, frameCount, policy, true, lsn ->
+        {
+            if (log != null)
+            {
+                log.awaitDurable(lsn);
+            }
+        }, this::writeEvicted);
+        if (file.created())
+        {
+            try
+            {
+                DiskNode<K, V> root = create(true);
+                setRoot(root.pageId);
+                setSize(0);
+            }
+            finally
+            {
+                release();
+            }
+            lastLsn = 0;
+            DoubleWriteFile.clear(path, DoubleWriteFile.CHECKPOINT);
+            DoubleWriteFile.clear(path, DoubleWriteFile.EVICTION);
+            checkpoint();
+        }
+        else
+        {
+            if (DoubleWriteFile.recover(path, DoubleWriteFile.CHECKPOINT, file))
+            {
+                logger.info("Completed an interrupted checkpoint");
+                file.reload();
+            }
+            if (DoubleWriteFile.recover(path, DoubleWriteFile.EVICTION, file))
+            {
+                logger.info("Completed an interrupted eviction");
+            }
+            rootPageId = file.meta().getInt(ROOT_OFFSET);
+            size = file.meta().getLong(SIZE_OFFSET);
+            lastLsn = file.meta().getLong(CHECKPOINT_LSN_OFFSET);
+        }
+        // a new file has no log yet, only maybe that of a deleted file
+        if (!file.created())
+        {
+            recover(keySerializer, valueSerializer);
+        }
+        this.log = WriteAheadLog.open(path, keySerializer, valueSerializer, flushInterval, lastLsn + 1);
+        this.checkpointer = new Thread(this::checkpointLoop, "bplustree-checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Same as {@link #open(Path, int, KeySerializer, ValueSerializer, Comparator)}, ordered by the natural ordering of
+     * the keys.
+     */
+    public static <K, V> DiskBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                  ValueSerializer<V> valueSerializer) throws IOException
+    {
+        return open(path, pageSize, keySerializer, valueSerializer, null);
+    }
+
+    /**
+     * Same as {@link #open(Path, int, KeySerializer, ValueSerializer, Comparator, int, EvictionPolicy, Duration)},
+     * with 1024 frames evicted by {@link ClockPolicy}, and the log forced as soon as there is anything to force.
+     */
+    public static <K, V> DiskBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                  ValueSerializer<V> valueSerializer,
+                                                  @Nullable Comparator<? super K> comparator) throws IOException
+    {
+        return open(path, pageSize, keySerializer, valueSerializer, comparator, DEFAULT_FRAME_COUNT,
+                    new ClockPolicy(), DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Same as {@link #open(Path, int, KeySerializer, ValueSerializer, Comparator, int, EvictionPolicy, Duration,
+     * boolean)}, with leaves left unpacked.
+     */
+    public static <K, V> DiskBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                  ValueSerializer<V> valueSerializer,
+                                                  @Nullable Comparator<? super K> comparator, int frameCount,
+                                                  EvictionPolicy policy, Duration flushInterval) throws IOException
+    {
+        return open(path, pageSize, keySerializer, valueSerializer, comparator, frameCount, policy, flushInterval,
+                    false);
+    }
+
+    /**
+     * Opens the tree stored in the file, or creates an empty one if the file is missing or empty.
+     *
+     * @param pageSize a power of two between 4 and 64 KiB, only used when creating, an existing file keeps its own
+     * @param comparator must be the same ordering every time the file is opened, natural ordering if null
+     * @param frameCount number of nodes kept decoded, at least 16, internal nodes stay once loaded and should fit
+     *                   with room to spare
+     * @param policy chooses the leaf to evict when all frames are taken, must not be shared with another tree
+     * @param flushInterval how long the log waits for more records before forcing them, a longer wait forces less
+     *                      often under concurrent writers, but makes each of them wait longer
+     * @param packLeaves whether leaves are written packed when that takes less room: keys as differences for the
+     *                   built-in integer serializers and as shared prefixes for the string serializer, values
+     *                   compressed, see {@link NodeFormat}. More entries fit into a leaf, for the cost of decoding it
+     *                   as a whole when loaded into the pool, and of encoding it to learn its size. Only used
+     *                   when creating, an existing file keeps its own
+     */
+    public static <K, V> DiskBPlusTree<K, V> open(Path path, int pageSize, KeySerializer<K> keySerializer,
+                                                  ValueSerializer<V> valueSerializer,
+                                                  @Nullable Comparator<? super K> comparator, int frameCount,
+                                                  EvictionPolicy policy, Duration flushInterval, boolean packLeaves)
+            throws IOException
+    {
+        if (frameCount < MIN_FRAME_COUNT)
+        {
+            throw new IllegalArgumentException("Frame count must be at least " + MIN_FRAME_COUNT + ": " + frameCount);
+        }
+        PageFile file = PageFile.open(path, pageSize);
+        try
+        {
+            return new DiskBPlusTree<>(path, file, keySerializer, valueSerializer, comparator, frameCount, policy,
+                                       flushInterval, packLeaves);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int pageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return number of entries in the tree
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes back all changed nodes and forces them to the storage device, as a checkpoint run by the caller.
+     */
+    public synchronized void flush() throws IOException
+    {
+        awaitCheckpoint();
+        checkpoint();
+        // frames are free again for callers waiting in awaitFrames()
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            closing = true;
+            notifyAll();
+        }
+        try
+        {
+            checkpointer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing");
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            try
+            {
+                log.close();
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+    }
+
+
+    // Pages ===========================================================================================================
+
+    private int rootPageId()
+    {
+        return rootPageId;
+    }
+
+    private void setRoot(int pageId)
+    {
+        rootPageId = pageId;
+    }
+
+    private void setSize(long size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * @return the node of the page, pinned until {@link #release()}
+     */
+    private DiskNode<K, V> load(int pageId) throws IOException
+    {
+        DiskNode<K, V> node = pool.fetch(pageId);
+        pinnedNodes.add(node);
+        return node;
+    }
+
+    /**
+     * @return the node of the page, unpinned right away, so only to be read
+     */
+    private DiskNode<K, V> peek(int pageId) throws IOException
+    {
+        DiskNode<K, V> node = pool.fetch(pageId);
+        pool.unpin(node);
+        return node;
+    }
+
+    /**
+     * @return an empty node on a new page, pinned until {@link #release()}
+     */
+    private DiskNode<K, V> create(boolean leaf) throws IOException
+    {
+        DiskNode<K, V> node = pool.create(leaf);
+        pinnedNodes.add(node);
+        allocatedPages.put(node.pageId, file.freeListHead());
+        return node;
+    }
+
+    private void store(DiskNode<K, V> node)
+    {
+        pool.markDirty(node);
+        changedNodes.add(node);
+    }
+
+    private void free(DiskNode<K, V> node)
+    {
+        pool.free(node);
+        freedPages.add(node.pageId);
+    }
+
+    /**
+     * Ends the running operation, unpinning its nodes.
+     */
+    private void release()
+    {
+        for (DiskNode<K, V> node : pinnedNodes)
+        {
+            pool.unpin(node);
+        }
+        pinnedNodes.clear();
+        changedNodes.clear();
+        allocatedPages.clear();
+        freedPages.clear();
+    }
+
+
+    // Logging =========================================================================================================
+
+    /**
+     * Logs the change made by the running operation, as a change of its leaf if that is all it changed, otherwise as
+     * a structure modification, and gives the changed nodes its LSN. Must be called before {@link #release()}.
+     *
+     * @param value ignored for a deletion
+     * @return the LSN to wait for
+     */
+    private long logChange(byte type, K key, @Nullable V value) throws IOException
+    {
+        long lsn;
+        if (changedNodes.size() == 1 && allocatedPages.isEmpty() && freedPages.isEmpty())
+        {
+            DiskNode<K, V> leaf = changedNodes.iterator().next();
+            lsn = log.append(type, leaf.pageId, key, value, size);
+        }
+        else
+        {
+            Map<Integer, ByteBuffer> images = new LinkedHashMap<>();
+            for (DiskNode<K, V> node : changedNodes)
+            {
+                if (!freedPages.contains(node.pageId))
+                {
+                    ByteBuffer image = ByteBuffer.allocate(format.encodedSize(node));
+                    format.write(node, image);
+                    images.put(node.pageId, image);
+                }
+            }
+            lsn = log.appendStructure(images, rootPageId, size, allocatedPages, freedPages);
+        }
+        for (DiskNode<K, V> node : changedNodes)
+        {
+            node.lsn = lsn;
+        }
+        lastLsn = lsn;
+        return lsn;
+    }
+
+
+    // Checkpoints =====================================================================================================
+
+    /**
+     * Takes the images of everything changed since the last checkpoint: the changed nodes, the freed pages and the
+     * meta page with the root, size and the LSN of the last change. Must hold the lock, no I/O is done.
+     */
+    private SortedMap<Integer, ByteBuffer> snapshot()
+    {
+        SortedMap<Integer, ByteBuffer> images = new TreeMap<>(pool.snapshotDirty());
+        images.putAll(file.chainFreed());
+        ByteBuffer meta = file.metaImage();
+        meta.putInt(ROOT_OFFSET, rootPageId);
+        meta.putLong(SIZE_OFFSET, size);
+        meta.putLong(CHECKPOINT_LSN_OFFSET, lastLsn);
+        meta.put(PACK_LEAVES_OFFSET, (byte) (packLeaves ? 1 : 0));
+        images.put(PageFile.META_PAGE, meta);
+        return images;
+    }
+
+    /**
+     * Writes the images, first all of them to the double-write file, then each to its page in page order, and forces
+     * both, so that a crash leaves either the previous checkpoint or one that can be completed. Needs no lock.
+     */
+    private void write(SortedMap<Integer, ByteBuffer> images) throws IOException
+    {
+        DoubleWriteFile.write(path, DoubleWriteFile.CHECKPOINT, images, pageSize);
+        for (Map.Entry<Integer, ByteBuffer> image : images.entrySet())
+        {
+            file.write(image.getKey(), image.getValue());
+        }
+        file.force();
+        DoubleWriteFile.clear(path, DoubleWriteFile.CHECKPOINT);
+    }
+
+    /**
+     * Writes the image of a node evicted from the pool in place, through the double-write file of evictions. Called
+     * by the pool while holding the lock, once the log holds the node's changes.
+     */
+    private void writeEvicted(int pageId, ByteBuffer image) throws IOException
+    {
+        SortedMap<Integer, ByteBuffer> images = new TreeMap<>();
+        images.put(pageId, image);
+        DoubleWriteFile.write(path, DoubleWriteFile.EVICTION, images, pageSize);
+        file.write(pageId, image);
+        file.force();
+        DoubleWriteFile.clear(path, DoubleWriteFile.EVICTION);
+    }
+
+    /**
+     * Redoes the log written since the last checkpoint on the pages, which the pool has not loaded yet, then
+     * checkpoints, so that the new log can start after all LSNs of the old one.
+     */
+    private void recover(KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer) throws IOException
+    {
+        long checkpointLsn = lastLsn;
+        WriteAheadLog.Redo<K, V> redo = new WriteAheadLog.Redo<K, V>()
+        {
+            @Override
+            public void change(long lsn, byte type, int pageId, K key, @Nullable V value, long size)
+                    throws IOException
+            {
+                redoChange(lsn, type, pageId, key, value, size);
+            }
+
+            @Override
+            public void structure(long lsn, Map<Integer, ByteBuffer> images, int rootPageId, long size,
+                                  Map<Integer, Integer> allocated, List<Integer> freed) throws IOException
+            {
+                redoStructure(lsn, images, rootPageId, size, allocated, freed);
+            }
+        };
+        long logEnd = WriteAheadLog.replay(path, checkpointLsn, keySerializer, valueSerializer, redo);
+        if (lastLsn > checkpointLsn)
+        {
+            logger.info("Redid log records " + (checkpointLsn + 1) + " to " + lastLsn);
+        }
+        if (logEnd > checkpointLsn)
+        {
+            lastLsn = logEnd;
+            checkpoint();
+        }
+    }
+
+    /**
+     * Applies the change to the leaf's page, unless the page holds it already.
+     */
+    private void redoChange(long lsn, byte type, int pageId, K key, @Nullable V value, long size)
+            throws IOException
+    {
+        ByteBuffer page = file.page(pageId);
+        if (NodeFormat.lsn(page) < lsn)
+        {
+            DiskNode<K, V> leaf = format.read(pageId, page);
+            int pos = binarySearch(leaf, key);
+            if (type == WriteAheadLog.DELETE)
+            {
+                if (pos >= 0)
+                {
+                    leaf.keys.remove(pos);
+                    leaf.values.remove(pos);
+                }
+            }
+            else if (pos >= 0)
+            {
+                leaf.values.set(pos, value);
+            }
+            else
+            {
+                leaf.keys.add(-(pos + 1), key);
+                leaf.values.add(-(pos + 1), value);
+            }
+            leaf.lsn = lsn;
+            format.write(leaf, page);
+        }
+        setSize(size);
+        lastLsn = lsn;
+    }
+
+    /**
+     * Copies the images over the pages older than them, then takes over the root, size and allocations.
+     */
+    private void redoStructure(long lsn, Map<Integer, ByteBuffer> images, int rootPageId, long size,
+                               Map<Integer, Integer> allocated, List<Integer> freed) throws IOException
+    {
+        for (Map.Entry<Integer, ByteBuffer> image : images.entrySet())
+        {
+            ByteBuffer page = file.page(image.getKey());
+            if (NodeFormat.lsn(page) < lsn)
+            {
+                page.put(image.getValue().duplicate().clear());
+                NodeFormat.setLsn(page, lsn);
+            }
+        }
+        for (Map.Entry<Integer, Integer> allocation : allocated.entrySet())
+        {
+            file.markAllocated(allocation.getKey(), allocation.getValue());
+        }
+        for (int pageId : freed)
+        {
+            file.free(pageId);
+        }
+        setRoot(rootPageId);
+        setSize(size);
+        lastLsn = lsn;
+    }
+
+    /**
+     * Runs a whole checkpoint while holding the lock, when no other is running.
+     */
+    private void checkpoint() throws IOException
+    {
+        long lsn = lastLsn;
+        SortedMap<Integer, ByteBuffer> images = snapshot();
+        try
+        {
+            if (log != null)
+            {
+                // no page may hold a change whose record could still be lost
+                log.awaitDurable(lsn);
+            }
+            write(images);
+            if (log != null)
+            {
+                log.checkpoint(lsn);
+            }
+        }
+        finally
+        {
+            pool.checkpointDone();
+            file.chainDone();
+        }
+    }
+
+    private void checkpointLoop()
+    {
+        while (true)
+        {
+            long lsn;
+            SortedMap<Integer, ByteBuffer> images;
+            synchronized (this)
+            {
+                while (!checkpointRequested && !closing)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // only closing stops the checkpointer
+                    }
+                }
+                if (closing)
+                {
+                    return;
+                }
+                checkpointRequested = false;
+                checkpointRunning = true;
+                lsn = lastLsn;
+                images = snapshot();
+            }
+            IOException failure = null;
+            try
+            {
+                log.awaitDurable(lsn);
+                write(images);
+                log.checkpoint(lsn);
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            synchronized (this)
+            {
+                pool.checkpointDone();
+                file.chainDone();
+                checkpointRunning = false;
+                if (failure != null)
+                {
+                    checkpointFailure = failure;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void awaitCheckpoint() throws IOException
+    {
+        while (checkpointRunning)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a checkpoint");
+            }
+        }
+    }
+
+    /**
+     * Asks for a checkpoint once a quarter of the frames hold changed nodes, so that few are written back one by one
+     * when evicted, or the log grew too long, then waits for the frames the change needs.
+     */
+    private void makeRoom() throws IOException
+    {
+        if (checkpointFailure != null)
+        {
+            throw new IOException("Checkpoint failed", checkpointFailure);
+        }
+        if (closing)
+        {
+            throw new IllegalStateException("Tree closing");
+        }
+        if (pool.dirtyCount() > pool.frameCount() / 4 || log.segmentCount() > CHECKPOINT_SEGMENT_COUNT)
+        {
+            requestCheckpoint();
+        }
+        awaitFrames();
+    }
+
+    /**
+     * Waits for checkpoints while the frames left may not suffice for the operation to come, and a checkpoint can still
+     * free some. Searches wait too, as the frames of a running checkpoint cannot be evicted. Once closing, the
+     * checkpointer is gone and no checkpoint would come.
+     */
+    private void awaitFrames() throws IOException
+    {
+        while (pool.availableCount() < CHANGE_FRAME_COUNT && pool.dirtyCount() + pool.inFlightCount() > 0)
+        {
+            if (closing)
+            {
+                throw new IllegalStateException("Tree closing");
+            }
+            requestCheckpoint();
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a checkpoint");
+            }
+            if (checkpointFailure != null)
+            {
+                throw new IOException("Checkpoint failed", checkpointFailure);
+            }
+        }
+    }
+
+    private void requestCheckpoint()
+    {
+        if (!checkpointRunning && !checkpointRequested)
+        {
+            checkpointRequested = true;
+            notifyAll();
+        }
+    }
+
+
+    // Comparison ======================================================================================================
+
+    @SuppressWarnings("unchecked")
+    private int compare(K key1, K key2)
+    {
+        if (comparator == null)
+        {
+            return ((Comparable<? super K>) key1).compareTo(key2);
+        }
+        else
+        {
+            return comparator.compare(key1, key2);
+        }
+    }
+
+    private int binarySearch(DiskNode<K, V> node, K key)
+    {
+        return Collections.binarySearch(node.keys, key, this::compare);
+    }
+
+    private int childPosition(DiskNode<K, V> node, K key)
+    {
+        int pos = binarySearch(node, key);
+        // a key equal to a separator belongs to the right child
+        if (pos >= 0)
+        {
+            return pos + 1;
+        }
+        else
+        {
+            return -(pos + 1);
+        }
+    }
+
+
+    // Descent =========================================================================================================
+
+    /**
+     * Walks from the root to the leaf that covers the key, recording every internal node and the child taken.
+     */
+    private DiskNode<K, V> descend(K key) throws IOException
+    {
+        pathNodes.clear();
+        pathPositions.clear();
+        DiskNode<K, V> node = load(rootPageId());
+        while (!node.leaf)
+        {
+            int childPos = childPosition(node, key);
+            pathNodes.add(node);
+            pathPositions.add(childPos);
+            node = load(node.children.get(childPos));
+        }
+        return node;
+    }
+
+
+    // Insertion =======================================================================================================
+
+    public void insert(K key, V value) throws KeyConflictException, IOException
+    {
+        long lsn;
+        synchronized (this)
+        {
+            makeRoom();
+            try
+            {
+                if (put(key, value, false) != null)
+                {
+                    throw new KeyConflictException(key.toString());
+                }
+                lsn = logChange(WriteAheadLog.INSERT, key, value);
+            }
+            finally
+            {
+                release();
+            }
+        }
+        log.awaitDurable(lsn);
+    }
+
+    /**
+     * Inserts the key, or replaces its value if already in use.
+     *
+     * @return the previous value of the key, null if there was none
+     */
+    @Nullable
+    public V put(K key, V value) throws IOException
+    {
+        V oldValue;
+        long lsn;
+        synchronized (this)
+        {
+            makeRoom();
+            try
+            {
+                oldValue = put(key, value, true);
+                lsn = logChange(WriteAheadLog.PUT, key, value);
+            }
+            finally
+            {
+                release();
+            }
+        }
+        log.awaitDurable(lsn);
+        return oldValue;
+    }
+
+    /**
+     * Inserts the key only if not in use.
+     *
+     * @return the current value of the key if already in use, null if inserted
+     */
+    @Nullable
+    public V putIfAbsent(K key, V value) throws IOException
+    {
+        V currentValue;
+        long lsn;
+        synchronized (this)
+        {
+            makeRoom();
+            try
+            {
+                currentValue = put(key, value, false);
+                if (currentValue != null)
+                {
+                    return currentValue;
+                }
+                lsn = logChange(WriteAheadLog.INSERT, key, value);
+            }
+            finally
+            {
+                release();
+            }
+        }
+        log.awaitDurable(lsn);
+        return null;
+    }
+
+    /**
+     * Leaves the nodes pinned, for the change to be logged before {@link #release()}.
+     */
+    @Nullable
+    private V put(K key, V value, boolean replace) throws IOException
+    {
+        if (format.entrySize(key, value) > format.maxEntrySize())
+        {
+            throw new IllegalArgumentException(String.format("Entry of key [%s] takes more than %d bytes", key,
+                                                             format.maxEntrySize()));
+        }
+        DiskNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            V oldValue = leaf.values.get(pos);
+            if (replace)
+            {
+                leaf.values.set(pos, value);
+                splitUpwards(leaf);
+            }
+            return oldValue;
+        }
+        leaf.keys.add(-(pos + 1), key);
+        leaf.values.add(-(pos + 1), value);
+        setSize(size() + 1);
+        splitUpwards(leaf);
+        return null;
+    }
+
+    /**
+     * Stores the changed node, splitting it first if it outgrew its page, then does the same for its parents along the
+     * recorded path as long as they receive new separators.
+     */
+    private void splitUpwards(DiskNode<K, V> node) throws IOException
+    {
+        List<K> separators = new ArrayList<>();
+        List<DiskNode<K, V>> newNodes = new ArrayList<>();
+        for (int depth = pathNodes.size() - 1; ; depth --)
+        {
+            if (format.encodedSize(node) <= pageSize)
+            {
+                store(node);
+                return;
+            }
+            separators.clear();
+            newNodes.clear();
+            splitToFit(node, separators, newNodes);
+            if (depth < 0)
+            {
+                // split root node, create new root node
+                DiskNode<K, V> newRoot = create(false);
+                newRoot.children.add(node.pageId);
+                for (int i = 0; i < newNodes.size(); i ++)
+                {
+                    newRoot.keys.add(separators.get(i));
+                    newRoot.children.add(newNodes.get(i).pageId);
+                }
+                node = newRoot;
+                setRoot(newRoot.pageId);
+                // a root with many new children may have to split again
+                continue;
+            }
+            DiskNode<K, V> parent = pathNodes.get(depth);
+            int childPos = pathPositions.get(depth);
+            parent.keys.addAll(childPos, separators);
+            for (int i = 0; i < newNodes.size(); i ++)
+            {
+                parent.children.add(childPos + 1 + i, newNodes.get(i).pageId);
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     * Splits the node in halves, and the halves again until each fits into a page, then stores them. Halving once is
+     * always enough but for a packed leaf, which may take much less room than its halves written unpacked.
+     *
+     * @param separators receives the separators, in order, each followed by its node in newNodes
+     */
+    private void splitToFit(DiskNode<K, V> node, List<K> separators, List<DiskNode<K, V>> newNodes)
+            throws IOException
+    {
+        if (format.encodedSize(node) <= pageSize)
+        {
+            store(node);
+            return;
+        }
+        DiskNode<K, V> newNode = create(node.leaf);
+        K separator = node.leaf ? split(node, newNode) : splitInternal(node, newNode);
+        splitToFit(node, separators, newNodes);
+        separators.add(separator);
+        newNodes.add(newNode);
+        splitToFit(newNode, separators, newNodes);
+    }
+
+    /**
+     * @return the position splitting the node's entries into two halves of about the same number of bytes
+     */
+    private int splitPosition(DiskNode<K, V> node)
+    {
+        int half = (format.plainSize(node) - NodeFormat.HEADER_SIZE) / 2;
+        int bytes = 0;
+        int pos = 0;
+        while (pos < node.keys.size() - 1 && bytes < half)
+        {
+            bytes += format.entrySize(node, pos);
+            pos ++;
+        }
+        return Math.max(pos, 1);
+    }
+
+    /**
+     * Moves the upper half of the leaf into the new one, linked right after it.
+     *
+     * @return the separator, the first key of the new leaf
+     */
+    private K split(DiskNode<K, V> leaf, DiskNode<K, V> newLeaf)
+    {
+        int pos = splitPosition(leaf);
+        List<K> movedKeys = leaf.keys.subList(pos, leaf.keys.size());
+        List<V> movedValues = leaf.values.subList(pos, leaf.values.size());
+        newLeaf.keys.addAll(movedKeys);
+        newLeaf.values.addAll(movedValues);
+        movedKeys.clear();
+        movedValues.clear();
+        newLeaf.next = leaf.next;
+        leaf.next = newLeaf.pageId;
+        return newLeaf.keys.get(0);
+    }
+
+    /**
+     * Moves the keys after the median and their children into the new node.
+     *
+     * @return the separator, the median key, which is left out of both nodes
+     */
+    private K splitInternal(DiskNode<K, V> internal, DiskNode<K, V> newInternal)
+    {
+        // keep at least one key on the right, as long as there are enough
+        int medianPos = Math.max(Math.min(splitPosition(internal), internal.keys.size() - 2), 0);
+        K separator = internal.keys.get(medianPos);
+        List<K> movedKeys = internal.keys.subList(medianPos + 1, internal.keys.size());
+        List<Integer> movedChildren = internal.children.subList(medianPos + 1, internal.children.size());
+        newInternal.keys.addAll(movedKeys);
+        newInternal.children.addAll(movedChildren);
+        movedKeys.clear();
+        movedChildren.clear();
+        internal.keys.remove(medianPos);
+        return separator;
+    }
+
+
+    // Search Methods ==================================================================================================
+
+    @Nullable
+    public synchronized V search(K key) throws IOException
+    {
+        awaitFrames();
+        try
+        {
+            DiskNode<K, V> leaf = descend(key);
+            int pos = binarySearch(leaf, key);
+            // found
+            if (pos >= 0)
+            {
+                return leaf.values.get(pos);
+            }
+            else
+            {
+                return null;
+            }
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * @return values of all keys in [lowerKey, upperKey], in key order
+     */
+    public List<V> rangeQuery(K lowerKey, K upperKey) throws IOException
+    {
+        return rangeQuery(lowerKey, true, upperKey, true);
+    }
+
+    /**
+     * @return values of all keys between lowerKey and upperKey, in key order, each bound is included only if asked
+     */
+    public synchronized List<V> rangeQuery(K lowerKey, boolean lowerInclusive, K upperKey, boolean upperInclusive)
+            throws IOException
+    {
+        List<V> result = new ArrayList<>();
+        if (compare(lowerKey, upperKey) > 0)
+        {
+            return result;
+        }
+        awaitFrames();
+        DiskNode<K, V> leaf = descend(lowerKey);
+        release();
+        int pos = binarySearch(leaf, lowerKey);
+        if (pos < 0)
+        {
+            pos = -(pos + 1);
+        }
+        else if (!lowerInclusive)
+        {
+            pos ++;
+        }
+        while (true)
+        {
+            for (; pos < leaf.keys.size(); pos ++)
+            {
+                int cmp = compare(leaf.keys.get(pos), upperKey);
+                if (cmp > 0 || (cmp == 0 && !upperInclusive))
+                {
+                    return result;
+                }
+                result.add(leaf.values.get(pos));
+            }
+            if (leaf.next == PageFile.NULL)
+            {
+                return result;
+            }
+            // leaves are only read, so none has to stay pinned
+            leaf = peek(leaf.next);
+            pos = 0;
+        }
+    }
+
+
+    // Deletion ========================================================================================================
+
+    public void delete(K key) throws IOException
+    {
+        long lsn;
+        synchronized (this)
+        {
+            makeRoom();
+            try
+            {
+                if (!remove(key))
+                {
+                    return;
+                }
+                lsn = logChange(WriteAheadLog.DELETE, key, null);
+            }
+            finally
+            {
+                release();
+            }
+        }
+        log.awaitDurable(lsn);
+    }
+
+    /**
+     * Leaves the nodes pinned, for the change to be logged before {@link #release()}.
+     *
+     * @return whether the key was found
+     */
+    private boolean remove(K key) throws IOException
+    {
+        DiskNode<K, V> leaf = descend(key);
+        int pos = binarySearch(leaf, key);
+        // found
+        if (pos >= 0)
+        {
+            leaf.keys.remove(pos);
+            leaf.values.remove(pos);
+            setSize(size() - 1);
+            rebalanceUpwards(leaf);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean underflows(DiskNode<K, V> node)
+    {
+        return format.encodedSize(node) < pageSize / 4;
+    }
+
+    /**
+     * Stores the changed node, then merges it into a neighbour if it underflowed and both fit into one page, and does
+     * the same for its parents along the recorded path as long as a merge leaves them underflowed too. An underflowed
+     * node whose neighbours are too full to take it in is left as it is.
+     */
+    private void rebalanceUpwards(DiskNode<K, V> node) throws IOException
+    {
+        store(node);
+        for (int depth = pathNodes.size() - 1; depth >= 0 && underflows(node); depth --)
+        {
+            DiskNode<K, V> parent = pathNodes.get(depth);
+            int childPos = pathPositions.get(depth);
+            boolean merged = childPos > 0 && merge(parent, childPos - 1, load(parent.children.get(childPos - 1)), node);
+            if (!merged && childPos < parent.keys.size())
+            {
+                merged = merge(parent, childPos, node, load(parent.children.get(childPos + 1)));
+            }
+            if (!merged)
+            {
+                return;
+            }
+            store(parent);
+            node = parent;
+        }
+        if (!pathNodes.isEmpty())
+        {
+            DiskNode<K, V> root = pathNodes.get(0);
+            if (root.keys.isEmpty())
+            {
+                setRoot(root.children.get(0));
+                free(root);
+            }
+        }
+    }
+
+    /**
+     * Moves everything of the right node into the left one, then removes the separator at keyPos and the right node
+     * from the parent, unless the result would not fit into a page.
+     *
+     * @return whether the nodes were merged
+     */
+    private boolean merge(DiskNode<K, V> parent, int keyPos, DiskNode<K, V> left, DiskNode<K, V> right)
+            throws IOException
+    {
+        if (!format.fitsMerged(left, parent.keys.get(keyPos), right))
+        {
+            return false;
+        }
+        if (left.leaf)
+        {
+            left.keys.addAll(right.keys);
+            left.values.addAll(right.values);
+            left.next = right.next;
+        }
+        else
+        {
+            left.keys.add(parent.keys.get(keyPos));
+            left.keys.addAll(right.keys);
+            left.children.addAll(right.children);
+        }
+        parent.keys.remove(keyPos);
+        parent.children.remove(keyPos + 1);
+        store(left);
+        free(right);
+        return true;
+    }
+
+
+    // Validation ======================================================================================================
+
+    /**
+     * Checks that every page fits, keys are in order and within the bounds of their parents, all leaves are at the
+     * same depth and chained in order, and the entry count matches.
+     */
+    public synchronized boolean validate() throws IOException
+    {
+        logger.info("Validating ...");
+        List<Integer> leafPageIds = new ArrayList<>();
+        long count = validate(peek(rootPageId()), null, null, 0, new int[]{-1}, leafPageIds);
+        if (count < 0)
+        {
+            return false;
+        }
+        if (count != size())
+        {
+            logger.info("Validation failed: size " + size() + " != entry count " + count);
+            return false;
+        }
+        for (int i = 0; i < leafPageIds.size(); i ++)
+        {
+            int next = peek(leafPageIds.get(i)).next;
+            int expected = i + 1 < leafPageIds.size() ? leafPageIds.get(i + 1) : PageFile.NULL;
+            if (next != expected)
+            {
+                logger.info("Validation failed: leaf " + leafPageIds.get(i) + " links to " + next + ", not " + expected);
+                return false;
+            }
+        }
+        logger.info("Validation passed");
+        return true;
+    }
+
+    /**
+     * @return the number of entries under the node, -1 if anything is wrong
+     */
+    private long validate(DiskNode<K, V> node, @Nullable K lowerKey, @Nullable K upperKey, int depth,
+                          int[] leafDepth, List<Integer> leafPageIds) throws IOException
+    {
+        if (format.encodedSize(node) > pageSize)
+        {
+            logger.info("Validation failed: node " + node + " outgrew its page");
+            return -1;
+        }
+        for (int i = 0; i < node.keys.size(); i ++)
+        {
+            K key = node.keys.get(i);
+            if ((i > 0 && compare(node.keys.get(i - 1), key) >= 0)
+                    || (lowerKey != null && compare(key, lowerKey) < 0)
+                    || (upperKey != null && compare(key, upperKey) >= 0))
+            {
+                logger.info("Validation failed: key " + key + " out of order in node " + node);
+                return -1;
+            }
+        }
+        if (node.leaf)
+        {
+            if (leafDepth[0] < 0)
+            {
+                leafDepth[0] = depth;
+            }
+            else if (leafDepth[0] != depth)
+            {
+                logger.info("Validation failed: leaf " + node + " at depth " + depth + ", not " + leafDepth[0]);
+                return -1;
+            }
+            leafPageIds.add(node.pageId);
+            return node.keys.size();
+        }
+        if (node.children.size() != node.keys.size() + 1)
+        {
+            logger.info("Validation failed: internal node " + node + " has " + node.children.size() + " children");
+            return -1;
+        }
+        long count = 0;
+        for (int i = 0; i < node.children.size(); i ++)
+        {
+            K childLowerKey = i > 0 ? node.keys.get(i - 1) : lowerKey;
+            K childUpperKey = i < node.keys.size() ? node.keys.get(i) : upperKey;
+            long childCount = validate(peek(node.children.get(i)), childLowerKey, childUpperKey, depth + 1, leafDepth,
+                                       leafPageIds);
+            if (childCount < 0)
+            {
+                return -1;
+            }
+            count += childCount;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node decoded from its page. Children and the next leaf are page ids.
+ */
+final class DiskNode<K, V>
+{
+    final int pageId;
+    final boolean leaf;
+
+    final List<K> keys = new ArrayList<>();
+    // leaf only
+    final List<V> values;
+    // internal only
+    final List<Integer> children;
+
+    int next = PageFile.NULL;
+    // LSN of the last logged change, a page may only be written once the log is durable up to it
+    long lsn = 0;
+
+    DiskNode(int pageId, boolean leaf)
+    {
+        this.pageId = pageId;
+        this.leaf = leaf;
+        this.values = leaf ? new ArrayList<>() : null;
+        this.children = leaf ? null : new ArrayList<>();
+    }
+
+    @Override
+    public String toString()
+    {
+        return pageId + ":" + keys;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+
+/**
+ * Holds the page images of a checkpoint while they are written in place, next to the tree's file with a ".dwb" suffix.
+ * A crash halfway through writing them in place leaves some pages old and some new, which no log can be replayed over;
+ * the images are then written again from here when the tree is opened. A crash while writing this file leaves it
+ * failing its checksum, and the pages untouched.
+ * <p>
+ * A node evicted from the pool is written the same way, through a file of its own with a ".ewb" suffix, as evictions
+ * run while a checkpoint may be writing. A page is never in both at once, a checkpoint's pages cannot be evicted until
+ * it is done.
+ * <p>
+ * Layout: magic, image count, then the page id and bytes of every image, then the CRC32 of everything before.
+ */
+final class DoubleWriteFile
+{
+    private static final int MAGIC = 0x42504457; // "BPDW"
+
+    static final String CHECKPOINT = ".dwb";
+    static final String EVICTION = ".ewb";
+
+    private DoubleWriteFile()
+    {
+    }
+
+    private static Path pathOf(Path path, String suffix)
+    {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * Writes and forces the images, for {@link #clear(Path, String)} once they are forced in place too.
+     *
+     * @param suffix {@link #CHECKPOINT} or {@link #EVICTION}
+     */
+    static void write(Path path, String suffix, SortedMap<Integer, ByteBuffer> images, int pageSize)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + images.size() * (4 + pageSize) + 4);
+        buffer.putInt(MAGIC);
+        buffer.putInt(images.size());
+        for (Map.Entry<Integer, ByteBuffer> image : images.entrySet())
+        {
+            buffer.putInt(image.getKey());
+            buffer.put(image.getValue().duplicate().clear());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(pathOf(path, suffix), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    static void clear(Path path, String suffix) throws IOException
+    {
+        Files.deleteIfExists(pathOf(path, suffix));
+    }
+
+    /**
+     * Writes the images left by a crash in place again and forces them, unless they were not completely written.
+     *
+     * @return whether images were written
+     */
+    static boolean recover(Path path, String suffix, PageFile file) throws IOException
+    {
+        Path doubleWritePath = pathOf(path, suffix);
+        if (!Files.exists(doubleWritePath))
+        {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(doubleWritePath));
+        int pageSize = file.pageSize();
+        boolean complete = buffer.limit() >= 12 && buffer.getInt(0) == MAGIC
+                && buffer.limit() == 8 + buffer.getInt(4) * (4 + pageSize) + 4;
+        if (complete)
+        {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.limit() - 4);
+            complete = (int) crc.getValue() == buffer.getInt(buffer.limit() - 4);
+        }
+        if (complete)
+        {
+            int count = buffer.getInt(4);
+            for (int i = 0; i < count; i ++)
+            {
+                int offset = 8 + i * (4 + pageSize);
+                ByteBuffer image = buffer.duplicate();
+                image.position(offset + 4);
+                image.limit(offset + 4 + pageSize);
+                file.write(buffer.getInt(offset), image.slice());
+            }
+            file.force();
+        }
+        clear(path, suffix);
+        return complete;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Decides which frame of a {@link BufferPool} to empty when a page has to be loaded and no frame is free. Frames are
+ * numbered from 0, a policy instance serves a single pool.
+ */
+public interface EvictionPolicy
+{
+    /**
+     * Called once by the pool, before anything else.
+     */
+    void init(int frameCount);
+
+    /**
+     * The page was found in the frame (hit), or was just loaded into it (miss).
+     */
+    void accessed(int frame, int pageId, boolean hit);
+
+    /**
+     * The frame was emptied, because it was chosen as victim or because its page was freed.
+     */
+    void removed(int frame, int pageId);
+
+    /**
+     * @return the frame to empty among those the predicate accepts, -1 if it accepts none
+     */
+    int victim(IntPredicate evictable);
+}
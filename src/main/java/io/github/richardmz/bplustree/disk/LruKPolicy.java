@@ -0,0 +1,91 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K eviction after O'Neil, O'Neil and Weikum: evicts the frame whose K-th most recent access lies furthest back.
+ * Frames accessed fewer than K times count as infinitely far back and go first, least recently used first, so a scan
+ * touching many pages once does not push out pages in steady use. Each victim search looks at every frame.
+ */
+public class LruKPolicy implements EvictionPolicy
+{
+    private final int k;
+
+    // the last k access times of every frame, as a ring starting at the oldest
+    private long[][] history;
+    private int[] accessCounts;
+    private long clock = 0;
+
+    /**
+     * @param k number of accesses remembered per frame, 2 in most uses
+     */
+    public LruKPolicy(int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("K must be at least 1: " + k);
+        }
+        this.k = k;
+    }
+
+    @Override
+    public void init(int frameCount)
+    {
+        history = new long[frameCount][k];
+        accessCounts = new int[frameCount];
+    }
+
+    @Override
+    public void accessed(int frame, int pageId, boolean hit)
+    {
+        history[frame][accessCounts[frame] % k] = ++ clock;
+        accessCounts[frame] ++;
+    }
+
+    @Override
+    public void removed(int frame, int pageId)
+    {
+        accessCounts[frame] = 0;
+    }
+
+    @Override
+    public int victim(IntPredicate evictable)
+    {
+        int victim = -1;
+        boolean victimHasK = true;
+        long victimTime = Long.MAX_VALUE;
+        for (int frame = 0; frame < history.length; frame ++)
+        {
+            if (accessCounts[frame] == 0 || !evictable.test(frame))
+            {
+                continue;
+            }
+            boolean hasK = accessCounts[frame] >= k;
+            // the k-th most recent access if there were k, otherwise the most recent one
+            long time = hasK ? history[frame][accessCounts[frame] % k]
+                             : history[frame][(accessCounts[frame] - 1) % k];
+            if ((victimHasK && !hasK) || (victimHasK == hasK && time < victimTime))
+            {
+                victim = frame;
+                victimHasK = hasK;
+                victimTime = time;
+            }
+        }
+        return victim;
+    }
+}
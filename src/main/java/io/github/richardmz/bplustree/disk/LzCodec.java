@@ -0,0 +1,210 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A small LZ77 block codec in the manner of LZ4: the block is a series of sequences, each a run of literal bytes
+ * followed by a copy of earlier output. A sequence starts with a token byte, the literal length in the high and the
+ * match length minus 4 in the low nibble, a nibble of 15 being continued by bytes of 255 up to a smaller one. The
+ * literals follow, then the match offset back from the current position (unsigned short, little endian), then the
+ * continued match length. The last sequence has literals only and ends the block.
+ * <p>
+ * Matches are found through a hash table of 4-byte sequences, kept by the instance, which is thus not thread-safe.
+ */
+final class LzCodec
+{
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    /**
+     * @return the largest size a block of the given length can be compressed to
+     */
+    static int maxCompressedLength(int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the first length bytes of src into dst, which must hold at least
+     * {@link #maxCompressedLength(int)} bytes from the offset.
+     *
+     * @return the offset after the block
+     */
+    int compress(byte[] src, int length, byte[] dst, int offset)
+    {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int pos = 0;
+        while (pos + MIN_MATCH <= length)
+        {
+            int sequence = intAt(src, pos);
+            int hash = (sequence * 0x9E3779B1) >>> (Integer.SIZE - HASH_BITS);
+            int ref = table[hash];
+            table[hash] = pos;
+            if (ref >= 0 && pos - ref <= MAX_OFFSET && intAt(src, ref) == sequence)
+            {
+                int matchLength = MIN_MATCH;
+                while (pos + matchLength < length && src[ref + matchLength] == src[pos + matchLength])
+                {
+                    matchLength ++;
+                }
+                offset = writeSequence(src, anchor, pos - anchor, pos - ref, matchLength, dst, offset);
+                pos += matchLength;
+                anchor = pos;
+            }
+            else
+            {
+                pos ++;
+            }
+        }
+        if (anchor < length || anchor == 0)
+        {
+            offset = writeSequence(src, anchor, length - anchor, 0, 0, dst, offset);
+        }
+        return offset;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int matchOffset,
+                                     int matchLength, byte[] dst, int offset)
+    {
+        int token = offset ++;
+        int literalNibble = Math.min(literalLength, 15);
+        int matchNibble = matchLength > 0 ? Math.min(matchLength - MIN_MATCH, 15) : 0;
+        dst[token] = (byte) ((literalNibble << 4) | matchNibble);
+        if (literalNibble == 15)
+        {
+            offset = writeLength(literalLength - 15, dst, offset);
+        }
+        System.arraycopy(src, literalStart, dst, offset, literalLength);
+        offset += literalLength;
+        if (matchLength > 0)
+        {
+            dst[offset ++] = (byte) matchOffset;
+            dst[offset ++] = (byte) (matchOffset >>> 8);
+            if (matchNibble == 15)
+            {
+                offset = writeLength(matchLength - MIN_MATCH - 15, dst, offset);
+            }
+        }
+        return offset;
+    }
+
+    private static int writeLength(int length, byte[] dst, int offset)
+    {
+        while (length >= 255)
+        {
+            dst[offset ++] = (byte) 255;
+            length -= 255;
+        }
+        dst[offset ++] = (byte) length;
+        return offset;
+    }
+
+    private static int intAt(byte[] bytes, int pos)
+    {
+        return (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8 | (bytes[pos + 2] & 0xFF) << 16
+                | (bytes[pos + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Decompresses the block of the given length in src at the offset into dst.
+     *
+     * @return the number of bytes decompressed
+     * @throws IOException if the block is damaged: reaches past src or dst, or refers to bytes before its output
+     */
+    static int decompress(ByteBuffer src, int offset, int length, byte[] dst) throws IOException
+    {
+        if (length < 0 || offset < 0 || offset + length > src.limit())
+        {
+            throw new IOException("Compressed block of " + length + " bytes at " + offset + " past its buffer");
+        }
+        int end = offset + length;
+        int out = 0;
+        while (offset < end)
+        {
+            int token = src.get(offset ++) & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15)
+            {
+                int b;
+                do
+                {
+                    if (offset >= end)
+                    {
+                        throw new IOException("Compressed block ends within a length");
+                    }
+                    b = src.get(offset ++) & 0xFF;
+                    literalLength += b;
+                }
+                while (b == 255);
+            }
+            if (literalLength > end - offset || literalLength > dst.length - out)
+            {
+                throw new IOException("Compressed block has " + literalLength + " literals past its end at " + out);
+            }
+            src.get(offset, dst, out, literalLength);
+            offset += literalLength;
+            out += literalLength;
+            if (offset >= end)
+            {
+                break;
+            }
+            if (offset + 2 > end)
+            {
+                throw new IOException("Compressed block ends within a match offset");
+            }
+            int matchOffset = (src.get(offset) & 0xFF) | (src.get(offset + 1) & 0xFF) << 8;
+            offset += 2;
+            if (matchOffset < 1 || matchOffset > out)
+            {
+                throw new IOException("Compressed block has a match offset of " + matchOffset + " at " + out);
+            }
+            int matchLength = (token & 0x0F) + MIN_MATCH;
+            if ((token & 0x0F) == 15)
+            {
+                int b;
+                do
+                {
+                    if (offset >= end)
+                    {
+                        throw new IOException("Compressed block ends within a length");
+                    }
+                    b = src.get(offset ++) & 0xFF;
+                    matchLength += b;
+                }
+                while (b == 255);
+            }
+            if (matchLength > dst.length - out)
+            {
+                throw new IOException("Compressed block has a match of " + matchLength + " bytes past its end at "
+                                              + out);
+            }
+            // byte by byte, a match may overlap the bytes it produces
+            for (int from = out - matchOffset; matchLength > 0; matchLength --)
+            {
+                dst[out ++] = dst[from ++];
+            }
+        }
+        return out;
+    }
+}
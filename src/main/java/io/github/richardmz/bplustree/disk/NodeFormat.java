@@ -0,0 +1,480 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.KeySerializer;
+import io.github.richardmz.bplustree.Serializers;
+import io.github.richardmz.bplustree.ValueSerializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes nodes into pages, directly into the page buffer.
+ * <p>
+ * Page layout: a header, a slot directory, then the payload. The header holds the type (byte), the format version
+ * (byte), the key count (unsigned short), the next leaf (leaf) or first child (internal) (int) and the LSN of the last
+ * logged change (long). The slot directory holds the offset of every entry in the page (unsigned short), in key order,
+ * so that an entry can be reached without decoding the ones before. The payload holds the entries back to back, key
+ * and value pairs (leaf), or key and child pairs (internal), written by the serializers, which must be able to read an
+ * item without knowing its length.
+ * <p>
+ * With packing, a leaf is written packed instead whenever that makes it smaller: the same header, how the keys are
+ * encoded (byte), the keys, then the values. With the built-in integer serializers, each key is written as the
+ * difference to the one before (zigzag varint), with the string serializer, as the number of chars shared with the one
+ * before (varint) and the rest, otherwise as is. The values are written back to back as one block, compressed by
+ * {@link LzCodec} unless that does not make it smaller: raw or compressed (byte), raw length (varint), compressed
+ * length (int, compressed only), then the block. A packed leaf has no slot directory, it is decoded as a whole when
+ * loaded into the pool.
+ * <p>
+ * Instances keep the buffers they pack into, and are not thread-safe, but for reading pages that are not packed.
+ */
+final class NodeFormat<K, V>
+{
+    static final byte LEAF = 1;
+    static final byte INTERNAL = 2;
+    static final byte PACKED_LEAF = 3;
+
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = Short.BYTES;
+
+    private static final byte VERSION = 1;
+
+    private static final int TYPE_OFFSET = 0;
+    private static final int VERSION_OFFSET = 1;
+    private static final int KEY_COUNT_OFFSET = 2;
+    private static final int LINK_OFFSET = 4;
+    private static final int LSN_OFFSET = 8;
+
+    // key encodings of packed leaves
+    private static final byte PLAIN_KEYS = 0;
+    private static final byte LONG_DELTAS = 1;
+    private static final byte INT_DELTAS = 2;
+    private static final byte SHARED_PREFIXES = 3;
+
+    // a packed leaf holds no more than would fit into this many pages unpacked, which bounds the pieces it splits
+    // into and the memory it takes decoded, and keeps the key count below what the header holds
+    private static final int MAX_PACKED_PAGES = 2;
+
+    private static final byte RAW_VALUES = 0;
+    private static final byte COMPRESSED_VALUES = 1;
+
+    private final KeySerializer<K> keySerializer;
+    private final ValueSerializer<V> valueSerializer;
+    private final int pageSize;
+    private final boolean packLeaves;
+    private final byte keyEncoding;
+
+    private final LzCodec lz = new LzCodec();
+    // a packed leaf, from the header on, and the values of a leaf before compression
+    private ByteBuffer packed = ByteBuffer.allocate(0);
+    private ByteBuffer rawValues = ByteBuffer.allocate(0);
+
+    NodeFormat(KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer, int pageSize, boolean packLeaves)
+    {
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.pageSize = pageSize;
+        this.packLeaves = packLeaves;
+        if (keySerializer == Serializers.LONG || keySerializer == Serializers.VAR_LONG)
+        {
+            this.keyEncoding = LONG_DELTAS;
+        }
+        else if (keySerializer == Serializers.INT || keySerializer == Serializers.VAR_INT)
+        {
+            this.keyEncoding = INT_DELTAS;
+        }
+        else if (keySerializer == Serializers.STRING)
+        {
+            this.keyEncoding = SHARED_PREFIXES;
+        }
+        else
+        {
+            this.keyEncoding = PLAIN_KEYS;
+        }
+    }
+
+    /**
+     * @return the largest entry accepted, small enough that splitting an overflowed node always gives two halves that
+     * fit into a page
+     */
+    int maxEntrySize()
+    {
+        return (pageSize - HEADER_SIZE) / 4;
+    }
+
+    /**
+     * @return the size of a leaf entry, its slot included
+     */
+    int entrySize(K key, V value)
+    {
+        return SLOT_SIZE + keySerializer.size(key) + valueSerializer.size(value);
+    }
+
+    /**
+     * @return the size of an internal entry, a key with its right child, its slot included
+     */
+    int entrySize(K key)
+    {
+        return SLOT_SIZE + keySerializer.size(key) + Integer.BYTES;
+    }
+
+    /**
+     * @return the size of the entry at the position, a key with its value or its right child
+     */
+    int entrySize(DiskNode<K, V> node, int pos)
+    {
+        if (node.leaf)
+        {
+            return entrySize(node.keys.get(pos), node.values.get(pos));
+        }
+        else
+        {
+            return entrySize(node.keys.get(pos));
+        }
+    }
+
+    /**
+     * @return the number of bytes {@link #write(DiskNode, ByteBuffer)} writes
+     */
+    int encodedSize(DiskNode<K, V> node)
+    {
+        int size = plainSize(node);
+        if (packs(node, size))
+        {
+            size = Math.min(size, pack(node));
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the node written with a slot directory, whether or not it is packed
+     */
+    int plainSize(DiskNode<K, V> node)
+    {
+        int size = HEADER_SIZE;
+        for (int i = 0; i < node.keys.size(); i ++)
+        {
+            size += entrySize(node, i);
+        }
+        return size;
+    }
+
+    /**
+     * @param separator the key between the nodes in their parent, which comes down into a merged internal node
+     * @return whether the two neighbours merged into one node would fit into a page
+     */
+    boolean fitsMerged(DiskNode<K, V> left, K separator, DiskNode<K, V> right)
+    {
+        int size = plainSize(left) + plainSize(right) - HEADER_SIZE;
+        if (!left.leaf)
+        {
+            size += entrySize(separator);
+        }
+        if (size <= pageSize)
+        {
+            return true;
+        }
+        if (!packLeaves || !left.leaf || size > MAX_PACKED_PAGES * pageSize)
+        {
+            return false;
+        }
+        // packed, two leaves may take less than their sum, or more
+        DiskNode<K, V> merged = new DiskNode<>(left.pageId, true);
+        merged.keys.addAll(left.keys);
+        merged.keys.addAll(right.keys);
+        merged.values.addAll(left.values);
+        merged.values.addAll(right.values);
+        return pack(merged) <= pageSize;
+    }
+
+    void write(DiskNode<K, V> node, ByteBuffer page)
+    {
+        int plainSize = plainSize(node);
+        if (packs(node, plainSize))
+        {
+            int packedSize = pack(node);
+            if (packedSize < plainSize)
+            {
+                writeHeader(node, PACKED_LEAF, page);
+                page.put(HEADER_SIZE, packed, HEADER_SIZE, packedSize - HEADER_SIZE);
+                return;
+            }
+        }
+        writeHeader(node, node.leaf ? LEAF : INTERNAL, page);
+        int offset = HEADER_SIZE + node.keys.size() * SLOT_SIZE;
+        for (int i = 0; i < node.keys.size(); i ++)
+        {
+            page.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+            K key = node.keys.get(i);
+            keySerializer.write(page, offset, key);
+            offset += keySerializer.size(key);
+            if (node.leaf)
+            {
+                V value = node.values.get(i);
+                valueSerializer.write(page, offset, value);
+                offset += valueSerializer.size(value);
+            }
+            else
+            {
+                page.putInt(offset, node.children.get(i + 1));
+                offset += Integer.BYTES;
+            }
+        }
+    }
+
+    private boolean packs(DiskNode<K, V> node, int plainSize)
+    {
+        return packLeaves && node.leaf && plainSize <= MAX_PACKED_PAGES * pageSize;
+    }
+
+    private void writeHeader(DiskNode<K, V> node, byte type, ByteBuffer page)
+    {
+        page.put(TYPE_OFFSET, type);
+        page.put(VERSION_OFFSET, VERSION);
+        page.putShort(KEY_COUNT_OFFSET, (short) node.keys.size());
+        page.putInt(LINK_OFFSET, node.leaf ? node.next : node.children.get(0));
+        page.putLong(LSN_OFFSET, node.lsn);
+    }
+
+    /**
+     * Packs the leaf into {@link #packed}, all but the header.
+     *
+     * @return the size of the packed leaf, header included
+     */
+    private int pack(DiskNode<K, V> leaf)
+    {
+        // no encoding takes more than twice the plain one, see the class comment
+        int bound = 2 * plainSize(leaf) + 64;
+        if (packed.capacity() < bound)
+        {
+            packed = ByteBuffer.allocate(bound);
+        }
+        int offset = HEADER_SIZE;
+        packed.put(offset ++, keyEncoding);
+        long previous = 0;
+        String previousString = "";
+        for (K key : leaf.keys)
+        {
+            switch (keyEncoding)
+            {
+                case LONG_DELTAS:
+                case INT_DELTAS:
+                    long value = ((Number) key).longValue();
+                    offset = Serializers.writeVarLong(packed, offset, Serializers.zigzag(value - previous));
+                    previous = value;
+                    break;
+                case SHARED_PREFIXES:
+                    String string = (String) key;
+                    int shared = 0;
+                    int maxShared = Math.min(string.length(), previousString.length());
+                    while (shared < maxShared && string.charAt(shared) == previousString.charAt(shared))
+                    {
+                        shared ++;
+                    }
+                    // do not split a surrogate pair
+                    if (shared > 0 && Character.isHighSurrogate(string.charAt(shared - 1)))
+                    {
+                        shared --;
+                    }
+                    offset = Serializers.writeVarLong(packed, offset, shared);
+                    String rest = string.substring(shared);
+                    Serializers.STRING.write(packed, offset, rest);
+                    offset += Serializers.STRING.size(rest);
+                    previousString = string;
+                    break;
+                default:
+                    keySerializer.write(packed, offset, key);
+                    offset += keySerializer.size(key);
+            }
+        }
+        int rawLength = 0;
+        for (V value : leaf.values)
+        {
+            rawLength += valueSerializer.size(value);
+        }
+        if (rawValues.capacity() < rawLength)
+        {
+            rawValues = ByteBuffer.allocate(Math.max(rawLength, 2 * rawValues.capacity()));
+        }
+        int rawOffset = 0;
+        for (V value : leaf.values)
+        {
+            valueSerializer.write(rawValues, rawOffset, value);
+            rawOffset += valueSerializer.size(value);
+        }
+        int blockOffset = offset + 1 + Serializers.varLongSize(rawLength) + Integer.BYTES;
+        int blockEnd = lz.compress(rawValues.array(), rawLength, packed.array(), blockOffset);
+        if (blockEnd - blockOffset < rawLength)
+        {
+            packed.put(offset ++, COMPRESSED_VALUES);
+            offset = Serializers.writeVarLong(packed, offset, rawLength);
+            packed.putInt(offset, blockEnd - blockOffset);
+            return blockEnd;
+        }
+        packed.put(offset ++, RAW_VALUES);
+        offset = Serializers.writeVarLong(packed, offset, rawLength);
+        packed.put(offset, rawValues, 0, rawLength);
+        return offset + rawLength;
+    }
+
+    /**
+     * @return the LSN of the node in the page, 0 if the page holds none
+     */
+    static long lsn(ByteBuffer page)
+    {
+        byte type = page.get(TYPE_OFFSET);
+        return type == LEAF || type == INTERNAL || type == PACKED_LEAF ? page.getLong(LSN_OFFSET) : 0;
+    }
+
+    static void setLsn(ByteBuffer page, long lsn)
+    {
+        page.putLong(LSN_OFFSET, lsn);
+    }
+
+    /**
+     * @throws IOException if the page holds a damaged packed leaf
+     */
+    DiskNode<K, V> read(int pageId, ByteBuffer page) throws IOException
+    {
+        byte type = page.get(TYPE_OFFSET);
+        if (type != LEAF && type != INTERNAL && type != PACKED_LEAF)
+        {
+            throw new IllegalStateException("Page " + pageId + " holds no node");
+        }
+        if (page.get(VERSION_OFFSET) != VERSION)
+        {
+            throw new IllegalStateException("Page " + pageId + " holds a node of unknown format version "
+                                                    + page.get(VERSION_OFFSET));
+        }
+        DiskNode<K, V> node = new DiskNode<>(pageId, type != INTERNAL);
+        node.lsn = page.getLong(LSN_OFFSET);
+        int keyCount = keyCount(page);
+        if (type == PACKED_LEAF)
+        {
+            node.next = page.getInt(LINK_OFFSET);
+            try
+            {
+                unpack(page, keyCount, node);
+            }
+            catch (IOException | IndexOutOfBoundsException | IllegalArgumentException e)
+            {
+                throw new IOException("Corrupt packed leaf in page " + pageId, e);
+            }
+            return node;
+        }
+        if (node.leaf)
+        {
+            node.next = page.getInt(LINK_OFFSET);
+        }
+        else
+        {
+            node.children.add(page.getInt(LINK_OFFSET));
+        }
+        for (int i = 0; i < keyCount; i ++)
+        {
+            int offset = slot(page, i);
+            K key = keySerializer.read(page, offset);
+            node.keys.add(key);
+            offset += keySerializer.size(key);
+            if (node.leaf)
+            {
+                node.values.add(valueSerializer.read(page, offset));
+            }
+            else
+            {
+                node.children.add(page.getInt(offset));
+            }
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void unpack(ByteBuffer page, int keyCount, DiskNode<K, V> leaf) throws IOException
+    {
+        int offset = HEADER_SIZE;
+        byte encoding = page.get(offset ++);
+        long previous = 0;
+        String previousString = "";
+        for (int i = 0; i < keyCount; i ++)
+        {
+            switch (encoding)
+            {
+                case LONG_DELTAS:
+                case INT_DELTAS:
+                    long delta = Serializers.readVarLong(page, offset);
+                    offset += Serializers.varLongSize(delta);
+                    previous += Serializers.unzigzag(delta);
+                    Object number = encoding == LONG_DELTAS ? (Object) previous : (Object) (int) previous;
+                    leaf.keys.add((K) number);
+                    break;
+                case SHARED_PREFIXES:
+                    int shared = (int) Serializers.readVarLong(page, offset);
+                    offset += Serializers.varLongSize(shared);
+                    String rest = Serializers.STRING.read(page, offset);
+                    offset += Serializers.STRING.size(rest);
+                    previousString = previousString.substring(0, shared) + rest;
+                    leaf.keys.add((K) previousString);
+                    break;
+                default:
+                    K key = keySerializer.read(page, offset);
+                    offset += keySerializer.size(key);
+                    leaf.keys.add(key);
+            }
+        }
+        byte valueEncoding = page.get(offset ++);
+        int rawLength = (int) Serializers.readVarLong(page, offset);
+        offset += Serializers.varLongSize(rawLength);
+        ByteBuffer values = page;
+        if (valueEncoding == COMPRESSED_VALUES)
+        {
+            int compressedLength = page.getInt(offset);
+            // a sequence produces at most 255 bytes for each of its bytes
+            if (compressedLength < 0 || compressedLength > page.limit() || rawLength < 0
+                    || rawLength > 255L * compressedLength)
+            {
+                throw new IOException("Compressed values of " + compressedLength + " bytes said to hold " + rawLength);
+            }
+            if (rawValues.capacity() < rawLength)
+            {
+                rawValues = ByteBuffer.allocate(Math.max(rawLength, 2 * rawValues.capacity()));
+            }
+            int decompressed = LzCodec.decompress(page, offset + Integer.BYTES, compressedLength, rawValues.array());
+            if (decompressed != rawLength)
+            {
+                throw new IOException("Compressed values hold " + decompressed + " bytes, not " + rawLength);
+            }
+            values = rawValues;
+            offset = 0;
+        }
+        for (int i = 0; i < keyCount; i ++)
+        {
+            V value = valueSerializer.read(values, offset);
+            offset += valueSerializer.size(value);
+            leaf.values.add(value);
+        }
+    }
+
+    private static int keyCount(ByteBuffer page)
+    {
+        return Short.toUnsignedInt(page.getShort(KEY_COUNT_OFFSET));
+    }
+
+    private static int slot(ByteBuffer page, int pos)
+    {
+        return Short.toUnsignedInt(page.getShort(HEADER_SIZE + pos * SLOT_SIZE));
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A file of fixed-size pages, memory-mapped in chunks, so reading a page is a plain memory access and the OS page
+ * cache decides what stays in memory. The last chunk is mapped only as far as the pages reach, and remapped larger as
+ * they grow, so the file stays about as large as its pages. Page 0 is the meta page, its first bytes describe the
+ * file, the rest from {@link #META_USER_OFFSET} on belongs to the tree. Freed pages are chained into a free list and
+ * handed out again before the file grows.
+ * <p>
+ * The page count and the free list are tracked in memory, and only reach the file through {@link #metaImage()} and
+ * {@link #chainFreed()}, so that the tree decides when, along with its own pages. Pages may be written by one thread
+ * while another allocates or reads, and reaching a page takes no lock once its chunk is mapped.
+ */
+final class PageFile implements AutoCloseable
+{
+    static final int NULL = -1;
+    static final int META_PAGE = 0;
+
+    static final int MIN_PAGE_SIZE = 4 * 1024;
+    static final int MAX_PAGE_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x42505446; // "BPTF"
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int PAGE_SIZE_OFFSET = 8;
+    private static final int PAGE_COUNT_OFFSET = 12;
+    private static final int FREE_LIST_HEAD_OFFSET = 16;
+    static final int META_USER_OFFSET = 64;
+
+    // a freed page starts with a zero type byte, like no node page does, followed by the next free page
+    private static final int FREE_NEXT_OFFSET = 4;
+
+    private static final int CHUNK_BYTES = 1 << 26;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int pagesPerChunk;
+    // replaced, never changed, when growing
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private final boolean created;
+    private final ByteBuffer meta;
+
+    private int pageCount;
+    private int freeListHead;
+    // next free page of the pages chained since their free page was last written
+    private final Map<Integer, Integer> pendingNext = new HashMap<>();
+    // freed since the last chainFreed(), handed out first
+    private final List<Integer> freed = new ArrayList<>();
+    // chained by the last chainFreed(), not handed out before their images are written
+    private final Set<Integer> chaining = new HashSet<>();
+
+    private PageFile(FileChannel channel, int pageSize, boolean created) throws IOException
+    {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.pagesPerChunk = CHUNK_BYTES / pageSize;
+        this.created = created;
+        this.meta = page(META_PAGE);
+        reload();
+    }
+
+    /**
+     * Opens the file, creating it with the given page size if missing or empty. An existing file keeps the page size
+     * it was created with.
+     *
+     * @throws IllegalArgumentException if the page size is not a power of two between 4 and 64 KiB
+     * @throws IOException if the file exists but is no page file, or a corrupt one
+     */
+    static PageFile open(Path path, int pageSize) throws IOException
+    {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+        {
+            throw new IllegalArgumentException("Page size must be a power of two between 4 and 64 KiB: " + pageSize);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try
+        {
+            if (channel.size() == 0)
+            {
+                PageFile file = new PageFile(channel, pageSize, true);
+                file.meta.putInt(MAGIC_OFFSET, MAGIC);
+                file.meta.putInt(VERSION_OFFSET, FORMAT_VERSION);
+                file.meta.putInt(PAGE_SIZE_OFFSET, pageSize);
+                file.meta.putInt(PAGE_COUNT_OFFSET, 1);
+                file.meta.putInt(FREE_LIST_HEAD_OFFSET, NULL);
+                file.pageCount = 1;
+                file.freeListHead = NULL;
+                return file;
+            }
+            ByteBuffer header = ByteBuffer.allocate(PAGE_COUNT_OFFSET);
+            while (header.hasRemaining())
+            {
+                if (channel.read(header, header.position()) < 0)
+                {
+                    throw new IOException("Truncated page file: " + path);
+                }
+            }
+            if (header.getInt(MAGIC_OFFSET) != MAGIC)
+            {
+                throw new IOException("Not a page file: " + path);
+            }
+            if (header.getInt(VERSION_OFFSET) != FORMAT_VERSION)
+            {
+                throw new IOException("Unsupported page file version " + header.getInt(VERSION_OFFSET) + ": " + path);
+            }
+            int existingPageSize = header.getInt(PAGE_SIZE_OFFSET);
+            if (existingPageSize < MIN_PAGE_SIZE || existingPageSize > MAX_PAGE_SIZE
+                    || Integer.bitCount(existingPageSize) != 1)
+            {
+                throw new IOException("Corrupt page file, page size " + existingPageSize + ": " + path);
+            }
+            return new PageFile(channel, existingPageSize, false);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the file was created by {@link #open(Path, int)}, rather than opened with content
+     */
+    boolean created()
+    {
+        return created;
+    }
+
+    int pageSize()
+    {
+        return pageSize;
+    }
+
+    synchronized int pageCount()
+    {
+        return pageCount;
+    }
+
+    synchronized int freeListHead()
+    {
+        return freeListHead;
+    }
+
+    /**
+     * @return the meta page, of which the tree owns everything from {@link #META_USER_OFFSET} on, only to be read
+     */
+    ByteBuffer meta()
+    {
+        return meta;
+    }
+
+    /**
+     * Reads the page count and free list from the meta page, which may have been rewritten since opening.
+     */
+    synchronized void reload()
+    {
+        pageCount = meta.getInt(PAGE_COUNT_OFFSET);
+        freeListHead = meta.getInt(FREE_LIST_HEAD_OFFSET);
+        pendingNext.clear();
+        freed.clear();
+        chaining.clear();
+    }
+
+    /**
+     * Sets the page count and empties the free list, for a file whose pages are tracked by the tree rather than by the
+     * meta page, which then hands its free pages to {@link #free(int)}.
+     */
+    synchronized void reset(int pageCount)
+    {
+        this.pageCount = pageCount;
+        freeListHead = NULL;
+        pendingNext.clear();
+        freed.clear();
+        chaining.clear();
+    }
+
+    /**
+     * @return a copy of the meta page, with the current page count and free list, for the tree to fill in its part
+     */
+    synchronized ByteBuffer metaImage()
+    {
+        ByteBuffer image = ByteBuffer.allocate(pageSize);
+        image.put(meta.duplicate().clear());
+        image.putInt(PAGE_COUNT_OFFSET, pageCount);
+        image.putInt(FREE_LIST_HEAD_OFFSET, freeListHead);
+        return image.clear();
+    }
+
+    /**
+     * @return a view of exactly the page, writes go straight to the mapped file
+     */
+    ByteBuffer page(int pageId) throws IOException
+    {
+        int chunkIndex = pageId / pagesPerChunk;
+        int offset = (pageId % pagesPerChunk) * pageSize;
+        MappedByteBuffer[] mapped = chunks;
+        if (mapped.length <= chunkIndex || mapped[chunkIndex].capacity() < offset + pageSize)
+        {
+            mapped = map(chunkIndex, offset + pageSize);
+        }
+        ByteBuffer page = mapped[chunkIndex].duplicate();
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Maps the chunks up to the given one, whole but for the given one, which is mapped to cover at least the given
+     * bytes and at least what the file holds. A chunk mapped before is remapped to twice its size, or more, so that a
+     * growing file is remapped a few times per chunk only. Views of the mappings replaced stay valid, they map the same
+     * file pages.
+     */
+    private synchronized MappedByteBuffer[] map(int chunkIndex, int minBytes) throws IOException
+    {
+        MappedByteBuffer[] mapped = chunks;
+        if (mapped.length > chunkIndex && mapped[chunkIndex].capacity() >= minBytes)
+        {
+            return mapped;
+        }
+        mapped = Arrays.copyOf(mapped, Math.max(mapped.length, chunkIndex + 1));
+        long fileSize = channel.size();
+        for (int i = Math.max(chunks.length - 1, 0); i <= chunkIndex; i ++)
+        {
+            long start = (long) i * CHUNK_BYTES;
+            int current = mapped[i] == null ? 0 : mapped[i].capacity();
+            int size = CHUNK_BYTES;
+            if (i == chunkIndex)
+            {
+                long existing = Math.max(0, Math.min(fileSize - start, CHUNK_BYTES));
+                existing = (existing + pageSize - 1) / pageSize * pageSize;
+                size = (int) Math.min(CHUNK_BYTES, Math.max(Math.max(minBytes, 2L * current), existing));
+            }
+            if (size > current)
+            {
+                // mapping past the end grows the file
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            }
+        }
+        chunks = mapped;
+        return mapped;
+    }
+
+    /**
+     * Copies the image over the page.
+     */
+    void write(int pageId, ByteBuffer image) throws IOException
+    {
+        page(pageId).put(image.duplicate().clear());
+    }
+
+    /**
+     * @return a page for the caller to fill, a freed one if any
+     */
+    synchronized int allocate() throws IOException
+    {
+        if (!freed.isEmpty())
+        {
+            return freed.remove(freed.size() - 1);
+        }
+        int pageId = freeListHead;
+        if (pageId != NULL && !chaining.contains(pageId))
+        {
+            Integer next = pendingNext.remove(pageId);
+            freeListHead = next != null ? next : page(pageId).getInt(FREE_NEXT_OFFSET);
+        }
+        else
+        {
+            pageId = pageCount;
+            pageCount ++;
+        }
+        return pageId;
+    }
+
+    /**
+     * Takes the page out of the freed pages or the free list, or past the page count, as {@link #allocate()} did when
+     * it returned it. Used to redo allocations logged since the page count and free list were last written, the pages
+     * taken from the free list may have been overwritten since, so the next free page is given.
+     *
+     * @param nextFree the free list head left by the allocation
+     */
+    synchronized void markAllocated(int pageId, int nextFree) throws IOException
+    {
+        if (freed.remove((Integer) pageId))
+        {
+            return;
+        }
+        if (pageId == freeListHead)
+        {
+            freeListHead = nextFree;
+        }
+        else if (pageId >= pageCount)
+        {
+            pageCount = pageId + 1;
+        }
+        else
+        {
+            throw new IOException("Page " + pageId + " was never allocated this way");
+        }
+    }
+
+    /**
+     * Makes the page available to {@link #allocate()} right away, it joins the free list in the file with the next
+     * {@link #chainFreed()}.
+     */
+    synchronized void free(int pageId)
+    {
+        freed.add(pageId);
+    }
+
+    /**
+     * Chains the pages freed since the last call onto the free list.
+     *
+     * @return the images of these pages, to be written along with {@link #metaImage()}
+     */
+    synchronized Map<Integer, ByteBuffer> chainFreed()
+    {
+        Map<Integer, ByteBuffer> images = new HashMap<>();
+        for (int pageId : freed)
+        {
+            ByteBuffer image = ByteBuffer.allocate(pageSize);
+            image.put(0, (byte) 0);
+            image.putInt(FREE_NEXT_OFFSET, freeListHead);
+            images.put(pageId, image);
+            pendingNext.put(pageId, freeListHead);
+            chaining.add(pageId);
+            freeListHead = pageId;
+        }
+        freed.clear();
+        return images;
+    }
+
+    /**
+     * The images of the last {@link #chainFreed()} are written, or dropped, their pages may be handed out.
+     */
+    synchronized void chainDone()
+    {
+        chaining.clear();
+    }
+
+    /**
+     * Writes all changed pages through to the storage device.
+     */
+    void force()
+    {
+        for (MappedByteBuffer chunk : chunks)
+        {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * 2Q eviction after Johnson and Shasha. A page loaded for the first time enters a FIFO queue (A1in), and when pushed
+ * out of it, only its id is remembered for a while (A1out). A page loaded again while remembered is known to be reused
+ * and enters an LRU queue (Am). Victims come from A1in while it holds more than its share of the frames, from Am
+ * otherwise, so pages touched once by a scan leave quickly without first pushing out the working set.
+ */
+public class TwoQueuePolicy implements EvictionPolicy
+{
+    // shares of the frame count given to A1in, and remembered in A1out, as suggested in the paper
+    private static final double IN_SHARE = 0.25;
+    private static final double OUT_SHARE = 0.5;
+
+    private int inCapacity;
+    private int outCapacity;
+
+    // frames in insertion order, oldest first
+    private final LinkedHashSet<Integer> in = new LinkedHashSet<>();
+    // frames in access order, least recently used first
+    private final LinkedHashSet<Integer> main = new LinkedHashSet<>();
+    // page ids pushed out of A1in, oldest first
+    private final LinkedHashMap<Integer, Boolean> out = new LinkedHashMap<>();
+
+    @Override
+    public void init(int frameCount)
+    {
+        inCapacity = Math.max(1, (int) (frameCount * IN_SHARE));
+        outCapacity = Math.max(1, (int) (frameCount * OUT_SHARE));
+    }
+
+    @Override
+    public void accessed(int frame, int pageId, boolean hit)
+    {
+        if (hit)
+        {
+            // a hit in A1in says nothing yet, the page may just be part of a scan
+            if (main.remove(frame))
+            {
+                main.add(frame);
+            }
+        }
+        else if (out.remove(pageId) != null)
+        {
+            main.add(frame);
+        }
+        else
+        {
+            in.add(frame);
+        }
+    }
+
+    @Override
+    public void removed(int frame, int pageId)
+    {
+        if (in.remove(frame))
+        {
+            out.put(pageId, Boolean.TRUE);
+            if (out.size() > outCapacity)
+            {
+                Iterator<Map.Entry<Integer, Boolean>> oldest = out.entrySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        else
+        {
+            main.remove(frame);
+        }
+    }
+
+    @Override
+    public int victim(IntPredicate evictable)
+    {
+        int victim = -1;
+        if (in.size() > inCapacity)
+        {
+            victim = first(in, evictable);
+        }
+        if (victim < 0)
+        {
+            victim = first(main, evictable);
+        }
+        if (victim < 0)
+        {
+            victim = first(in, evictable);
+        }
+        return victim;
+    }
+
+    private int first(LinkedHashSet<Integer> queue, IntPredicate evictable)
+    {
+        for (int frame : queue)
+        {
+            if (evictable.test(frame))
+            {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
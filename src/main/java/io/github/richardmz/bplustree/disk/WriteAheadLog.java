@@ -0,0 +1,597 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.KeySerializer;
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.ValueSerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Redo log of the changes made to a {@link DiskBPlusTree}, in segment files next to the tree's file, named after it
+ * with a ".wal." suffix and the log sequence number (LSN) of their first record. A change confined to a leaf is logged
+ * as the key, maybe a value, and the leaf's page, and is redone on that page if the page is older than the record. A
+ * structure modification, the splits or merges caused by one change, is logged as the images of all nodes it changed,
+ * followed by an end record with the new root, size, and the pages it allocated and freed. The images are only redone
+ * once the end record is read, a modification without one is rolled back by skipping it (nested top action); none of
+ * its pages can have been written, as they all carry the LSN of the end record. A checkpoint record marks that all
+ * changes up to an LSN are in the pages, the segments holding only older records are then deleted.
+ * <p>
+ * Records are appended to a buffer, and a flusher thread writes and forces the buffer in one go, so every writer
+ * waiting at that point shares one force (group commit). The flush interval lets the flusher wait for more writers
+ * before forcing, trading latency for fewer forces.
+ */
+final class WriteAheadLog<K, V> implements AutoCloseable
+{
+    static final byte INSERT = 1;
+    static final byte PUT = 2;
+    static final byte DELETE = 3;
+    static final byte CHECKPOINT = 4;
+    static final byte IMAGE = 5;
+    static final byte STRUCTURE_END = 6;
+
+    // a change is the type, page id and tree size, then the key and maybe the value
+    private static final int CHANGE_KEY_OFFSET = 1 + Integer.BYTES + Long.BYTES;
+
+    private static final String SEGMENT_INFIX = ".wal.";
+    private static final long SEGMENT_BYTES = 1L << 26;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 16;
+
+    // every record starts with the length of its body and the CRC32 of the body, the body with the type byte
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final Logger logger = Logger.getInstance();
+
+    private final Path path;
+    private final KeySerializer<K> keySerializer;
+    private final ValueSerializer<V> valueSerializer;
+    private final long flushIntervalNanos;
+
+    // guards the channel and the segments, held by the flusher while writing
+    private final Object segmentLock = new Object();
+    private FileChannel channel;
+    // first LSN of every segment, oldest first
+    private final Deque<Long> segments = new ArrayDeque<>();
+    private long writtenLsn;
+
+    // guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long appendedLsn;
+    private long durableLsn;
+    @Nullable
+    private IOException failure = null;
+    private boolean closed = false;
+
+    private final Thread flusher;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Called for every replayed change and complete structure modification.
+     */
+    interface Redo<K, V>
+    {
+        /**
+         * @param value null for a deletion
+         * @param size tree size after the change
+         */
+        void change(long lsn, byte type, int pageId, K key, @Nullable V value, long size) throws IOException;
+
+        /**
+         * @param lsn LSN of the end record, which all the images are to carry
+         * @param images page images by page id
+         * @param allocated page ids allocated, in order, to the free list head left by each allocation
+         */
+        void structure(long lsn, Map<Integer, ByteBuffer> images, int rootPageId, long size,
+                       Map<Integer, Integer> allocated, List<Integer> freed) throws IOException;
+    }
+
+    private WriteAheadLog(Path path, KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer,
+                          Duration flushInterval, long nextLsn) throws IOException
+    {
+        this.path = path;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.appendedLsn = nextLsn - 1;
+        this.durableLsn = nextLsn - 1;
+        this.writtenLsn = nextLsn - 1;
+        this.channel = openSegment(nextLsn);
+        segments.add(nextLsn);
+        this.flusher = new Thread(this::flushLoop, "bplustree-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Deletes the segments of an earlier log, whose changes must all be in the pages and forced by now, and starts
+     * a new one.
+     *
+     * @param nextLsn LSN of the first record, after all LSNs of the earlier log
+     */
+    static <K, V> WriteAheadLog<K, V> open(Path path, KeySerializer<K> keySerializer,
+                                           ValueSerializer<V> valueSerializer, Duration flushInterval, long nextLsn)
+            throws IOException
+    {
+        for (long oldSegment : listSegments(path))
+        {
+            Files.delete(segmentPath(path, oldSegment));
+        }
+        return new WriteAheadLog<>(path, keySerializer, valueSerializer, flushInterval, nextLsn);
+    }
+
+    /**
+     * Redoes every change and complete structure modification left by an earlier log after the given LSN, oldest
+     * first. Replay stops at the first record that is torn or fails its checksum, normally the last one, written while
+     * crashing.
+     *
+     * @return the LSN of the last record read, fromLsn if none
+     */
+    static <K, V> long replay(Path path, long fromLsn, KeySerializer<K> keySerializer,
+                              ValueSerializer<V> valueSerializer, Redo<K, V> redo) throws IOException
+    {
+        long lastLsn = fromLsn;
+        CRC32 crc = new CRC32();
+        // images of the structure modification being read
+        Map<Integer, ByteBuffer> images = new HashMap<>();
+        replay:
+        for (long segment : listSegments(path))
+        {
+            if (segment > lastLsn + 1)
+            {
+                logger.info("Log segment " + segment + " does not follow LSN " + lastLsn + ", replay stops");
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(path, segment)));
+            for (long lsn = segment; buffer.remaining() > 0; lsn ++)
+            {
+                if (buffer.remaining() < RECORD_HEADER_SIZE)
+                {
+                    logger.info("Log segment " + segment + " ends in a torn record after LSN " + lastLsn);
+                    break replay;
+                }
+                int bodyLength = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (bodyLength <= 0 || bodyLength > buffer.remaining())
+                {
+                    logger.info("Log segment " + segment + " ends in a torn record after LSN " + lastLsn);
+                    break replay;
+                }
+                crc.reset();
+                crc.update(buffer.array(), buffer.position(), bodyLength);
+                if ((int) crc.getValue() != checksum)
+                {
+                    logger.info("Log segment " + segment + " ends in a corrupt record after LSN " + lastLsn);
+                    break replay;
+                }
+                int offset = buffer.position();
+                buffer.position(offset + bodyLength);
+                if (lsn <= lastLsn)
+                {
+                    continue;
+                }
+                lastLsn = lsn;
+                byte type = buffer.get(offset);
+                if (type == IMAGE)
+                {
+                    ByteBuffer image = ByteBuffer.allocate(bodyLength - 1 - Integer.BYTES);
+                    image.put(buffer.duplicate().position(offset + 1 + Integer.BYTES).limit(offset + bodyLength));
+                    images.put(buffer.getInt(offset + 1), image.clear());
+                }
+                else if (type == STRUCTURE_END)
+                {
+                    ByteBuffer end = buffer.duplicate().position(offset + 1);
+                    int rootPageId = end.getInt();
+                    long size = end.getLong();
+                    Map<Integer, Integer> allocated = new LinkedHashMap<>();
+                    for (int i = end.getInt(); i > 0; i --)
+                    {
+                        allocated.put(end.getInt(), end.getInt());
+                    }
+                    List<Integer> freed = new ArrayList<>();
+                    for (int i = end.getInt(); i > 0; i --)
+                    {
+                        freed.add(end.getInt());
+                    }
+                    redo.structure(lsn, images, rootPageId, size, allocated, freed);
+                    images.clear();
+                }
+                else if (type != CHECKPOINT)
+                {
+                    int pageId = buffer.getInt(offset + 1);
+                    long size = buffer.getLong(offset + 1 + Integer.BYTES);
+                    K key = keySerializer.read(buffer, offset + CHANGE_KEY_OFFSET);
+                    V value = null;
+                    if (type != DELETE)
+                    {
+                        value = valueSerializer.read(buffer, offset + CHANGE_KEY_OFFSET + keySerializer.size(key));
+                    }
+                    redo.change(lsn, type, pageId, key, value, size);
+                }
+            }
+        }
+        if (!images.isEmpty())
+        {
+            logger.info("Rolled back a structure modification of " + images.size() + " pages cut off by a crash");
+        }
+        return lastLsn;
+    }
+
+
+    private static Path segmentPath(Path path, long segment)
+    {
+        return path.resolveSibling(path.getFileName() + SEGMENT_INFIX + String.format("%016d", segment));
+    }
+
+    /**
+     * @return the first LSNs of the existing segments, in ascending order
+     */
+    private static List<Long> listSegments(Path path) throws IOException
+    {
+        List<Long> segments = new ArrayList<>();
+        Path directory = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + SEGMENT_INFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*"))
+        {
+            for (Path segmentPath : stream)
+            {
+                try
+                {
+                    segments.add(Long.parseLong(segmentPath.getFileName().toString().substring(prefix.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    // not ours
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private FileChannel openSegment(long segment) throws IOException
+    {
+        return FileChannel.open(segmentPath(path, segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+
+    // Appending =======================================================================================================
+
+    /**
+     * Buffers the record of a change confined to a leaf, to be forced by the flusher. Records must be appended in the
+     * order the changes were made.
+     *
+     * @param value ignored for a deletion
+     * @param size tree size after the change
+     * @return the LSN of the record, to wait for with {@link #awaitDurable(long)}
+     */
+    synchronized long append(byte type, int pageId, K key, @Nullable V value, long size) throws IOException
+    {
+        checkOpen();
+        int bodyLength = CHANGE_KEY_OFFSET + keySerializer.size(key)
+                + (type == DELETE ? 0 : valueSerializer.size(value));
+        int offset = startRecord(bodyLength);
+        pending.put(offset, type);
+        pending.putInt(offset + 1, pageId);
+        pending.putLong(offset + 1 + Integer.BYTES, size);
+        keySerializer.write(pending, offset + CHANGE_KEY_OFFSET, key);
+        if (type != DELETE)
+        {
+            valueSerializer.write(pending, offset + CHANGE_KEY_OFFSET + keySerializer.size(key), value);
+        }
+        return endRecord(offset, bodyLength);
+    }
+
+    /**
+     * Buffers the records of a structure modification, all at once so that no other record comes between them.
+     *
+     * @param images page images by page id
+     * @param allocated page ids allocated, in order, to the free list head left by each allocation
+     * @return the LSN of the end record, which all the changed nodes are to carry
+     */
+    synchronized long appendStructure(Map<Integer, ByteBuffer> images, int rootPageId, long size,
+                                      Map<Integer, Integer> allocated, List<Integer> freed) throws IOException
+    {
+        checkOpen();
+        for (Map.Entry<Integer, ByteBuffer> image : images.entrySet())
+        {
+            ByteBuffer bytes = image.getValue().duplicate().clear();
+            int bodyLength = 1 + Integer.BYTES + bytes.remaining();
+            int offset = startRecord(bodyLength);
+            pending.put(offset, IMAGE);
+            pending.putInt(offset + 1, image.getKey());
+            pending.put(offset + 1 + Integer.BYTES, bytes, 0, bytes.remaining());
+            endRecord(offset, bodyLength);
+        }
+        int bodyLength = 1 + Integer.BYTES + Long.BYTES + (2 + 2 * allocated.size() + freed.size()) * Integer.BYTES;
+        int offset = startRecord(bodyLength);
+        ByteBuffer end = pending.duplicate().position(offset);
+        end.put(STRUCTURE_END);
+        end.putInt(rootPageId);
+        end.putLong(size);
+        end.putInt(allocated.size());
+        for (Map.Entry<Integer, Integer> allocation : allocated.entrySet())
+        {
+            end.putInt(allocation.getKey());
+            end.putInt(allocation.getValue());
+        }
+        end.putInt(freed.size());
+        for (int pageId : freed)
+        {
+            end.putInt(pageId);
+        }
+        return endRecord(offset, bodyLength);
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (failure != null)
+        {
+            throw new IOException("Log failed earlier", failure);
+        }
+        if (closed)
+        {
+            throw new IllegalStateException("Log closed");
+        }
+    }
+
+    /**
+     * @return the offset of the body of the new record in the buffer
+     */
+    private int startRecord(int bodyLength)
+    {
+        ensureRemaining(RECORD_HEADER_SIZE + bodyLength);
+        return pending.position() + RECORD_HEADER_SIZE;
+    }
+
+    private long endRecord(int offset, int bodyLength)
+    {
+        int start = offset - RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(pending.array(), offset, bodyLength);
+        pending.putInt(start, bodyLength);
+        pending.putInt(start + 4, (int) crc.getValue());
+        pending.position(offset + bodyLength);
+        appendedLsn ++;
+        notifyAll();
+        return appendedLsn;
+    }
+
+    private void ensureRemaining(int bytes)
+    {
+        if (pending.remaining() < bytes)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    /**
+     * Blocks until the record and all before it are forced to the storage device.
+     */
+    synchronized void awaitDurable(long lsn) throws IOException
+    {
+        while (durableLsn < lsn)
+        {
+            if (failure != null)
+            {
+                throw new IOException("Log failed", failure);
+            }
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the log");
+            }
+        }
+    }
+
+
+    // Flushing ========================================================================================================
+
+    private void flushLoop()
+    {
+        while (true)
+        {
+            synchronized (this)
+            {
+                while (pending.position() == 0 && !closed)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // only closing stops the flusher
+                    }
+                }
+                if (pending.position() == 0)
+                {
+                    return;
+                }
+            }
+            if (flushIntervalNanos > 0)
+            {
+                // let more writers join the batch
+                try
+                {
+                    Thread.sleep(flushIntervalNanos / 1_000_000, (int) (flushIntervalNanos % 1_000_000));
+                }
+                catch (InterruptedException e)
+                {
+                    // flush what there is
+                }
+            }
+            ByteBuffer batch;
+            long batchLsn;
+            synchronized (this)
+            {
+                batch = pending;
+                batchLsn = appendedLsn;
+                pending = spare;
+            }
+            try
+            {
+                batch.flip();
+                synchronized (segmentLock)
+                {
+                    while (batch.hasRemaining())
+                    {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                    writtenLsn = batchLsn;
+                    if (channel.size() >= SEGMENT_BYTES)
+                    {
+                        rollSegment();
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this)
+            {
+                spare = batch;
+                spare.clear();
+                durableLsn = batchLsn;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Records that the changes of all records up to the LSN are in the pages and forced, and deletes the segments
+     * holding only such records. The current segment is closed if it holds any, so that the next checkpoint can
+     * delete it.
+     */
+    void checkpoint(long lsn) throws IOException
+    {
+        synchronized (this)
+        {
+            checkOpen();
+            int offset = startRecord(1 + Long.BYTES);
+            pending.put(offset, CHECKPOINT);
+            pending.putLong(offset + 1, lsn);
+            endRecord(offset, 1 + Long.BYTES);
+        }
+        synchronized (segmentLock)
+        {
+            if (segments.getLast() <= lsn && writtenLsn >= segments.getLast())
+            {
+                rollSegment();
+            }
+            // a segment ends right before the next one begins
+            while (segments.size() > 1 && nextSegmentAfter(segments.getFirst()) <= lsn + 1)
+            {
+                Files.delete(segmentPath(path, segments.removeFirst()));
+            }
+        }
+    }
+
+    private long nextSegmentAfter(long segment)
+    {
+        for (long next : segments)
+        {
+            if (next > segment)
+            {
+                return next;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void rollSegment() throws IOException
+    {
+        channel.close();
+        channel = openSegment(writtenLsn + 1);
+        segments.add(writtenLsn + 1);
+    }
+
+    /**
+     * @return the number of segments, a checkpoint is due if there are more than a couple
+     */
+    int segmentCount()
+    {
+        synchronized (segmentLock)
+        {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Forces what is still buffered, then stops the flusher.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        try
+        {
+            flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the log");
+        }
+        synchronized (segmentLock)
+        {
+            channel.close();
+        }
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                throw new IOException("Log failed", failure);
+            }
+        }
+    }
+}
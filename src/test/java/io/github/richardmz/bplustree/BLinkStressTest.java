@@ -0,0 +1,269 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writers insert, replace and delete keys of their own, splitting and then emptying whole runs of leaves, while
+ * readers check that keys pinned for the whole run are always found, by searches and by range queries in key order.
+ * Writers keep a shared reference map up to date, which the tree must match after every change of a writer and in the
+ * end. A value is its key plus KEY_RANGE times the round that wrote it, so a range query shows its keys.
+ */
+public class BLinkStressTest
+{
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int ROUNDS = 300;
+    private static final int KEY_RANGE = 40000;
+    // every key divisible by it stays in the tree all along
+    private static final int PIN = 50;
+
+    private static final AtomicReference<String> failure = new AtomicReference<>();
+    private static final AtomicBoolean stopped = new AtomicBoolean();
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            for (int degree : new int[] {3, 4, 8, 32})
+            {
+                BLinkTree<Integer, Integer> bLinkTree = new BLinkTree<>(degree);
+                Map<Integer, Integer> reference = new ConcurrentSkipListMap<>();
+                for (int key = 0; key < KEY_RANGE; key += PIN)
+                {
+                    bLinkTree.insert(key, key);
+                    reference.put(key, key);
+                }
+
+                logger.info("Degree " + degree + ": writing and reading...");
+
+                stopped.set(false);
+                AtomicLong reads = new AtomicLong();
+                List<Thread> writers = new ArrayList<>();
+                List<Thread> readers = new ArrayList<>();
+                for (int i = 0; i < WRITERS; i ++)
+                {
+                    int id = i;
+                    writers.add(new Thread(() -> write(bLinkTree, id, new Random(id), reference)));
+                }
+                for (int i = 0; i < READERS; i ++)
+                {
+                    int seed = -i - 1;
+                    readers.add(new Thread(() -> read(bLinkTree, new Random(seed), reads)));
+                }
+                long startTime = System.currentTimeMillis();
+                readers.forEach(Thread::start);
+                writers.forEach(Thread::start);
+                for (Thread writer : writers)
+                {
+                    writer.join();
+                }
+                stopped.set(true);
+                for (Thread reader : readers)
+                {
+                    reader.join();
+                }
+                long endTime = System.currentTimeMillis();
+
+                if (failure.get() != null)
+                {
+                    logger.error(failure.get());
+                    System.exit(1);
+                }
+                if (!bLinkTree.rangeQuery(0, KEY_RANGE).equals(new ArrayList<>(reference.values()))
+                        || bLinkTree.size() != reference.size())
+                {
+                    logger.error(String.format("Degree %d: the tree holds %d entries, the reference map %d", degree,
+                                               bLinkTree.size(), reference.size()));
+                    System.exit(1);
+                }
+                for (Map.Entry<Integer, Integer> entry : reference.entrySet())
+                {
+                    if (!entry.getValue().equals(bLinkTree.search(entry.getKey())))
+                    {
+                        logger.error(String.format("Degree %d: key %d not found as in the reference map", degree,
+                                                   entry.getKey()));
+                        System.exit(1);
+                    }
+                }
+                logger.info(String.format("Degree %d: %d reads checked, used time: %d ms", degree, reads.get(),
+                                          endTime - startTime));
+                if (!bLinkTree.validate())
+                {
+                    System.exit(1);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    /**
+     * Fills a window of its own keys, in ascending or descending order, with a mix of writes, then empties it again in
+     * random order, leaving some keys behind.
+     */
+    private static void write(BLinkTree<Integer, Integer> bLinkTree, int id, Random random,
+                              Map<Integer, Integer> reference)
+    {
+        try
+        {
+            for (int round = 1; round <= ROUNDS && failure.get() == null; round ++)
+            {
+                int from = random.nextInt(KEY_RANGE - 400);
+                List<Integer> keys = new ArrayList<>();
+                for (int key = from; key < from + 400; key ++)
+                {
+                    if (key % PIN != 0 && key % WRITERS == id)
+                    {
+                        keys.add(key);
+                    }
+                }
+                if (random.nextBoolean())
+                {
+                    Collections.reverse(keys);
+                }
+                for (int key : keys)
+                {
+                    int value = round * KEY_RANGE + key;
+                    Integer expected = reference.get(key);
+                    Integer previous;
+                    switch (random.nextInt(3))
+                    {
+                        case 0:
+                            previous = bLinkTree.put(key, value);
+                            reference.put(key, value);
+                            break;
+                        case 1:
+                            previous = bLinkTree.putIfAbsent(key, value);
+                            reference.putIfAbsent(key, value);
+                            break;
+                        default:
+                            try
+                            {
+                                bLinkTree.insert(key, value);
+                                previous = null;
+                                reference.put(key, value);
+                            }
+                            catch (KeyConflictException e)
+                            {
+                                previous = expected;
+                                if (expected == null)
+                                {
+                                    failure.compareAndSet(null, "Insert of " + key + " conflicted with no entry");
+                                }
+                            }
+                            break;
+                    }
+                    if (expected == null ? previous != null : !expected.equals(previous))
+                    {
+                        failure.compareAndSet(null, "Key " + key + " held " + previous + ", not " + expected);
+                    }
+                    if (!reference.get(key).equals(bLinkTree.search(key)))
+                    {
+                        failure.compareAndSet(null, "Key " + key + " lost after writing it");
+                    }
+                }
+                Collections.shuffle(keys, random);
+                // keeps a few keys of the window
+                for (int key : keys.subList(0, keys.size() - random.nextInt(3)))
+                {
+                    reference.remove(key);
+                    bLinkTree.delete(key);
+                    if (bLinkTree.search(key) != null)
+                    {
+                        failure.compareAndSet(null, "Key " + key + " found after delete");
+                    }
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Writer failed: " + e);
+        }
+    }
+
+    private static void read(BLinkTree<Integer, Integer> bLinkTree, Random random, AtomicLong reads)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                int pinned = random.nextInt(KEY_RANGE / PIN) * PIN;
+                if (!Integer.valueOf(pinned).equals(bLinkTree.search(pinned)))
+                {
+                    failure.compareAndSet(null, "Pinned key " + pinned + " not found");
+                }
+                int lower = random.nextInt(KEY_RANGE);
+                int upper = lower + random.nextInt(2000);
+                Set<Integer> found = new HashSet<>();
+                int previous = -1;
+                for (int value : bLinkTree.rangeQuery(lower, upper))
+                {
+                    int key = value % KEY_RANGE;
+                    if (key <= previous || key < lower || key > upper)
+                    {
+                        failure.compareAndSet(null, "Range query [" + lower + ", " + upper + "] out of order");
+                    }
+                    found.add(key);
+                    previous = key;
+                }
+                for (int key = (lower + PIN - 1) / PIN * PIN; key <= upper && key < KEY_RANGE; key += PIN)
+                {
+                    if (!found.contains(key))
+                    {
+                        failure.compareAndSet(null, "Range query [" + lower + ", " + upper + "] missed " + key);
+                    }
+                }
+                reads.incrementAndGet();
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Reader failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writers insert, replace and delete keys of their own, emptying whole runs of leaves at a time, while readers check
+ * that keys pinned for the whole run are always found, by searches and by range queries in key order. Each writer
+ * checks its keys against its own key set, and the tree must hold exactly the union of the sets in the end. Every key
+ * maps to itself, so the values a range query returns are its keys.
+ */
+public class ConcurrentStressTest
+{
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int KEY_RANGE = 40000;
+    // every key divisible by it stays in the tree all along
+    private static final int PIN = 50;
+
+    private static final AtomicReference<String> failure = new AtomicReference<>();
+    private static final AtomicBoolean stopped = new AtomicBoolean();
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            for (int degree : new int[] {3, 4, 8, 32})
+            {
+                ConcurrentBPlusTree<Integer, Integer> concurrentTree = new ConcurrentBPlusTree<>(degree);
+                for (int key = 0; key < KEY_RANGE; key += PIN)
+                {
+                    concurrentTree.insert(key, key);
+                }
+
+                logger.info("Degree " + degree + ": writing and reading...");
+
+                stopped.set(false);
+                AtomicLong reads = new AtomicLong();
+                List<Set<Integer>> keySets = new ArrayList<>();
+                List<Thread> writers = new ArrayList<>();
+                List<Thread> readers = new ArrayList<>();
+                for (int i = 0; i < WRITERS; i ++)
+                {
+                    int id = i;
+                    Set<Integer> keySet = new HashSet<>();
+                    keySets.add(keySet);
+                    writers.add(new Thread(() -> write(concurrentTree, id, new Random(id), keySet)));
+                }
+                for (int i = 0; i < READERS; i ++)
+                {
+                    int seed = -i - 1;
+                    readers.add(new Thread(() -> read(concurrentTree, new Random(seed), reads)));
+                }
+                long startTime = System.currentTimeMillis();
+                readers.forEach(Thread::start);
+                writers.forEach(Thread::start);
+                for (Thread writer : writers)
+                {
+                    writer.join();
+                }
+                stopped.set(true);
+                for (Thread reader : readers)
+                {
+                    reader.join();
+                }
+                long endTime = System.currentTimeMillis();
+
+                if (failure.get() != null)
+                {
+                    logger.error(failure.get());
+                    System.exit(1);
+                }
+                TreeSet<Integer> expected = new TreeSet<>();
+                for (int key = 0; key < KEY_RANGE; key += PIN)
+                {
+                    expected.add(key);
+                }
+                keySets.forEach(expected::addAll);
+                if (!concurrentTree.rangeQuery(0, KEY_RANGE).equals(new ArrayList<>(expected))
+                        || concurrentTree.size() != expected.size())
+                {
+                    logger.error(String.format("Degree %d: the tree holds %d entries, not the %d written", degree,
+                                               concurrentTree.size(), expected.size()));
+                    System.exit(1);
+                }
+                logger.info(String.format("Degree %d: %d reads checked, used time: %d ms", degree, reads.get(),
+                                          endTime - startTime));
+                if (!concurrentTree.validate())
+                {
+                    System.exit(1);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    /**
+     * Fills a window of its own keys and empties it again, in random order, then leaves some keys behind.
+     */
+    private static void write(ConcurrentBPlusTree<Integer, Integer> concurrentTree, int id, Random random,
+                              Set<Integer> keySet)
+    {
+        try
+        {
+            for (int round = 0; round < 300 && failure.get() == null; round ++)
+            {
+                int from = random.nextInt(KEY_RANGE - 400);
+                List<Integer> keys = new ArrayList<>();
+                for (int key = from; key < from + 400; key ++)
+                {
+                    if (key % PIN != 0 && key % WRITERS == id)
+                    {
+                        keys.add(key);
+                    }
+                }
+                for (int key : keys)
+                {
+                    Integer expected = keySet.add(key) ? null : key;
+                    Integer previous = concurrentTree.put(key, key);
+                    if (expected == null ? previous != null : !expected.equals(previous))
+                    {
+                        failure.compareAndSet(null, "Put " + key + " replaced " + previous + ", not " + expected);
+                    }
+                }
+                for (int key : keys)
+                {
+                    if (!Integer.valueOf(key).equals(concurrentTree.search(key)))
+                    {
+                        failure.compareAndSet(null, "Key " + key + " lost after put");
+                    }
+                }
+                Collections.shuffle(keys, random);
+                // keeps a few keys of the window
+                for (int key : keys.subList(0, keys.size() - random.nextInt(3)))
+                {
+                    keySet.remove(key);
+                    concurrentTree.delete(key);
+                    if (concurrentTree.search(key) != null)
+                    {
+                        failure.compareAndSet(null, "Key " + key + " found after delete");
+                    }
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Writer failed: " + e);
+        }
+    }
+
+    private static void read(ConcurrentBPlusTree<Integer, Integer> concurrentTree, Random random, AtomicLong reads)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                int pinned = random.nextInt(KEY_RANGE / PIN) * PIN;
+                if (!Integer.valueOf(pinned).equals(concurrentTree.search(pinned)))
+                {
+                    failure.compareAndSet(null, "Pinned key " + pinned + " not found");
+                }
+                int lower = random.nextInt(KEY_RANGE);
+                int upper = lower + random.nextInt(2000);
+                Set<Integer> found = new HashSet<>();
+                int previous = -1;
+                for (int key : concurrentTree.rangeQuery(lower, upper))
+                {
+                    if (key <= previous || key < lower || key > upper)
+                    {
+                        failure.compareAndSet(null, "Range query [" + lower + ", " + upper + "] out of order");
+                    }
+                    found.add(key);
+                    previous = key;
+                }
+                for (int key = (lower + PIN - 1) / PIN * PIN; key <= upper && key < KEY_RANGE; key += PIN)
+                {
+                    if (!found.contains(key))
+                    {
+                        failure.compareAndSet(null, "Range query [" + lower + ", " + upper + "] missed " + key);
+                    }
+                }
+                reads.incrementAndGet();
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Reader failed: " + e);
+        }
+    }
+}
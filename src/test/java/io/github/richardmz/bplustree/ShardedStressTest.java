@@ -0,0 +1,252 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writers put, search and delete keys of their own while another thread keeps splitting shards, moving boundaries and
+ * rebalancing, so operations keep finding the routing table replaced under them. Each writer checks every result
+ * against its own map, readers check that range queries across shards come back in key order, and in the end the tree
+ * must hold exactly the union of the maps, shard by shard.
+ */
+public class ShardedStressTest
+{
+    private static final int WRITERS = 6;
+    private static final int READERS = 2;
+    private static final int OPERATIONS = 60000;
+    private static final int KEY_RANGE = 96000;
+    private static final int MAX_SHARDS = 40;
+
+    private static final AtomicReference<String> failure = new AtomicReference<>();
+    private static final AtomicBoolean stopped = new AtomicBoolean();
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try (ShardedBPlusTree<Integer, Integer> shardedTree = new ShardedBPlusTree<>(8, Arrays.asList(24000, 48000,
+                                                                                                        72000)))
+        {
+            logger.info("Writing while changing the shards...");
+
+            List<TreeMap<Integer, Integer>> maps = new ArrayList<>();
+            List<Thread> writers = new ArrayList<>();
+            List<Thread> others = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i ++)
+            {
+                int id = i;
+                TreeMap<Integer, Integer> map = new TreeMap<>();
+                maps.add(map);
+                writers.add(new Thread(() -> write(shardedTree, id, new Random(id), map)));
+            }
+            AtomicLong reads = new AtomicLong();
+            for (int i = 0; i < READERS; i ++)
+            {
+                int seed = -i - 1;
+                others.add(new Thread(() -> read(shardedTree, new Random(seed), reads)));
+            }
+            AtomicLong[] changes = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+            others.add(new Thread(() -> change(shardedTree, new Random(99), changes)));
+            long startTime = System.currentTimeMillis();
+            others.forEach(Thread::start);
+            writers.forEach(Thread::start);
+            for (Thread writer : writers)
+            {
+                writer.join();
+            }
+            stopped.set(true);
+            for (Thread other : others)
+            {
+                other.join();
+            }
+            long endTime = System.currentTimeMillis();
+
+            if (failure.get() != null)
+            {
+                logger.error(failure.get());
+                System.exit(1);
+            }
+            logger.info(String.format("%d splits, %d boundary moves, %d rebalances, %d range queries checked, "
+                                      + "used time: %d ms", changes[0].get(), changes[1].get(), changes[2].get(),
+                                      reads.get(), endTime - startTime));
+            if (changes[0].get() == 0 || changes[1].get() == 0 || changes[2].get() == 0)
+            {
+                logger.error("The shards were not changed while writing");
+                System.exit(1);
+            }
+
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            maps.forEach(expected::putAll);
+            if (shardedTree.size() != expected.size()
+                    || !shardedTree.rangeQuery(0, KEY_RANGE).equals(new ArrayList<>(expected.values())))
+            {
+                logger.error(String.format("The tree holds %d entries, not the %d written", shardedTree.size(),
+                                           expected.size()));
+                System.exit(1);
+            }
+            // each shard on its own, a range query within a shard only reads that shard
+            List<Integer> boundaries = shardedTree.boundaries();
+            for (int i = 0; i <= boundaries.size(); i ++)
+            {
+                int lower = i == 0 ? Integer.MIN_VALUE : boundaries.get(i - 1);
+                int upper = i == boundaries.size() ? Integer.MAX_VALUE : boundaries.get(i);
+                List<Integer> values = shardedTree.rangeQuery(lower, true, upper, false);
+                if (!values.equals(new ArrayList<>(expected.subMap(lower, true, upper, false).values())))
+                {
+                    logger.error(String.format("Shard %d of %d holds other entries than [%d, %d) written", i,
+                                               shardedTree.shardCount(), lower, upper));
+                    System.exit(1);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static void write(ShardedBPlusTree<Integer, Integer> shardedTree, int id, Random random,
+                              TreeMap<Integer, Integer> map)
+    {
+        try
+        {
+            for (int i = 0; i < OPERATIONS && failure.get() == null; i ++)
+            {
+                int key = random.nextInt(KEY_RANGE / WRITERS) * WRITERS + id;
+                // a value is its key plus a multiple of KEY_RANGE, so range queries show their keys
+                int value = key + KEY_RANGE * (i % 20000);
+                switch (random.nextInt(3))
+                {
+                    case 0:
+                        if (!Objects.equals(shardedTree.put(key, value), map.put(key, value)))
+                        {
+                            failure.compareAndSet(null, "Put " + key + " replaced another value");
+                        }
+                        break;
+                    case 1:
+                        shardedTree.delete(key);
+                        map.remove(key);
+                        break;
+                    default:
+                        if (!Objects.equals(shardedTree.search(key), map.get(key)))
+                        {
+                            failure.compareAndSet(null, "Search of " + key + " found another value");
+                        }
+                        break;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Writer failed: " + e);
+        }
+    }
+
+    private static void read(ShardedBPlusTree<Integer, Integer> shardedTree, Random random, AtomicLong reads)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                int lower = random.nextInt(KEY_RANGE);
+                int upper = lower + random.nextInt(KEY_RANGE / 4);
+                int previous = -1;
+                for (int value : shardedTree.rangeQuery(lower, upper))
+                {
+                    int key = value % KEY_RANGE;
+                    if (key <= previous || key < lower || key > upper)
+                    {
+                        failure.compareAndSet(null, "Range query [" + lower + ", " + upper + "] out of order");
+                    }
+                    previous = key;
+                }
+                reads.incrementAndGet();
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Reader failed: " + e);
+        }
+    }
+
+    /**
+     * Splits, moves boundaries and rebalances at random until the writers are done.
+     */
+    private static void change(ShardedBPlusTree<Integer, Integer> shardedTree, Random random, AtomicLong[] changes)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                int choice = random.nextInt(3);
+                if (choice == 0 && shardedTree.shardCount() < MAX_SHARDS)
+                {
+                    if (shardedTree.splitShard(random.nextInt(shardedTree.shardCount())))
+                    {
+                        changes[0].incrementAndGet();
+                    }
+                }
+                else if (choice == 1)
+                {
+                    // only this thread changes the boundaries, so they hold until the move
+                    List<Integer> boundaries = shardedTree.boundaries();
+                    int index = random.nextInt(boundaries.size());
+                    int lower = index == 0 ? -KEY_RANGE / 10 : boundaries.get(index - 1);
+                    int upper = index + 1 < boundaries.size() ? boundaries.get(index + 1) : KEY_RANGE * 2;
+                    if (upper - lower > 2)
+                    {
+                        shardedTree.moveBoundary(index, lower + 1 + random.nextInt(upper - lower - 1));
+                        changes[1].incrementAndGet();
+                    }
+                }
+                else if (choice == 2)
+                {
+                    shardedTree.rebalance();
+                    changes[2].incrementAndGet();
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Changing the shards failed: " + e);
+        }
+    }
+}
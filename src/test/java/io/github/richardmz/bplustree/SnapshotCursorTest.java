@@ -0,0 +1,163 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Replaces values of existing keys after a snapshot, which copies the shared leaves, and checks that cursors,
+ * iterators and spliterators opened before fail fast instead of reading the old leaves, while the snapshot keeps the
+ * old values.
+ */
+public class SnapshotCursorTest
+{
+    private static final int AMOUNT = 1000;
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            String[] changes = {"put", "compute", "merge"};
+            for (String change : changes)
+            {
+                BPlusTree<Integer, String> bPlusTree = newTree();
+                Cursor<Integer, String> cursor = bPlusTree.cursor();
+                cursor.seek(AMOUNT / 2);
+                cursor.next();
+                Iterator<Map.Entry<Integer, String>> iterator = bPlusTree.iterator();
+                iterator.next();
+                Spliterator<Map.Entry<Integer, String>> spliterator = bPlusTree.spliterator();
+                Consumer<Map.Entry<Integer, String>> ignore = entry -> {};
+                spliterator.tryAdvance(ignore);
+
+                BPlusTree<Integer, String> snapshot = bPlusTree.snapshot();
+                replace(bPlusTree, change, AMOUNT / 2 + 1);
+
+                if (!failsFast(cursor::next) || !failsFast(iterator::next)
+                        || !failsFast(() -> spliterator.tryAdvance(ignore)))
+                {
+                    logger.error(String.format("%s after a snapshot: a reader opened before did not fail", change));
+                    System.exit(1);
+                }
+                if (!"new".equals(bPlusTree.search(AMOUNT / 2 + 1))
+                        || !String.valueOf(AMOUNT / 2 + 1).equals(snapshot.search(AMOUNT / 2 + 1)))
+                {
+                    logger.error(String.format("%s after a snapshot: tree or snapshot holds the wrong value", change));
+                    System.exit(1);
+                }
+
+                // a reader opened after the copy sees the new value
+                try (Cursor<Integer, String> fresh = bPlusTree.cursor())
+                {
+                    fresh.seek(AMOUNT / 2 + 1);
+                    if (!fresh.next() || !"new".equals(fresh.value()))
+                    {
+                        logger.error(String.format("%s after a snapshot: a new cursor read the old leaf", change));
+                        System.exit(1);
+                    }
+                }
+                if (!bPlusTree.validate() || !snapshot.validate())
+                {
+                    System.exit(1);
+                }
+            }
+
+            // without a snapshot the value is replaced in place, and a cursor goes on reading it
+            BPlusTree<Integer, String> bPlusTree = newTree();
+            try (Cursor<Integer, String> cursor = bPlusTree.cursor())
+            {
+                cursor.seek(AMOUNT / 2);
+                cursor.next();
+                bPlusTree.put(AMOUNT / 2 + 1, "new");
+                if (!cursor.next() || !"new".equals(cursor.value()))
+                {
+                    logger.error("put without a snapshot: the cursor did not read the value in place");
+                    System.exit(1);
+                }
+            }
+
+            logger.info("Readers opened before a snapshot fail fast on replaced values");
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static BPlusTree<Integer, String> newTree() throws DegreeTooSmallException
+    {
+        BPlusTree<Integer, String> bPlusTree = new BPlusTree<>(8);
+        for (int i = 0; i < AMOUNT; i ++)
+        {
+            bPlusTree.put(i, String.valueOf(i));
+        }
+        return bPlusTree;
+    }
+
+    private static void replace(BPlusTree<Integer, String> bPlusTree, String change, int key)
+    {
+        switch (change)
+        {
+            case "put":
+                bPlusTree.put(key, "new");
+                break;
+            case "compute":
+                bPlusTree.compute(key, (k, value) -> "new");
+                break;
+            default:
+                bPlusTree.merge(key, "new", (value, given) -> given);
+                break;
+        }
+    }
+
+    /**
+     * @return whether the read threw {@link ConcurrentModificationException}
+     */
+    private static boolean failsFast(Runnable read)
+    {
+        try
+        {
+            read.run();
+            return false;
+        }
+        catch (ConcurrentModificationException e)
+        {
+            return true;
+        }
+    }
+}
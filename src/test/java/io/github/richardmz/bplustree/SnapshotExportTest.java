@@ -0,0 +1,152 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exports snapshots of a tree while the tree keeps changing, and checks that each export loads back to exactly the
+ * entries of its snapshot.
+ */
+public class SnapshotExportTest
+{
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            BPlusTree<Integer, String> bPlusTree = new BPlusTree<>(8);
+            Random random = new Random(17);
+            int amount = 200000;
+            int rounds = 20;
+
+            for (int i = 0; i < amount / 2; i ++)
+            {
+                int num = random.nextInt(amount);
+                bPlusTree.put(num, String.valueOf(num));
+            }
+
+            logger.info("Exporting snapshots while writing...");
+
+            long startTime = System.currentTimeMillis();
+
+            for (int round = 0; round < rounds; round ++)
+            {
+                BPlusTree<Integer, String> snapshot = bPlusTree.snapshot();
+                TreeMap<Integer, String> expected = new TreeMap<>();
+                for (Map.Entry<Integer, String> entry : snapshot)
+                {
+                    expected.put(entry.getKey(), entry.getValue());
+                }
+
+                // changes between the snapshot and its export relink the leaves the snapshot shares
+                for (int i = 0; i < 1000; i ++)
+                {
+                    change(bPlusTree, random, amount);
+                }
+
+                AtomicBoolean exported = new AtomicBoolean();
+                Random writerRandom = new Random(round);
+                Thread writer = new Thread(() ->
+                {
+                    while (!exported.get())
+                    {
+                        change(bPlusTree, writerRandom, amount);
+                    }
+                });
+                writer.start();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try
+                {
+                    snapshot.snapshotTo(Channels.newChannel(out), Serializers.VAR_INT, Serializers.STRING);
+                }
+                finally
+                {
+                    exported.set(true);
+                    writer.join();
+                }
+
+                BPlusTree<Integer, String> loaded = BPlusTree.loadFrom(
+                        Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), 8, Serializers.VAR_INT,
+                        Serializers.STRING, 0.7);
+                if (loaded.size() != expected.size() || !loaded.validate())
+                {
+                    logger.error(String.format("Round %d: loaded %d entries of a snapshot of %d", round, loaded.size(),
+                            expected.size()));
+                    System.exit(1);
+                }
+                Iterator<Map.Entry<Integer, String>> loadedEntries = loaded.iterator();
+                for (Map.Entry<Integer, String> entry : expected.entrySet())
+                {
+                    if (!entry.equals(loadedEntries.next()))
+                    {
+                        logger.error(String.format("Round %d: entry %s not loaded back", round, entry));
+                        System.exit(1);
+                    }
+                }
+                if (!bPlusTree.validate())
+                {
+                    System.exit(1);
+                }
+            }
+
+            long endTime = System.currentTimeMillis();
+
+            logger.info(String.format("Exported %d snapshots, used time: %d ms", rounds, endTime - startTime));
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static void change(BPlusTree<Integer, String> bPlusTree, Random random, int amount)
+    {
+        int num = random.nextInt(amount);
+        if (random.nextBoolean())
+        {
+            bPlusTree.put(num, String.valueOf(num));
+        }
+        else
+        {
+            bPlusTree.delete(num);
+        }
+    }
+}
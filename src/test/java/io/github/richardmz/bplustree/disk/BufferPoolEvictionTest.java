@@ -0,0 +1,124 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.Serializers;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Inserts and deletes random keys through the smallest buffer pool, so that nearly every access evicts a leaf, once
+ * for each eviction policy, and checks the tree against a map.
+ */
+public class BufferPoolEvictionTest
+{
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            EvictionPolicy[] policies = {new ClockPolicy(), new LruKPolicy(2), new TwoQueuePolicy()};
+            for (EvictionPolicy policy : policies)
+            {
+                String name = policy.getClass().getSimpleName();
+                Path directory = TestFiles.createDirectory("eviction");
+                try (DiskBPlusTree<Long, String> diskTree = DiskBPlusTree.open(
+                        directory.resolve("tree"), 4096, Serializers.LONG, Serializers.STRING, null, 16, policy,
+                        Duration.ZERO))
+                {
+                    logger.info("Inserting and deleting with " + name + "...");
+
+                    long startTime = System.currentTimeMillis();
+
+                    TreeMap<Long, String> expected = new TreeMap<>();
+                    Random random = new Random(7);
+                    int amount = 40000;
+                    for (int i = 1; i <= amount; i ++)
+                    {
+                        long num = random.nextInt(10000);
+                        if (random.nextInt(3) > 0)
+                        {
+                            String value = num + "-" + "v".repeat(random.nextInt(40));
+                            diskTree.put(num, value);
+                            expected.put(num, value);
+                        }
+                        else
+                        {
+                            diskTree.delete(num);
+                            expected.remove(num);
+                        }
+                        if (i % (amount / 4) == 0 && !diskTree.validate())
+                        {
+                            System.exit(1);
+                        }
+                    }
+
+                    long endTime = System.currentTimeMillis();
+
+                    logger.info(String.format("%s used time: %d ms", name, endTime - startTime));
+
+                    if (diskTree.size() != expected.size()
+                            || !diskTree.rangeQuery(Long.MIN_VALUE, Long.MAX_VALUE)
+                                        .equals(new ArrayList<>(expected.values())))
+                    {
+                        logger.error(String.format("%s: tree of %d entries differs from %d expected", name,
+                                                   diskTree.size(), expected.size()));
+                        System.exit(1);
+                    }
+                    for (Map.Entry<Long, String> entry : expected.entrySet())
+                    {
+                        if (!entry.getValue().equals(diskTree.search(entry.getKey())))
+                        {
+                            logger.error(String.format("%s: key %d not found", name, entry.getKey()));
+                            System.exit(1);
+                        }
+                    }
+                }
+                finally
+                {
+                    TestFiles.delete(directory);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+}
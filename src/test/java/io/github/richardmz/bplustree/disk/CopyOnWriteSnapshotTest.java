@@ -0,0 +1,234 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.Serializers;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writers move amounts between accounts in transactions, keeping their total, along with inserting and deleting other
+ * keys, while readers check that each snapshot sees the total and reads the same entries however long it is kept open.
+ */
+public class CopyOnWriteSnapshotTest
+{
+    private static final long ACCOUNTS = 100;
+    private static final long BALANCE = 1000;
+    private static final long FILLER_RANGE = 5000;
+
+    private static final AtomicReference<String> failure = new AtomicReference<>();
+    private static final AtomicBoolean stopped = new AtomicBoolean();
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            Path directory = TestFiles.createDirectory("snapshots");
+            Path path = directory.resolve("tree");
+            try
+            {
+                try (CopyOnWriteBPlusTree<Long, Long> cowTree = CopyOnWriteBPlusTree.open(path, 4096, Serializers.LONG,
+                                                                                           Serializers.LONG))
+                {
+                    for (long account = 0; account < ACCOUNTS; account ++)
+                    {
+                        cowTree.put(account, BALANCE);
+                    }
+                    cowTree.commit();
+
+                    logger.info("Writing and reading snapshots...");
+
+                    AtomicLong commits = new AtomicLong();
+                    AtomicLong snapshots = new AtomicLong();
+                    List<Thread> threads = new ArrayList<>();
+                    for (int i = 0; i < 3; i ++)
+                    {
+                        int seed = i;
+                        threads.add(new Thread(() -> write(cowTree, new Random(seed), commits)));
+                        threads.add(new Thread(() -> read(cowTree, new Random(-seed - 1), snapshots)));
+                    }
+                    long startTime = System.currentTimeMillis();
+                    threads.forEach(Thread::start);
+                    Thread.sleep(3000);
+                    stopped.set(true);
+                    for (Thread thread : threads)
+                    {
+                        thread.join();
+                    }
+                    long endTime = System.currentTimeMillis();
+
+                    if (failure.get() != null)
+                    {
+                        logger.error(failure.get());
+                        System.exit(1);
+                    }
+                    logger.info(String.format("%d commits, %d snapshots checked, used time: %d ms", commits.get(),
+                                              snapshots.get(), endTime - startTime));
+                    if (!cowTree.validate())
+                    {
+                        System.exit(1);
+                    }
+                }
+
+                try (CopyOnWriteBPlusTree<Long, Long> cowTree = CopyOnWriteBPlusTree.open(path, 4096, Serializers.LONG,
+                                                                                           Serializers.LONG);
+                     CopyOnWriteBPlusTree<Long, Long>.Snapshot snapshot = cowTree.snapshot())
+                {
+                    String error = check(snapshot);
+                    if (error != null || !cowTree.validate())
+                    {
+                        logger.error("Reopened: " + error);
+                        System.exit(1);
+                    }
+                }
+            }
+            finally
+            {
+                TestFiles.delete(directory);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static void write(CopyOnWriteBPlusTree<Long, Long> cowTree, Random random, AtomicLong commits)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                long from = random.nextInt((int) ACCOUNTS);
+                long to = (from + 1 + random.nextInt((int) ACCOUNTS - 1)) % ACCOUNTS;
+                // the tree's lock keeps the transaction of this writer apart from the others
+                synchronized (cowTree)
+                {
+                    // searching reads the last commit, so both balances are read before either is written
+                    long fromBalance = cowTree.search(from);
+                    long toBalance = cowTree.search(to);
+                    long amount = random.nextInt((int) fromBalance + 1);
+                    cowTree.put(from, fromBalance - amount);
+                    cowTree.put(to, toBalance + amount);
+                    for (int i = 0; i < 10; i ++)
+                    {
+                        long filler = ACCOUNTS + random.nextInt((int) FILLER_RANGE);
+                        if (random.nextBoolean())
+                        {
+                            cowTree.put(filler, filler);
+                        }
+                        else
+                        {
+                            cowTree.delete(filler);
+                        }
+                    }
+                    if (random.nextInt(10) == 0)
+                    {
+                        cowTree.rollback();
+                    }
+                    else
+                    {
+                        cowTree.commit();
+                        commits.incrementAndGet();
+                    }
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Writer failed: " + e);
+        }
+    }
+
+    private static void read(CopyOnWriteBPlusTree<Long, Long> cowTree, Random random, AtomicLong snapshots)
+    {
+        try
+        {
+            while (!stopped.get() && failure.get() == null)
+            {
+                try (CopyOnWriteBPlusTree<Long, Long>.Snapshot snapshot = cowTree.snapshot())
+                {
+                    String error = check(snapshot);
+                    List<Long> before = snapshot.rangeQuery(0L, ACCOUNTS + FILLER_RANGE);
+                    // let commits replace the pages of the snapshot
+                    Thread.sleep(random.nextInt(5));
+                    if (error == null && !before.equals(snapshot.rangeQuery(0L, ACCOUNTS + FILLER_RANGE)))
+                    {
+                        error = "Snapshot " + snapshot.transactionId() + " changed while open";
+                    }
+                    if (error != null)
+                    {
+                        failure.compareAndSet(null, error);
+                    }
+                    snapshots.incrementAndGet();
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            failure.compareAndSet(null, "Reader failed: " + e);
+        }
+    }
+
+    /**
+     * @return what the snapshot breaks, null if nothing
+     */
+    private static String check(CopyOnWriteBPlusTree<Long, Long>.Snapshot snapshot) throws Exception
+    {
+        List<Long> balances = snapshot.rangeQuery(0L, ACCOUNTS - 1);
+        long total = 0;
+        for (long balance : balances)
+        {
+            total += balance;
+        }
+        if (balances.size() != ACCOUNTS || total != ACCOUNTS * BALANCE)
+        {
+            return String.format("Snapshot %d holds %d accounts with a total of %d", snapshot.transactionId(),
+                                 balances.size(), total);
+        }
+        if (snapshot.rangeQuery(0L, ACCOUNTS + FILLER_RANGE).size() != snapshot.size())
+        {
+            return String.format("Snapshot %d holds %d entries, not %d", snapshot.transactionId(),
+                                 snapshot.rangeQuery(0L, ACCOUNTS + FILLER_RANGE).size(), snapshot.size());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.Serializers;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Changes a tree in a child process and kills it at a random time, then recovers the tree from its file and log and
+ * checks that it holds every change the child saw acknowledged, and no partial change: the entries after some number
+ * of changes, at least as many as acknowledged. Recovery is then crashed into again, over a few rounds. Last, pages
+ * torn while written back on eviction are restored from their double-write file.
+ */
+public class CrashRecoveryTest
+{
+    private static final int KEY_RANGE = 20000;
+    // changes past the last acknowledged one that may have reached the log before the kill
+    private static final int MAX_UNACKNOWLEDGED = 100000;
+
+    public static void main(String[] args)
+    {
+        if (args.length == 2)
+        {
+            runChild(Paths.get(args[0]), Integer.parseInt(args[1]));
+            return;
+        }
+
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            Path directory = TestFiles.createDirectory("crash");
+            Path path = directory.resolve("tree");
+            try
+            {
+                TreeMap<Long, Long> expected = new TreeMap<>();
+                Random timing = new Random(42);
+                for (int round = 0; round < 4; round ++)
+                {
+                    Process child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java")
+                                                                .toString(),
+                                                       "-cp", System.getProperty("java.class.path"),
+                                                       CrashRecoveryTest.class.getName(), path.toString(),
+                                                       String.valueOf(round))
+                            .redirectErrorStream(true)
+                            .start();
+                    long acknowledged = -1;
+                    long killTime = System.currentTimeMillis() + 1000 + timing.nextInt(2000);
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+                    String line;
+                    while (System.currentTimeMillis() < killTime && (line = reader.readLine()) != null)
+                    {
+                        try
+                        {
+                            acknowledged = Long.parseLong(line);
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            logger.info("Child: " + line);
+                        }
+                    }
+                    child.destroyForcibly();
+                    child.waitFor();
+
+                    try (DiskBPlusTree<Long, Long> diskTree = DiskBPlusTree.open(path, 4096, Serializers.LONG,
+                                                                                  Serializers.LONG))
+                    {
+                        if (!diskTree.validate())
+                        {
+                            System.exit(1);
+                        }
+                        ArrayList<Long> recovered = new ArrayList<>(diskTree.rangeQuery(Long.MIN_VALUE,
+                                                                                        Long.MAX_VALUE));
+                        Random changes = new Random(round);
+                        for (long i = 0; i <= acknowledged; i ++)
+                        {
+                            change(changes, expected, null);
+                        }
+                        int unacknowledged = 0;
+                        while (expected.size() != recovered.size() || diskTree.size() != recovered.size()
+                                || !new ArrayList<>(expected.values()).equals(recovered))
+                        {
+                            if (++ unacknowledged > MAX_UNACKNOWLEDGED)
+                            {
+                                logger.error(String.format("Round %d: recovered %d entries, after %d acknowledged "
+                                                                   + "changes", round, recovered.size(),
+                                                           acknowledged + 1));
+                                System.exit(1);
+                            }
+                            change(changes, expected, null);
+                        }
+                        logger.info(String.format("Round %d: recovered %d entries after %d acknowledged and %d more "
+                                                          + "changes", round, recovered.size(), acknowledged + 1,
+                                                  unacknowledged));
+                    }
+                }
+
+                tearEvictedPages(path);
+                try (DiskBPlusTree<Long, Long> diskTree = DiskBPlusTree.open(path, 4096, Serializers.LONG,
+                                                                              Serializers.LONG))
+                {
+                    if (!diskTree.validate()
+                            || !new ArrayList<>(expected.values()).equals(diskTree.rangeQuery(Long.MIN_VALUE,
+                                                                                              Long.MAX_VALUE)))
+                    {
+                        logger.error("Torn pages were not restored from the eviction double-write file");
+                        System.exit(1);
+                    }
+                    logger.info("Torn pages restored from the eviction double-write file");
+                }
+            }
+            finally
+            {
+                TestFiles.delete(directory);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    /**
+     * Leaves the file as a crash while writing back evicted pages would: their images in the double-write file of
+     * evictions, and the second half of each page zeroed.
+     */
+    private static void tearEvictedPages(Path path) throws Exception
+    {
+        int pageSize = 4096;
+        SortedMap<Integer, ByteBuffer> images = new TreeMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            int pageCount = (int) (channel.size() / pageSize);
+            // the meta page is not written back on eviction
+            for (int pageId = 1; pageId < pageCount; pageId ++)
+            {
+                ByteBuffer image = ByteBuffer.allocate(pageSize);
+                channel.read(image, (long) pageId * pageSize);
+                images.put(pageId, image);
+            }
+            DoubleWriteFile.write(path, DoubleWriteFile.EVICTION, images, pageSize);
+            for (int pageId : images.keySet())
+            {
+                channel.write(ByteBuffer.allocate(pageSize / 2), (long) pageId * pageSize + pageSize / 2);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Changes the tree until killed, printing the number of each change once acknowledged.
+     */
+    private static void runChild(Path path, int round)
+    {
+        Logger.getInstance(Logger.Level.ERROR).start();
+        try
+        {
+            // a small pool, so that leaves are evicted and checkpoints write pages the log still holds
+            DiskBPlusTree<Long, Long> diskTree = DiskBPlusTree.open(path, 4096, Serializers.LONG, Serializers.LONG,
+                                                                    null, 16, new ClockPolicy(), Duration.ZERO);
+            Random changes = new Random(round);
+            for (long i = 0; ; i ++)
+            {
+                change(changes, null, diskTree);
+                System.out.println(i);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace(System.out);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes the next change to the map or to the tree, the same for both.
+     */
+    private static void change(Random random, @Nullable TreeMap<Long, Long> map,
+                               @Nullable DiskBPlusTree<Long, Long> diskTree) throws Exception
+    {
+        long num = random.nextInt(KEY_RANGE);
+        boolean put = random.nextInt(3) > 0;
+        long value = num * 1000 + random.nextInt(1000);
+        if (map != null)
+        {
+            if (put)
+            {
+                map.put(num, value);
+            }
+            else
+            {
+                map.remove(num);
+            }
+        }
+        else if (put)
+        {
+            diskTree.put(num, value);
+        }
+        else
+        {
+            diskTree.delete(num);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compresses random, repetitive and runs of bytes and checks they come back, then damages compressed blocks and checks
+ * that decompressing them fails with an {@link IOException} at worst.
+ */
+public class LzCodecTest
+{
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            Random random = new Random(5);
+            LzCodec lz = new LzCodec();
+            long rawBytes = 0;
+            long compressedBytes = 0;
+            int rejected = 0;
+
+            logger.info("Compressing...");
+
+            for (int i = 0; i < 3000; i ++)
+            {
+                int length = i < 100 ? i : random.nextInt(i % 10 == 0 ? 70000 : 3000);
+                byte[] raw = generate(random, length);
+                byte[] compressed = new byte[LzCodec.maxCompressedLength(length)];
+                int end = lz.compress(raw, length, compressed, 0);
+                byte[] decompressed = new byte[length];
+                int decompressedLength = LzCodec.decompress(ByteBuffer.wrap(compressed), 0, end, decompressed);
+                if (decompressedLength != length || !Arrays.equals(raw, decompressed))
+                {
+                    logger.error(String.format("Block %d of %d bytes not decompressed back", i, length));
+                    System.exit(1);
+                }
+                rawBytes += length;
+                compressedBytes += end;
+
+                if (end > 0)
+                {
+                    compressed[random.nextInt(end)] ^= (byte) (1 + random.nextInt(255));
+                    try
+                    {
+                        LzCodec.decompress(ByteBuffer.wrap(compressed), 0, end, decompressed);
+                    }
+                    catch (IOException e)
+                    {
+                        rejected ++;
+                    }
+                }
+            }
+
+            logger.info(String.format("Compressed to %.3f of the size, %d damaged blocks rejected",
+                                      (double) compressedBytes / rawBytes, rejected));
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static byte[] generate(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        int kind = random.nextInt(4);
+        for (int i = 0; i < length; i ++)
+        {
+            switch (kind)
+            {
+                case 0:
+                    bytes[i] = (byte) random.nextInt(256);
+                    break;
+                case 1:
+                    bytes[i] = (byte) random.nextInt(3);
+                    break;
+                case 2:
+                    // repeats of the bytes just before, as in serialized values
+                    bytes[i] = i > 20 && random.nextInt(10) > 0 ? bytes[i - 1 - random.nextInt(20)]
+                                                                 : (byte) random.nextInt(256);
+                    break;
+                default:
+                    bytes[i] = (byte) (i / 300);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.KeySerializer;
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.Serializers;
+import io.github.richardmz.bplustree.ValueSerializer;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Changes trees with packed and with plain leaves the same way, for each key encoding of a packed leaf, reopening them
+ * in between, and checks both against a map, then compares the pages they take. The changes of a round are spread
+ * over a few writers by key, so that the log forces them in shared batches rather than one by one.
+ */
+public class PackedLeafTest
+{
+    private static final int WRITERS = 8;
+    // long enough for the other writers to join a batch before it is forced
+    private static final Duration FLUSH_INTERVAL = Duration.ofMillis(1);
+    // few enough that the larger trees still evict leaves, enough that checkpoints do not run every few changes
+    private static final int FRAME_COUNT = 64;
+
+    private static Logger logger;
+
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            String[] words = {"alpha", "beta", "gamma", "delta", "user", "order", "item"};
+            for (boolean packLeaves : new boolean[] {false, true})
+            {
+                // key deltas
+                run("long", Serializers.LONG, Serializers.LONG, random -> (long) random.nextInt(100000) * 7 - 300000,
+                    random -> random.nextLong(), packLeaves);
+                run("var-int", Serializers.VAR_INT, Serializers.STRING, random -> random.nextInt(100000) - 50000,
+                    random -> "value-" + random.nextInt(50) + "-padding-padding", packLeaves);
+                // shared prefixes, with compressible values
+                run("string", Serializers.STRING, Serializers.STRING,
+                    random -> words[random.nextInt(words.length)] + "/" + words[random.nextInt(words.length)] + "/"
+                            + random.nextInt(30000),
+                    random -> "a".repeat(40) + random.nextInt(3), packLeaves);
+                // plain keys, values of zeros up to nearly a page
+                run("bytes", Serializers.LONG, Serializers.BYTES, random -> (long) random.nextInt(10000),
+                    random -> new byte[random.nextInt(900)], packLeaves);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+
+    private static <K, V> void run(String name, KeySerializer<K> keySerializer, ValueSerializer<V> valueSerializer,
+                                   Function<Random, K> keys, Function<Random, V> values, boolean packLeaves)
+            throws Exception
+    {
+        Path directory = TestFiles.createDirectory("packed");
+        Path path = directory.resolve("tree");
+        try
+        {
+            TreeMap<K, V> expected = new TreeMap<>();
+            Random random = new Random(9);
+
+            long startTime = System.currentTimeMillis();
+
+            for (int round = 0; round < 3; round ++)
+            {
+                try (DiskBPlusTree<K, V> diskTree = DiskBPlusTree.open(path, 4096, keySerializer, valueSerializer,
+                                                                       null, FRAME_COUNT, new ClockPolicy(),
+                                                                       FLUSH_INTERVAL, packLeaves))
+                {
+                    check(name, diskTree, expected);
+                    // a writer takes all changes to a key, in order, so the tree ends up as the map does
+                    List<List<Map.Entry<K, V>>> changes = new ArrayList<>();
+                    for (int i = 0; i < WRITERS; i ++)
+                    {
+                        changes.add(new ArrayList<>());
+                    }
+                    for (int i = 0; i < 5000; i ++)
+                    {
+                        K key = keys.apply(random);
+                        // grows in the first rounds, shrinks in the last, a null value deletes
+                        V value = random.nextInt(10) < (round < 2 ? 7 : 2) ? values.apply(random) : null;
+                        if (value != null)
+                        {
+                            expected.put(key, value);
+                        }
+                        else
+                        {
+                            expected.remove(key);
+                        }
+                        changes.get(Math.floorMod(key.hashCode(), WRITERS))
+                                .add(new AbstractMap.SimpleEntry<>(key, value));
+                    }
+                    change(diskTree, changes);
+                    check(name, diskTree, expected);
+                }
+            }
+
+            long endTime = System.currentTimeMillis();
+
+            int pageCount;
+            try (PageFile file = PageFile.open(path, 4096))
+            {
+                pageCount = file.pageCount();
+            }
+            logger.info(String.format("%s, %s leaves: %d entries in %d pages, used time: %d ms", name,
+                                      packLeaves ? "packed" : "plain", expected.size(), pageCount,
+                                      endTime - startTime));
+        }
+        finally
+        {
+            TestFiles.delete(directory);
+        }
+    }
+
+    private static <K, V> void change(DiskBPlusTree<K, V> diskTree, List<List<Map.Entry<K, V>>> changes)
+            throws Exception
+    {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (List<Map.Entry<K, V>> writerChanges : changes)
+        {
+            writers.add(new Thread(() ->
+            {
+                try
+                {
+                    for (Map.Entry<K, V> change : writerChanges)
+                    {
+                        if (change.getValue() != null)
+                        {
+                            diskTree.put(change.getKey(), change.getValue());
+                        }
+                        else
+                        {
+                            diskTree.delete(change.getKey());
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread writer : writers)
+        {
+            writer.start();
+        }
+        for (Thread writer : writers)
+        {
+            writer.join();
+        }
+        if (failure.get() != null)
+        {
+            throw failure.get();
+        }
+    }
+
+    private static <K, V> void check(String name, DiskBPlusTree<K, V> diskTree, TreeMap<K, V> expected)
+            throws Exception
+    {
+        if (diskTree.size() != expected.size() || !diskTree.validate())
+        {
+            logger.error(String.format("%s: tree of %d entries, %d expected", name, diskTree.size(), expected.size()));
+            System.exit(1);
+        }
+        for (Map.Entry<K, V> entry : expected.entrySet())
+        {
+            if (!Objects.deepEquals(diskTree.search(entry.getKey()), entry.getValue()))
+            {
+                logger.error(String.format("%s: key %s not found", name, entry.getKey()));
+                System.exit(1);
+            }
+        }
+    }
+}
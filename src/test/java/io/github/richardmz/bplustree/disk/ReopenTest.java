@@ -0,0 +1,132 @@
+/**
+ * Copyright 2025 Chen Li
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.richardmz.bplustree.disk;
+
+import io.github.richardmz.bplustree.Logger;
+import io.github.richardmz.bplustree.Serializers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Closes and reopens a tree file between rounds of changes and checks that each reopened tree holds what was written,
+ * then damages the page size in the header and checks that opening refuses the file.
+ */
+public class ReopenTest
+{
+    public static void main(String[] args)
+    {
+        System.setErr(System.out);
+        Logger logger = Logger.getInstance(Logger.Level.INFO);
+        logger.start();
+
+        try
+        {
+            Path directory = TestFiles.createDirectory("reopen");
+            Path path = directory.resolve("tree");
+            try
+            {
+                TreeMap<Long, Long> expected = new TreeMap<>();
+                Random random = new Random(11);
+
+                logger.info("Reopening...");
+
+                long startTime = System.currentTimeMillis();
+
+                for (int round = 0; round < 10; round ++)
+                {
+                    // the page size only counts when creating, the file keeps its own
+                    int pageSize = round % 2 == 0 ? 4096 : 8192;
+                    try (DiskBPlusTree<Long, Long> diskTree = DiskBPlusTree.open(path, pageSize, Serializers.LONG,
+                                                                                  Serializers.LONG))
+                    {
+                        if (diskTree.pageSize() != 4096 || diskTree.size() != expected.size()
+                                || !diskTree.validate()
+                                || !diskTree.rangeQuery(Long.MIN_VALUE, Long.MAX_VALUE)
+                                            .equals(new ArrayList<>(expected.values())))
+                        {
+                            logger.error(String.format("Round %d: reopened tree of %d entries differs from %d "
+                                                               + "expected", round, diskTree.size(), expected.size()));
+                            System.exit(1);
+                        }
+                        for (int i = 0; i < 2000; i ++)
+                        {
+                            long num = random.nextInt(5000);
+                            if (random.nextInt(4) > 0)
+                            {
+                                diskTree.put(num, num * round);
+                                expected.put(num, num * round);
+                            }
+                            else
+                            {
+                                diskTree.delete(num);
+                                expected.remove(num);
+                            }
+                        }
+                    }
+                }
+
+                long endTime = System.currentTimeMillis();
+
+                logger.info(String.format("Reopening used time: %d ms", endTime - startTime));
+
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+                {
+                    // the page size, after the magic and the format version
+                    channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 3000), 8);
+                }
+                try
+                {
+                    DiskBPlusTree.open(path, 4096, Serializers.LONG, Serializers.LONG).close();
+                    logger.error("Opened a file with a damaged page size");
+                    System.exit(1);
+                }
+                catch (IOException e)
+                {
+                    logger.info("Damaged page size refused: " + e.getMessage());
+                }
+            }
+            finally
+            {
+                TestFiles.delete(directory);
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            // waiting for the logger to complete output
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+
+            logger.stop();
+        }
+    }
+}